@@ -0,0 +1,63 @@
+package com.flurry.proguard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark building the tar-gzipped archive which is uploaded, from ProGuard mappings and from sets of shared
+ * objects
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class ArchiveBenchmark {
+    /** See {@link BenchmarkInputs} */
+    @Param({"mapping", "mapping-100MB", "mapping-1GB", "so-8x4MB", "so-64x1MB"})
+    public String input;
+
+    @Param({"1", "6", "9"})
+    public int compressionLevel;
+
+    @Param({"1", "4"})
+    public int compressionThreads;
+
+    @Param({"8192", "65536"})
+    public int bufferSize;
+
+    private MappingArchive archive;
+    private File output;
+
+    @Setup
+    public void setUp() throws IOException {
+        archive = new MappingArchive(BenchmarkInputs.files(input), "benchmark", compressionLevel,
+                compressionThreads);
+        output = File.createTempFile("benchmark", ".tgz");
+    }
+
+    @TearDown
+    public void tearDown() {
+        output.delete();
+    }
+
+    @Benchmark
+    public File createArchive() {
+        return UploadSession.createArchive(archive, output, bufferSize);
+    }
+}
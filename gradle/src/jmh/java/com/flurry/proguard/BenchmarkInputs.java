@@ -0,0 +1,155 @@
+package com.flurry.proguard;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The files benchmarks run against. Large inputs are generated once into the temp directory and reused by later
+ * runs.
+ *
+ * <ul>
+ *     <li>{@code mapping} the mapping.txt bundled with the tests, about 11k lines</li>
+ *     <li>{@code mapping-100MB}, {@code mapping-1GB} copies of the bundled mapping with every class renamed, until
+ *     the file is that large</li>
+ *     <li>{@code so-8x4MB}, {@code so-64x1MB} that many shared objects of that size, each with code, a symbol table
+ *     and debug info</li>
+ * </ul>
+ */
+class BenchmarkInputs {
+    private static final File DIRECTORY = new File(System.getProperty("java.io.tmpdir"), "flurry-jmh-inputs");
+    private static final long MB = 1024 * 1024;
+
+    private BenchmarkInputs() {
+    }
+
+    static List<File> files(String input) throws IOException {
+        if (input.equals("mapping")) {
+            return Arrays.asList(bundledMapping());
+        } else if (input.startsWith("mapping-")) {
+            return Arrays.asList(scaledMapping(parseSize(input.substring("mapping-".length()))));
+        } else if (input.startsWith("so-")) {
+            String[] countAndSize = input.substring("so-".length()).split("x");
+            return libraries(Integer.parseInt(countAndSize[0]), parseSize(countAndSize[1]));
+        }
+        throw new IllegalArgumentException("Unknown benchmark input " + input);
+    }
+
+    static File file(String input) throws IOException {
+        List<File> files = files(input);
+        if (files.size() != 1) {
+            throw new IllegalArgumentException(input + " isn't a single file");
+        }
+        return files.get(0);
+    }
+
+    private static long parseSize(String size) {
+        if (size.endsWith("GB")) {
+            return Long.parseLong(size.substring(0, size.length() - 2)) * 1024 * MB;
+        } else if (size.endsWith("MB")) {
+            return Long.parseLong(size.substring(0, size.length() - 2)) * MB;
+        }
+        throw new IllegalArgumentException("Unknown size " + size);
+    }
+
+    private static File bundledMapping() throws IOException {
+        File mapping = new File(DIRECTORY, "mapping.txt");
+        if (!mapping.isFile()) {
+            mkdirs(DIRECTORY);
+            try (InputStream in = BenchmarkInputs.class.getResourceAsStream("/mapping.txt")) {
+                if (in == null) {
+                    throw new IOException("mapping.txt is missing from the benchmark classpath");
+                }
+                Files.copy(in, mapping.toPath());
+            }
+        }
+        return mapping;
+    }
+
+    /**
+     * Repeat the bundled mapping, moving each copy's classes to their own package so that no two classes share a
+     * name and the copies don't compress better than a real mapping would
+     */
+    private static File scaledMapping(long size) throws IOException {
+        File mapping = new File(DIRECTORY, "mapping-" + size + ".txt");
+        if (mapping.isFile() && mapping.length() >= size) {
+            return mapping;
+        }
+        List<String> lines = Files.readAllLines(bundledMapping().toPath(), StandardCharsets.UTF_8);
+        File temp = new File(DIRECTORY, mapping.getName() + ".tmp");
+        long written = 0;
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp),
+                StandardCharsets.UTF_8))) {
+            for (int copy = 0; written < size; copy++) {
+                String prefix = "copy" + copy + ".";
+                for (String line : lines) {
+                    if (!line.isEmpty() && !Character.isWhitespace(line.charAt(0)) && line.charAt(0) != '#') {
+                        line = prefix + line.replace(" -> ", " -> " + prefix);
+                    }
+                    out.write(line);
+                    out.write('\n');
+                    written += line.length() + 1;
+                }
+            }
+        }
+        Files.move(temp.toPath(), mapping.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return mapping;
+    }
+
+    /**
+     * Shared objects split between two ABIs, half code and half symbols and debug info. The code is random so it
+     * compresses about as badly as machine code, the debug info is repetitive text.
+     */
+    private static List<File> libraries(int count, long size) throws IOException {
+        File root = new File(DIRECTORY, "so-" + count + "x" + size);
+        List<File> libraries = new ArrayList<>();
+        Random random = new Random(count * 31L + size);
+        for (int i = 0; i < count; i++) {
+            File library = new File(root, (i % 2 == 0 ? "arm64-v8a" : "x86_64") + "/lib" + i + ".so");
+            libraries.add(library);
+            if (library.isFile()) {
+                continue;
+            }
+            mkdirs(library.getParentFile());
+            byte[] buildId = new byte[20];
+            random.nextBytes(buildId);
+            byte[] code = new byte[(int) (size / 2)];
+            random.nextBytes(code);
+            byte[] symbols = new byte[(int) (size / 8)];
+            random.nextBytes(symbols);
+            new TestElf().buildId(buildId)
+                    .section(".text", TestElf.SHT_PROGBITS, code)
+                    .section(".symtab", TestElf.SHT_SYMTAB, symbols)
+                    .section(".debug_info", TestElf.SHT_PROGBITS, debugInfo(i, (int) (size * 3 / 8)))
+                    .write(library);
+        }
+        return libraries;
+    }
+
+    private static byte[] debugInfo(int library, int size) {
+        StringBuilder text = new StringBuilder(size);
+        for (int line = 0; text.length() < size; line++) {
+            text.append("src/main/cpp/lib").append(library).append("/module").append(line % 97)
+                    .append(".cpp:").append(line).append(" function_").append(line % 1013).append('\n');
+        }
+        text.setLength(size);
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void mkdirs(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.flurry.proguard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark the passes made over a ProGuard mapping before it is archived: hashing it for the upload cache,
+ * minifying it, fingerprinting its classes and writing a delta against the previous upload
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class MappingBenchmark {
+    /** See {@link BenchmarkInputs} */
+    @Param({"mapping", "mapping-100MB", "mapping-1GB"})
+    public String input;
+
+    private File mapping;
+    private File output;
+    private MappingDelta.Index base;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapping = BenchmarkInputs.file(input);
+        output = File.createTempFile("benchmark", ".txt");
+        // Against its own fingerprint every class is unchanged, the common case of rebuilding without code changes
+        base = MappingDelta.fingerprint(mapping).forUpload("benchmark", "benchmark");
+    }
+
+    @TearDown
+    public void tearDown() {
+        output.delete();
+    }
+
+    @Benchmark
+    public String contentHash() throws IOException {
+        return UploadCache.contentHash(mapping);
+    }
+
+    @Benchmark
+    public long minify() throws IOException {
+        MappingMinifier minifier = new MappingMinifier();
+        minifier.minify(mapping, output);
+        return minifier.getLinesWritten();
+    }
+
+    @Benchmark
+    public MappingDelta.Index fingerprint() throws IOException {
+        return MappingDelta.fingerprint(mapping);
+    }
+
+    @Benchmark
+    public MappingDelta.Result delta() throws IOException {
+        return MappingDelta.write(mapping, base, output);
+    }
+
+    @Benchmark
+    public long measureArchive() throws IOException {
+        return new MappingArchive(Collections.singletonList(mapping), "benchmark").computeLength();
+    }
+}
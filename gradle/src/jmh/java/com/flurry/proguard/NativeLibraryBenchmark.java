@@ -0,0 +1,66 @@
+package com.flurry.proguard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark finding the shared objects to upload in a native build's output and slimming them down to their
+ * symbols
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class NativeLibraryBenchmark {
+    /** See {@link BenchmarkInputs} */
+    @Param({"so-8x4MB", "so-64x1MB"})
+    public String input;
+
+    private List<File> libraries;
+    private File root;
+    private File output;
+
+    @Setup
+    public void setUp() throws IOException {
+        libraries = BenchmarkInputs.files(input);
+        root = libraries.get(0).getParentFile().getParentFile();
+        output = File.createTempFile("benchmark", ".so");
+    }
+
+    @TearDown
+    public void tearDown() {
+        output.delete();
+    }
+
+    @Benchmark
+    public List<File> scan() throws IOException {
+        return new NativeLibraryScanner(Collections.emptyList()).scan(Collections.singletonList(root));
+    }
+
+    @Benchmark
+    public long slim() throws IOException {
+        long size = 0;
+        for (File library : libraries) {
+            size += ElfSlimmer.slim(library, output);
+        }
+        return size;
+    }
+}
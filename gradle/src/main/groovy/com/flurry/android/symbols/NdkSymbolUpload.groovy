@@ -3,18 +3,12 @@
  */
 package com.flurry.android.symbols
 
-import com.android.build.gradle.api.BaseVariant
-import com.android.build.gradle.tasks.ExternalNativeBuildTask
-import com.flurry.proguard.AndroidUploadType
-import com.flurry.proguard.UploadMapping
+import com.flurry.proguard.NativeLibraryScanner
 import groovy.transform.CompileStatic
-import org.gradle.api.file.DirectoryProperty
 import org.gradle.api.logging.Logger
 
-import static groovy.io.FileType.FILES
-
 /*
- * Finds the generated Native shared object files and sends them to Flurry's crash service
+ * Finds the generated Native shared object files to send to Flurry's crash service
  *
  * Portions of this file are taken from Bugsnag-android-gradle-plugin which has the following license:
  *
@@ -45,58 +39,21 @@ import static groovy.io.FileType.FILES
 @CompileStatic
 class NdkSymbolUpload {
 
-    static void upload(BaseVariant variant, Map<String, String> configValues, Logger logger) {
-        ArrayList<String> files = new ArrayList<>()
-        Closure addSharedObjectFiles = { File sharedObjectFile ->
+    /**
+     * Find the shared objects worth uploading in the native build's output folders. Each distinct library with
+     * symbols is returned once, however many variants or ABI folders it was copied to.
+     *
+     * @param soFolders the soFolder of each external native build task
+     * @param abiFilters the ABIs to upload, empty for every ABI
+     * @param logger the task's logger
+     * @return the paths of the .so files
+     */
+    static List<String> findSharedObjectFiles(Set<File> soFolders, List<String> abiFilters, Logger logger) {
+        List<String> files = new ArrayList<>()
+        for (File sharedObjectFile : new NativeLibraryScanner(abiFilters).scan(soFolders)) {
             logger.lifecycle("Found .so file: " + sharedObjectFile.parentFile.name + "/" + sharedObjectFile.name)
             files.add(sharedObjectFile.absolutePath)
         }
-
-        Closure searchForSharedObjectFiles = { ExternalNativeBuildTask task ->
-            if (task.hasProperty("objFolder")) {
-                throw new IllegalStateException("Supports only AGP 8+");
-            }
-            if (task.soFolder instanceof DirectoryProperty) {
-                findSharedObjectFiles(task.soFolder.asFileTree.files, addSharedObjectFiles)
-            }
-            else {
-                findSharedObjectFiles(Set.of((File) task.soFolder), addSharedObjectFiles)
-            }
-        }
-
-        variant.getExternalNativeBuildProviders().each {
-            it.configure() {
-                searchForSharedObjectFiles(it)
-            }
-        }
-        
-        if (files.size() > 0) {
-            String apiKey = configValues[SymbolUploadPlugin.API_KEY]
-            String token = configValues[SymbolUploadPlugin.TOKEN]
-            int timeout = configValues[SymbolUploadPlugin.TIMEOUT].toInteger()
-
-            UploadMapping.uploadFiles(apiKey, null, files, token, timeout,
-                    AndroidUploadType.ANDROID_NATIVE)
-        }
-    }
-
-    private static void findSharedObjectFiles(Set<File> fileSet, Closure processor) {
-        if (fileSet == null) {
-            return;
-        }
-        for(File file: fileSet) {
-            if (file.exists()) {
-                if (file.isDirectory()) {
-                    file.eachDir { dir ->
-                        dir.eachFileMatch(FILES, ~/.*\.so$/, { processor(it) })
-                    }
-                }
-                else {
-                    if (file.getName().endsWith(".so")) {
-                        processor(file);
-                    }
-                }
-            }
-        }
+        return files
     }
 }
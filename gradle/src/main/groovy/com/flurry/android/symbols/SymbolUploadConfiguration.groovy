@@ -13,6 +13,36 @@ class SymbolUploadConfiguration {
     String configPath
     int uploadTimeout = 300
     boolean ndk
+    boolean streamUpload
+    int compressionLevel = -1
+    int compressionThreads = 1
+    String cacheDir
+    int cacheTtlHours = 30 * 24
+    long uploadChunkSize = 0
+    int parallelChunks = 1
+    String journalDir
+    String projectIdCacheFile
+    int projectIdCacheTtlHours = 24
+    long pollInterval = 3000
+    long maxPollInterval = 30000
+    double pollBackoff = 1.5
+    double pollJitter = 0.2
+    boolean verifyLater
+    String pendingUploadsDir
+    boolean minifyMapping
+    String deltaIndexDir
+    boolean experimentalDeltaUploads
+    boolean slimNativeLibraries
+    List<String> ndkAbiFilters = []
+    int maxConcurrentUploads = 4
+    long maxUploadBytesPerSecond
+    int maxRetries = 3
+    long retryDelay = 500
+    long maxRetryDelay = 30000
+    long hedgeDelay
+    boolean uploadReports
+    String metadataUrl
+    String uploadUrl
 
     @Override
     String toString() {
@@ -22,6 +52,36 @@ class SymbolUploadConfiguration {
                 ", useEnvVar=" + useEnvVar +
                 ", configPath='" + configPath + '\'' +
                 ", uploadTimeout=" + uploadTimeout +
+                ", streamUpload=" + streamUpload +
+                ", compressionLevel=" + compressionLevel +
+                ", compressionThreads=" + compressionThreads +
+                ", cacheDir='" + cacheDir + '\'' +
+                ", cacheTtlHours=" + cacheTtlHours +
+                ", uploadChunkSize=" + uploadChunkSize +
+                ", parallelChunks=" + parallelChunks +
+                ", journalDir='" + journalDir + '\'' +
+                ", projectIdCacheFile='" + projectIdCacheFile + '\'' +
+                ", projectIdCacheTtlHours=" + projectIdCacheTtlHours +
+                ", pollInterval=" + pollInterval +
+                ", maxPollInterval=" + maxPollInterval +
+                ", pollBackoff=" + pollBackoff +
+                ", pollJitter=" + pollJitter +
+                ", verifyLater=" + verifyLater +
+                ", pendingUploadsDir='" + pendingUploadsDir + '\'' +
+                ", minifyMapping=" + minifyMapping +
+                ", deltaIndexDir='" + deltaIndexDir + '\'' +
+                ", experimentalDeltaUploads=" + experimentalDeltaUploads +
+                ", slimNativeLibraries=" + slimNativeLibraries +
+                ", ndkAbiFilters=" + ndkAbiFilters +
+                ", maxConcurrentUploads=" + maxConcurrentUploads +
+                ", maxUploadBytesPerSecond=" + maxUploadBytesPerSecond +
+                ", maxRetries=" + maxRetries +
+                ", retryDelay=" + retryDelay +
+                ", maxRetryDelay=" + maxRetryDelay +
+                ", hedgeDelay=" + hedgeDelay +
+                ", uploadReports=" + uploadReports +
+                ", metadataUrl='" + metadataUrl + '\'' +
+                ", uploadUrl='" + uploadUrl + '\'' +
                 '}'
     }
 }
@@ -3,14 +3,14 @@
  */
 package com.flurry.android.symbols
 
-import com.android.build.gradle.api.ApplicationVariant
 import com.android.build.gradle.api.BaseVariant
-import com.flurry.proguard.AndroidUploadType
 import com.flurry.proguard.UploadMapping
+import com.flurry.proguard.UploadOptions
+import com.flurry.proguard.UploadSession
 import org.gradle.api.Plugin
 import org.gradle.api.Project
 import org.gradle.api.UnknownTaskException
-import org.gradle.api.logging.Logger
+import org.gradle.api.provider.Provider
 
 
 /**
@@ -24,6 +24,37 @@ class SymbolUploadPlugin implements Plugin<Project> {
     public static final String TOKEN = "token"
     public static final String TIMEOUT = "timeout"
     public static final String NDK = "ndk"
+    public static final String STREAM = "stream"
+    public static final String COMPRESSION_LEVEL = "compression-level"
+    public static final String COMPRESSION_THREADS = "compression-threads"
+    public static final String CACHE_DIR = "cache-dir"
+    public static final String CACHE_TTL_HOURS = "cache-ttl-hours"
+    public static final String CHUNK_SIZE = "chunk-size"
+    public static final String PARALLEL_CHUNKS = "parallel-chunks"
+    public static final String JOURNAL_DIR = "journal-dir"
+    public static final String PROJECT_CACHE_FILE = "project-cache-file"
+    public static final String PROJECT_CACHE_TTL_HOURS = "project-cache-ttl-hours"
+    public static final String POLL_INTERVAL = "poll-interval"
+    public static final String MAX_POLL_INTERVAL = "max-poll-interval"
+    public static final String POLL_BACKOFF = "poll-backoff"
+    public static final String POLL_JITTER = "poll-jitter"
+    public static final String VERIFY_LATER = "verify-later"
+    public static final String PENDING_DIR = "pending-dir"
+    public static final String MINIFY = "minify"
+    public static final String DELTA_DIR = "delta-dir"
+    public static final String EXPERIMENTAL_DELTA = "experimental-delta"
+    public static final String SLIM_NATIVE = "slim-native"
+    public static final String NDK_ABI_FILTERS = "ndk-abi-filters"
+    public static final String MAX_CONCURRENT_UPLOADS = "max-concurrent-uploads"
+    public static final String MAX_UPLOAD_RATE = "max-upload-bytes-per-second"
+    public static final String MAX_RETRIES = "max-retries"
+    public static final String RETRY_DELAY = "retry-delay"
+    public static final String MAX_RETRY_DELAY = "max-retry-delay"
+    public static final String HEDGE_DELAY = "hedge-delay"
+    public static final String UPLOAD_REPORTS = "upload-reports"
+    public static final String METADATA_URL = "metadata-url"
+    public static final String UPLOAD_URL = "upload-url"
+    public static final String VERIFY_TASK_NAME = "verifyFlurryUploads"
 
     @Override
     void apply(Project project) {
@@ -43,34 +74,52 @@ class SymbolUploadPlugin implements Plugin<Project> {
             SymbolUploadConfiguration config = getOrCreateConfig(project)
             Map<String, String> configValues = evaluateConfig(config)
             String apiKey = configValues[API_KEY]
-            String token = configValues[TOKEN]
-            int timeout = configValues[TIMEOUT].toInteger()
+            Provider<String> token = tokenProvider(project, config)
             boolean ndk = configValues[NDK].toBoolean()
 
             if (!apiKey) {
                 throw new IllegalStateException("You must provide the project's API key")
-            } else if (!token) {
+            } else if (!config.token && config.configPath == null) {
                 throw new IllegalStateException("You must provide a valid token")
             }
 
+            // Every module applying the plugin shares the first module's service
+            Provider<UploadService> uploadService = project.gradle.sharedServices.registerIfAbsent(
+                    UploadService.NAME, UploadService) {
+                it.parameters.metadataUrl.set(configValues[METADATA_URL])
+                it.parameters.uploadUrl.set(configValues[UPLOAD_URL])
+            }
+
+            // Checks the uploads sent with verifyLater, eg. from a later CI step
+            project.tasks.register(VERIFY_TASK_NAME, VerifyUploadsTask) {
+                it.configValues.set(configValues)
+                it.token.set(token)
+            }
+
             project.android.applicationVariants.all { BaseVariant variant ->
                 String uuid = variantUuidMap[variant.baseName]
                 project.logger.lifecycle("Variant=${variant.baseName} UUID=${uuid}")
+                String taskSuffix = variant.name.capitalize()
 
                 if (variant.buildType.isMinifyEnabled()) {
-                    String taskSuffix = variant.name.capitalize()
                     String taskName = String.format('uploadProguardMappingFiles%s', taskSuffix)
-                    def uploadMappingTask = project.tasks.register(taskName) {
-                        doLast {
-                            File mappingFile = getMappingFile(variant, project.logger)
-                            if (mappingFile != null) {
-                                UploadMapping.uploadFiles(apiKey, uuid,
-                                        (Collections.singletonList(mappingFile.absolutePath) as List),
-                                        token, timeout, AndroidUploadType.ANDROID_JAVA)
-                            } else {
-                                project.logger.lifecycle("Mapping file not found")
-                            }
+                    def uploadMappingTask = project.tasks.register(taskName, UploadMappingTask) {
+                        // No value when the variant wrote no mapping, so the task records a skipped upload
+                        it.mappingFile.set(project.layout.file(variant.mappingFileProvider.map { mappings ->
+                            mappings.files.find { it.isFile() }
+                        }))
+                        it.uuid.set(uuid)
+                        it.variantName.set(variant.name)
+                        it.configValues.set(configValues)
+                        it.token.set(token)
+                        it.receiptFile.set(project.layout.buildDirectory.file(
+                                "flurry/receipts/${variant.name}-proguard.json"))
+                        if (configValues[UPLOAD_REPORTS]?.toBoolean()) {
+                            it.reportFile.set(project.layout.buildDirectory.file(
+                                    "flurry/reports/${variant.name}-proguard.json"))
                         }
+                        it.uploadService.set(uploadService)
+                        it.usesService(uploadService)
                     }
 
                     // Attaching upload task to code obfuscation related tasks
@@ -89,22 +138,28 @@ class SymbolUploadPlugin implements Plugin<Project> {
                     }
                 }
 
-                Closure uploadNDKSymbols = {
-                    if (ndk) {
-                        NdkSymbolUpload.upload(variant, configValues, project.logger)
-                    }
-                }
-
-                try {
-                    variant.getAssembleProvider().configure() {
-                        it.doLast {
-                            uploadNDKSymbols()
+                if (ndk) {
+                    def uploadNativeTask = project.tasks.register("uploadNativeSymbols${taskSuffix}",
+                            UploadNativeSymbolsTask) {
+                        variant.externalNativeBuildProviders.each { provider ->
+                            it.soFolders.from(provider.map { it.soFolder })
                         }
+                        String abiFilters = configValues[NDK_ABI_FILTERS]
+                        it.abiFilters.set(abiFilters ? abiFilters.split(",").collect { it.trim() } : [])
+                        it.variantName.set(variant.name)
+                        it.configValues.set(configValues)
+                        it.token.set(token)
+                        it.receiptFile.set(project.layout.buildDirectory.file(
+                                "flurry/receipts/${variant.name}-native.json"))
+                        if (configValues[UPLOAD_REPORTS]?.toBoolean()) {
+                            it.reportFile.set(project.layout.buildDirectory.file(
+                                    "flurry/reports/${variant.name}-native.json"))
+                        }
+                        it.uploadService.set(uploadService)
+                        it.usesService(uploadService)
                     }
-                } catch (Throwable ignored) {
-                    // The catch block is a fallback in case if the gradle version does not support the Provider API
-                    variant.assemble.doLast {
-                        uploadNDKSymbols()
+                    variant.assembleProvider.configure {
+                        it.finalizedBy(uploadNativeTask)
                     }
                 }
             }
@@ -125,39 +180,149 @@ class SymbolUploadPlugin implements Plugin<Project> {
         return config
     }
 
+    /**
+     * Evaluates every setting except the token, see {@link #tokenProvider}
+     */
     private static Map<String, String> evaluateConfig(SymbolUploadConfiguration config) {
         Map<String, String> configValues = new HashMap<>()
 
         if (config.apiKey) {
             configValues[API_KEY] = config.apiKey
         }
-        if (config.token) {
-            configValues[TOKEN] = config.useEnvVar ? System.getenv(config.token) : config.token
-        }
         configValues[NDK] = config.ndk.toString()
         configValues.put(TIMEOUT, config.uploadTimeout as String)
+        configValues[STREAM] = config.streamUpload.toString()
+        configValues[COMPRESSION_LEVEL] = config.compressionLevel as String
+        configValues[COMPRESSION_THREADS] = config.compressionThreads as String
+        if (config.cacheDir) {
+            configValues[CACHE_DIR] = config.cacheDir
+        }
+        configValues[CACHE_TTL_HOURS] = config.cacheTtlHours as String
+        configValues[CHUNK_SIZE] = config.uploadChunkSize as String
+        configValues[PARALLEL_CHUNKS] = config.parallelChunks as String
+        if (config.journalDir) {
+            configValues[JOURNAL_DIR] = config.journalDir
+        }
+        if (config.projectIdCacheFile) {
+            configValues[PROJECT_CACHE_FILE] = config.projectIdCacheFile
+        }
+        configValues[PROJECT_CACHE_TTL_HOURS] = config.projectIdCacheTtlHours as String
+        configValues[POLL_INTERVAL] = config.pollInterval as String
+        configValues[MAX_POLL_INTERVAL] = config.maxPollInterval as String
+        configValues[POLL_BACKOFF] = config.pollBackoff as String
+        configValues[POLL_JITTER] = config.pollJitter as String
+        configValues[VERIFY_LATER] = config.verifyLater.toString()
+        if (config.pendingUploadsDir) {
+            configValues[PENDING_DIR] = config.pendingUploadsDir
+        }
+        configValues[MINIFY] = config.minifyMapping.toString()
+        if (config.deltaIndexDir) {
+            configValues[DELTA_DIR] = config.deltaIndexDir
+        }
+        configValues[EXPERIMENTAL_DELTA] = config.experimentalDeltaUploads.toString()
+        configValues[SLIM_NATIVE] = config.slimNativeLibraries.toString()
+        if (config.ndkAbiFilters) {
+            configValues[NDK_ABI_FILTERS] = config.ndkAbiFilters.join(",")
+        }
+        configValues[MAX_CONCURRENT_UPLOADS] = config.maxConcurrentUploads as String
+        configValues[MAX_UPLOAD_RATE] = config.maxUploadBytesPerSecond as String
+        configValues[MAX_RETRIES] = config.maxRetries as String
+        configValues[RETRY_DELAY] = config.retryDelay as String
+        configValues[MAX_RETRY_DELAY] = config.maxRetryDelay as String
+        configValues[HEDGE_DELAY] = config.hedgeDelay as String
+        configValues[UPLOAD_REPORTS] = config.uploadReports.toString()
+        configValues[METADATA_URL] = config.metadataUrl ?: UploadSession.DEFAULT_METADATA_BASE
+        configValues[UPLOAD_URL] = config.uploadUrl ?: UploadSession.DEFAULT_UPLOAD_BASE
 
         if (config.configPath != null) {
             configValues.putAll(UploadMapping.parseConfigFile(config.configPath) as Map<? extends String, ? extends String>)
+            configValues.remove(TOKEN)
         }
 
         return configValues
     }
 
     /**
-     * Returns the mapping file
-     * @param variant the ApplicationVariant
-     * @return the file or null if not found
+     * The token is read when a task runs, from the environment variable or config file, so it isn't written to
+     * the configuration cache with the tasks. A token inlined in the build script is stored like the script's other
+     * values.
+     *
+     * @return the token from the config file if it has one, else from the token setting
      */
-    static File getMappingFile(ApplicationVariant variant, Logger logger) {
-        try {
-            if (variant.getMappingFileProvider() != null && !variant.getMappingFileProvider().get().isEmpty()) {
-                return variant.getMappingFileProvider().get().singleFile
+    private static Provider<String> tokenProvider(Project project, SymbolUploadConfiguration config) {
+        Provider<String> token
+        if (config.token) {
+            String setting = config.token
+            token = config.useEnvVar ? project.providers.environmentVariable(setting)
+                    : project.providers.provider { setting }
+        }
+        if (config.configPath != null) {
+            Provider<String> fromFile = project.providers.fileContents(
+                    project.objects.fileProperty().fileValue(project.file(config.configPath))).asText.map {
+                Properties properties = new Properties()
+                properties.load(new StringReader(it))
+                properties.getProperty(TOKEN)
             }
-        } catch (Exception ignored) {
-            logger.lifecycle("Error while accessing mapping file")
-            return variant.mappingFile
+            token = token != null ? fromFile.orElse(token) : fromFile
+        }
+        return token
+    }
+
+    /**
+     * @param token the token provider a task was given
+     * @return the token
+     * @throws IllegalStateException if neither the environment variable nor the config file has a token
+     */
+    static String requireToken(Provider<String> token) {
+        String value = token.getOrNull()
+        if (!value) {
+            throw new IllegalStateException("You must provide a valid token")
+        }
+        return value
+    }
+
+    /**
+     * Builds the optional upload settings from the evaluated configuration
+     *
+     * @param configValues the values returned by evaluateConfig
+     * @return the upload options
+     */
+    static UploadOptions getUploadOptions(Map<String, String> configValues) {
+        UploadOptions options = new UploadOptions()
+                .setStreaming(Boolean.parseBoolean(configValues[STREAM]))
+                .setCompressionLevel(configValues[COMPRESSION_LEVEL].toInteger())
+                .setCompressionThreads(configValues[COMPRESSION_THREADS].toInteger())
+                .setCacheDir(configValues[CACHE_DIR] ? new File(configValues[CACHE_DIR]) : null)
+                .setCacheTtlHours(configValues[CACHE_TTL_HOURS].toInteger())
+                .setChunkSize(configValues[CHUNK_SIZE].toLong())
+                .setParallelChunks(configValues[PARALLEL_CHUNKS].toInteger())
+                .setProjectIdCacheTtlHours(configValues[PROJECT_CACHE_TTL_HOURS].toInteger())
+                .setPollIntervalMs(configValues[POLL_INTERVAL].toLong())
+                .setMaxPollIntervalMs(configValues[MAX_POLL_INTERVAL].toLong())
+                .setPollBackoff(configValues[POLL_BACKOFF].toDouble())
+                .setPollJitter(configValues[POLL_JITTER].toDouble())
+                .setVerifyLater(Boolean.parseBoolean(configValues[VERIFY_LATER]))
+                .setMinifyMappings(Boolean.parseBoolean(configValues[MINIFY]))
+                .setExperimentalDeltaUploads(Boolean.parseBoolean(configValues[EXPERIMENTAL_DELTA]))
+                .setSlimNativeLibraries(Boolean.parseBoolean(configValues[SLIM_NATIVE]))
+                .setMaxUploadBytesPerSecond(configValues[MAX_UPLOAD_RATE].toLong())
+                .setMaxConcurrentUploads(configValues[MAX_CONCURRENT_UPLOADS].toInteger())
+                .setMaxRetries(configValues[MAX_RETRIES].toInteger())
+                .setRetryDelayMs(configValues[RETRY_DELAY].toLong())
+                .setMaxRetryDelayMs(configValues[MAX_RETRY_DELAY].toLong())
+                .setHedgeDelayMs(configValues[HEDGE_DELAY].toLong())
+        if (configValues[JOURNAL_DIR]) {
+            options.setJournalDir(new File(configValues[JOURNAL_DIR]))
+        }
+        if (configValues[PROJECT_CACHE_FILE]) {
+            options.setProjectIdCacheFile(new File(configValues[PROJECT_CACHE_FILE]))
+        }
+        if (configValues[PENDING_DIR]) {
+            options.setPendingUploadsDir(new File(configValues[PENDING_DIR]))
+        }
+        if (configValues[DELTA_DIR]) {
+            options.setDeltaIndexDir(new File(configValues[DELTA_DIR]))
         }
-        return null
+        return options
     }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.android.symbols
+
+import com.flurry.proguard.AndroidUploadType
+import groovy.transform.CompileStatic
+import org.gradle.api.DefaultTask
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.provider.MapProperty
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFile
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.Optional
+import org.gradle.api.tasks.OutputFile
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
+import org.gradle.api.tasks.TaskAction
+import org.gradle.work.DisableCachingByDefault
+import org.gradle.workers.WorkerExecutor
+
+import javax.inject.Inject
+
+/**
+ * Sends a variant's ProGuard mapping file to Flurry's crash service. The task is up to date while the mapping and
+ * the variant's uuid are unchanged, so rebuilding a variant doesn't upload the same mapping again.
+ */
+@CompileStatic
+@DisableCachingByDefault(because = "A receipt restored from the build cache would skip an upload for this build")
+abstract class UploadMappingTask extends DefaultTask {
+
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    abstract RegularFileProperty getMappingFile()
+
+    @Input
+    abstract Property<String> getUuid()
+
+    @Input
+    abstract Property<String> getVariantName()
+
+    /** The evaluated plugin configuration, changing a setting doesn't upload again */
+    @Internal
+    abstract MapProperty<String, String> getConfigValues()
+
+    /** The auth token, read when the task runs */
+    @Internal
+    abstract Property<String> getToken()
+
+    @OutputFile
+    abstract RegularFileProperty getReceiptFile()
+
+    /** Where to write the upload's report, not set unless upload reports are enabled */
+    @Internal
+    abstract RegularFileProperty getReportFile()
+
+    @Internal
+    abstract Property<UploadService> getUploadService()
+
+    @Inject
+    abstract WorkerExecutor getWorkerExecutor()
+
+    @TaskAction
+    void upload() {
+        if (!mappingFile.present) {
+            logger.lifecycle("Mapping file not found for ${variantName.get()}")
+            UploadWorkAction.writeReceipt(receiptFile.get().asFile, variantName.get(), uuid.get(),
+                    AndroidUploadType.ANDROID_JAVA, null)
+            return
+        }
+        workerExecutor.noIsolation().submit(UploadWorkAction) { UploadWorkAction.Parameters parameters ->
+            parameters.uploadType.set(AndroidUploadType.ANDROID_JAVA)
+            parameters.uuid.set(uuid)
+            parameters.paths.add(mappingFile.get().asFile.absolutePath)
+            parameters.variantName.set(variantName)
+            parameters.configValues.set(configValues)
+            parameters.token.set(token)
+            parameters.receiptFile.set(receiptFile)
+            parameters.reportFile.set(reportFile)
+            parameters.uploadService.set(uploadService)
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright Yahoo Inc. 2017, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.android.symbols
+
+import com.flurry.proguard.AndroidUploadType
+import groovy.transform.CompileStatic
+import org.gradle.api.DefaultTask
+import org.gradle.api.file.ConfigurableFileCollection
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.provider.ListProperty
+import org.gradle.api.provider.MapProperty
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.OutputFile
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
+import org.gradle.api.tasks.TaskAction
+import org.gradle.work.DisableCachingByDefault
+import org.gradle.workers.WorkerExecutor
+
+import javax.inject.Inject
+
+/**
+ * Sends the shared objects built for a variant to Flurry's crash service. The task is up to date while the
+ * native build's output folders are unchanged.
+ */
+@CompileStatic
+@DisableCachingByDefault(because = "A receipt restored from the build cache would skip an upload for this build")
+abstract class UploadNativeSymbolsTask extends DefaultTask {
+
+    /** The soFolder of each of the variant's external native build tasks */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    abstract ConfigurableFileCollection getSoFolders()
+
+    /** The ABIs to upload, empty for every ABI */
+    @Input
+    abstract ListProperty<String> getAbiFilters()
+
+    @Input
+    abstract Property<String> getVariantName()
+
+    /** The evaluated plugin configuration, changing a setting doesn't upload again */
+    @Internal
+    abstract MapProperty<String, String> getConfigValues()
+
+    /** The auth token, read when the task runs */
+    @Internal
+    abstract Property<String> getToken()
+
+    @OutputFile
+    abstract RegularFileProperty getReceiptFile()
+
+    /** Where to write the upload's report, not set unless upload reports are enabled */
+    @Internal
+    abstract RegularFileProperty getReportFile()
+
+    @Internal
+    abstract Property<UploadService> getUploadService()
+
+    @Inject
+    abstract WorkerExecutor getWorkerExecutor()
+
+    @TaskAction
+    void upload() {
+        List<String> files = NdkSymbolUpload.findSharedObjectFiles(soFolders.files, abiFilters.get(), logger)
+        if (files.isEmpty()) {
+            logger.lifecycle("No .so files found for ${variantName.get()}")
+            UploadWorkAction.writeReceipt(receiptFile.get().asFile, variantName.get(), null,
+                    AndroidUploadType.ANDROID_NATIVE, null)
+            return
+        }
+        workerExecutor.noIsolation().submit(UploadWorkAction) { UploadWorkAction.Parameters parameters ->
+            parameters.uploadType.set(AndroidUploadType.ANDROID_NATIVE)
+            parameters.paths.set(files)
+            parameters.variantName.set(variantName)
+            parameters.configValues.set(configValues)
+            parameters.token.set(token)
+            parameters.receiptFile.set(receiptFile)
+            parameters.reportFile.set(reportFile)
+            parameters.uploadService.set(uploadService)
+        }
+    }
+}
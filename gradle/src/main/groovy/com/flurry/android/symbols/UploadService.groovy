@@ -0,0 +1,125 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.android.symbols
+
+import com.flurry.proguard.AndroidUploadType
+import com.flurry.proguard.UploadOptions
+import com.flurry.proguard.UploadResult
+import com.flurry.proguard.UploadSession
+import groovy.transform.CompileStatic
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.gradle.api.provider.Property
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.function.Consumer
+
+/**
+ * Sends the uploads of every module in the build through one connection pool and status poller. How many uploads
+ * are sent at the same time is left to each upload's {@link UploadOptions#setMaxConcurrentUploads(int)}, which the
+ * session enforces across the JVM. Upload tasks finish once their archive is sent and the build waits for all of
+ * them to be processed once, when the service is closed at the end of the build.
+ */
+@CompileStatic
+abstract class UploadService implements BuildService<Parameters>, AutoCloseable {
+    static final String NAME = "flurryUploads"
+
+    static interface Parameters extends BuildServiceParameters {
+        /** The base URL of the metadata service */
+        Property<String> getMetadataUrl()
+
+        /** The base URL of the upload service */
+        Property<String> getUploadUrl()
+    }
+
+    private static final Logger LOGGER = Logging.getLogger(UploadService)
+
+    private UploadSession session
+    private final List<Processing> processing = new CopyOnWriteArrayList<>()
+
+    /**
+     * Send an upload and wait for it to be sent but not processed
+     *
+     * @param receipt the task's receipt, deleted if the upload isn't processed so the task runs again
+     * @return the sent upload, or the skipped upload if every file was uploaded before
+     */
+    UploadResult send(String apiKey, String uuid, List<String> paths, String token, int timeout,
+                      AndroidUploadType uploadType, UploadOptions options, File receipt) {
+        CompletableFuture<UploadResult> processed = new CompletableFuture<>()
+        CompletableFuture<UploadResult> sent = new CompletableFuture<>()
+        session().uploadFilesAsync(apiKey, uuid, paths, token, timeout, uploadType, options,
+                { UploadResult upload -> sent.complete(upload) } as Consumer<UploadResult>)
+                .whenComplete { UploadResult upload, Throwable error ->
+                    if (error != null) {
+                        sent.completeExceptionally(error)
+                        processed.completeExceptionally(error)
+                    } else {
+                        sent.complete(upload)
+                        processed.complete(upload)
+                    }
+                }
+
+        try {
+            UploadResult upload = sent.join()
+            processing.add(new Processing(upload, processed, receipt))
+            return upload
+        } catch (CompletionException e) {
+            throw e.cause
+        }
+    }
+
+    private synchronized UploadSession session() {
+        if (session == null) {
+            session = new UploadSession(parameters.metadataUrl.get(), parameters.uploadUrl.get(),
+                    UploadSession.DEFAULT_MAX_CONNECTIONS_PER_ROUTE, UploadSession.DEFAULT_MAX_CONNECTIONS_TOTAL,
+                    UploadSession.DEFAULT_KEEP_ALIVE_MS, null)
+        }
+        return session
+    }
+
+    @Override
+    void close() {
+        try {
+            List<Processing> unprocessed = processing.findAll { !it.future.done }
+            if (!unprocessed.isEmpty()) {
+                LOGGER.lifecycle("Waiting for {} Flurry uploads to be processed", unprocessed.size())
+            }
+            List<Throwable> failures = []
+            for (Processing upload : processing) {
+                try {
+                    upload.future.join()
+                } catch (CompletionException e) {
+                    LOGGER.error("Upload {} was not processed", upload.sent.uploadId, e.cause)
+                    upload.receipt.delete()
+                    failures.add(e.cause)
+                }
+            }
+            if (!failures.isEmpty()) {
+                IllegalStateException failure = new IllegalStateException(
+                        "${failures.size()} of ${processing.size()} Flurry uploads were not processed",
+                        failures[0])
+                failures.drop(1).each { failure.addSuppressed(it) }
+                throw failure
+            }
+        } finally {
+            session?.close()
+        }
+    }
+
+    private static class Processing {
+        final UploadResult sent
+        final CompletableFuture<UploadResult> future
+        final File receipt
+
+        Processing(UploadResult sent, CompletableFuture<UploadResult> future, File receipt) {
+            this.sent = sent
+            this.future = future
+            this.receipt = receipt
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.android.symbols
+
+import com.flurry.proguard.AndroidUploadType
+import com.flurry.proguard.UploadOptions
+import com.flurry.proguard.UploadResult
+import groovy.transform.CompileStatic
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.provider.ListProperty
+import org.gradle.api.provider.MapProperty
+import org.gradle.api.provider.Property
+import org.gradle.workers.WorkAction
+import org.gradle.workers.WorkParameters
+import org.json.JSONObject
+
+/**
+ * Sends a variant's ProGuard mapping or shared objects through the build's {@link UploadService} on a Gradle worker
+ * thread, so the uploads of several variants run at the same time, then writes a receipt for the task's up-to-date
+ * check
+ */
+@CompileStatic
+abstract class UploadWorkAction implements WorkAction<Parameters> {
+
+    static interface Parameters extends WorkParameters {
+        Property<AndroidUploadType> getUploadType()
+
+        Property<String> getUuid()
+
+        ListProperty<String> getPaths()
+
+        Property<String> getVariantName()
+
+        MapProperty<String, String> getConfigValues()
+
+        Property<String> getToken()
+
+        RegularFileProperty getReceiptFile()
+
+        RegularFileProperty getReportFile()
+
+        Property<UploadService> getUploadService()
+    }
+
+    @Override
+    void execute() {
+        Map<String, String> configValues = parameters.configValues.get()
+        UploadOptions options = SymbolUploadPlugin.getUploadOptions(configValues)
+                .setDeltaVariant(parameters.variantName.get())
+        if (parameters.reportFile.present) {
+            options.setReportFile(parameters.reportFile.get().asFile)
+        }
+        File receipt = parameters.receiptFile.get().asFile
+        UploadResult result = parameters.uploadService.get().send(configValues[SymbolUploadPlugin.API_KEY],
+                parameters.uuid.getOrNull(), parameters.paths.get(), SymbolUploadPlugin.requireToken(parameters.token),
+                configValues[SymbolUploadPlugin.TIMEOUT].toInteger(), parameters.uploadType.get(), options, receipt)
+        writeReceipt(receipt, parameters.variantName.get(), parameters.uuid.getOrNull(),
+                parameters.uploadType.get(), result)
+    }
+
+    /**
+     * Record what was uploaded. The receipt is the task's output, so an unchanged mapping isn't sent again.
+     *
+     * @param receipt the file to write
+     * @param variantName the uploaded variant
+     * @param uuid the variant's build uuid, or null for shared objects
+     * @param uploadType the type of upload
+     * @param result the finished upload, or null if there were no files to upload
+     */
+    static void writeReceipt(File receipt, String variantName, String uuid, AndroidUploadType uploadType,
+                             UploadResult result) {
+        JSONObject json = new JSONObject()
+                .put("variant", variantName)
+                .put("uuid", uuid != null ? uuid : JSONObject.NULL)
+                .put("uploadType", uploadType.name())
+                .put("skipped", result == null || result.skipped)
+                .put("processed", result != null && result.processed)
+                .put("fileCount", result != null ? result.fileCount : 0)
+                .put("archiveSize", result != null ? result.archiveSize : 0L)
+        if (result != null && !result.skipped) {
+            json.put("projectId", result.projectId).put("uploadId", result.uploadId)
+        }
+        receipt.parentFile.mkdirs()
+        receipt.setText(json.toString(2) + "\n", "UTF-8")
+    }
+}
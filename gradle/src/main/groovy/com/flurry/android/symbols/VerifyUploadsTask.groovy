@@ -0,0 +1,37 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.android.symbols
+
+import com.flurry.proguard.UploadMapping
+import groovy.transform.CompileStatic
+import org.gradle.api.DefaultTask
+import org.gradle.api.provider.MapProperty
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.TaskAction
+import org.gradle.api.tasks.UntrackedTask
+
+/**
+ * Checks the uploads sent with verifyLater, eg. from a later CI step
+ */
+@CompileStatic
+@UntrackedTask(because = "The pending uploads live outside the build and change on the crash service's side")
+abstract class VerifyUploadsTask extends DefaultTask {
+
+    /** The evaluated plugin configuration */
+    @Internal
+    abstract MapProperty<String, String> getConfigValues()
+
+    /** The auth token, read when the task runs */
+    @Internal
+    abstract Property<String> getToken()
+
+    @TaskAction
+    void verify() {
+        Map<String, String> values = configValues.get()
+        UploadMapping.setServiceUrls(values[SymbolUploadPlugin.METADATA_URL], values[SymbolUploadPlugin.UPLOAD_URL])
+        UploadMapping.verifyPendingUploads(values[SymbolUploadPlugin.API_KEY], SymbolUploadPlugin.requireToken(token),
+                values[SymbolUploadPlugin.TIMEOUT].toInteger(), SymbolUploadPlugin.getUploadOptions(values))
+    }
+}
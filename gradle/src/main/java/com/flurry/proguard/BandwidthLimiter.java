@@ -0,0 +1,122 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import java.io.InterruptedIOException;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket limiting how fast uploads send bytes. Writers take tokens for each write and sleep off any debt, so
+ * the long run rate never exceeds the limit while short bursts up to a tenth of a second's worth go through at once.
+ *
+ * <p>Every limited upload in the JVM shares {@link #shared() one bucket}, so concurrent uploads split the bandwidth
+ * between them instead of each getting the full limit. Each upload adds its limit while it sends and the bucket runs
+ * at the lowest limit added, so the JVM's total never exceeds the limit of any upload which is sending.
+ */
+class BandwidthLimiter {
+    private static final BandwidthLimiter SHARED = new BandwidthLimiter();
+    private static final long MIN_BURST_BYTES = 16 * 1024;
+
+    // The limits of the uploads sending through this bucket, and how many uploads asked for each
+    private final TreeMap<Long, Integer> limits = new TreeMap<>();
+    private long bytesPerSecond;
+    private long burstBytes;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+
+    private BandwidthLimiter() {
+    }
+
+    /**
+     * @param bytesPerSecond the most bytes to let through each second
+     */
+    BandwidthLimiter(long bytesPerSecond) {
+        addLimit(bytesPerSecond);
+    }
+
+    /**
+     * @return the JVM's limiter, which lets everything through while no upload added a limit
+     */
+    static BandwidthLimiter shared() {
+        return SHARED;
+    }
+
+    /**
+     * Limit the bucket to this rate, or less if another upload asked for less, until the limit is removed
+     *
+     * @param bytesPerSecond the most bytes to let through each second
+     */
+    synchronized void addLimit(long bytesPerSecond) {
+        if (bytesPerSecond < 1) {
+            throw new IllegalArgumentException("Bandwidth limit must be at least 1 byte per second: "
+                    + bytesPerSecond);
+        }
+        limits.merge(bytesPerSecond, 1, Integer::sum);
+        applyLowestLimit();
+    }
+
+    /**
+     * @param bytesPerSecond a limit added with {@link #addLimit(long)}
+     */
+    synchronized void removeLimit(long bytesPerSecond) {
+        limits.computeIfPresent(bytesPerSecond, (limit, uploads) -> uploads > 1 ? uploads - 1 : null);
+        applyLowestLimit();
+    }
+
+    /**
+     * @return the current limit, 0 if there is none
+     */
+    synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    private void applyLowestLimit() {
+        refill(System.nanoTime());
+        boolean wasUnlimited = bytesPerSecond == 0;
+        bytesPerSecond = limits.isEmpty() ? 0 : limits.firstKey();
+        burstBytes = Math.max(MIN_BURST_BYTES, bytesPerSecond / 10);
+        tokens = wasUnlimited ? burstBytes : Math.min(tokens, burstBytes);
+    }
+
+    private void refill(long now) {
+        if (bytesPerSecond > 0) {
+            tokens = Math.min(burstBytes, tokens + (now - refilledAt) * (double) bytesPerSecond / 1_000_000_000L);
+        }
+        refilledAt = now;
+    }
+
+    /**
+     * Wait until the bytes can be sent
+     *
+     * @param bytes the number of bytes about to be sent
+     * @return how long the caller waited (in ns)
+     */
+    long acquire(long bytes) throws InterruptedIOException {
+        long waitNanos = reserve(bytes);
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the bandwidth limit");
+            }
+        }
+        return waitNanos;
+    }
+
+    /**
+     * Take the tokens for a write, going into debt if there aren't enough
+     *
+     * @return how long until the debt is paid off (in ns)
+     */
+    synchronized long reserve(long bytes) {
+        if (bytesPerSecond == 0) {
+            return 0;
+        }
+        refill(System.nanoTime());
+        tokens -= bytes;
+        return tokens >= 0 ? 0 : (long) (-tokens * 1_000_000_000L / bytesPerSecond);
+    }
+}
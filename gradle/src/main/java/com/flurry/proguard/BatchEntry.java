@@ -0,0 +1,47 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+/**
+ * One mapping file of a batch upload, eg. the mapping of one flavor of a release
+ */
+public class BatchEntry {
+    private final String uuid;
+    private final String path;
+    private final AndroidUploadType uploadType;
+
+    /**
+     * @param uuid the build uuid of the mapping, required for ProGuard mappings
+     * @param path the path to the ProGuard/Native mapping file
+     * @param uploadType the type of mapping
+     */
+    public BatchEntry(String uuid, String path, AndroidUploadType uploadType) {
+        if (path == null) {
+            throw new IllegalArgumentException("A batch entry needs a path");
+        }
+        if (uploadType == null) {
+            throw new IllegalArgumentException("A batch entry needs an upload type");
+        }
+        this.uuid = uuid;
+        this.path = path;
+        this.uploadType = uploadType;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public AndroidUploadType getUploadType() {
+        return uploadType;
+    }
+
+    @Override
+    public String toString() {
+        return uploadType.getDisplayName() + " " + path + (uuid != null ? " (" + uuid + ")" : "");
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import org.apache.commons.compress.utils.BoundedInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Sends an archive to the upload service as a series of byte ranges, skipping ranges the journal says
+ * were already accepted. Ranges can be sent in parallel over separate connections.
+ */
+class ChunkedUpload {
+    private final CloseableHttpClient httpClient;
+    private final File archive;
+    private final long chunkSize;
+    private final int parallelism;
+    private final UploadJournal journal;
+    private final Logger logger;
+    private final UploadListener listener;
+    private final UnaryOperator<HttpEntity> entityFilter;
+    private final RetryPolicy retryPolicy;
+
+    /**
+     * @param httpClient the client to send with, it must allow {@code parallelism} connections to the upload service
+     * @param journal the journal holding the archive and the acknowledged chunks
+     * @param chunkSize the number of bytes in each range
+     * @param parallelism the number of ranges to send at the same time
+     * @param logger the logger to report progress to
+     * @param listener told about retried chunks
+     * @param entityFilter wraps the body of each range, eg. to limit its bandwidth
+     * @param retryPolicy how often and how long apart each range is sent again when it fails
+     */
+    ChunkedUpload(CloseableHttpClient httpClient, UploadJournal journal, long chunkSize, int parallelism,
+                  Logger logger, UploadListener listener, UnaryOperator<HttpEntity> entityFilter,
+                  RetryPolicy retryPolicy) {
+        this.httpClient = httpClient;
+        this.archive = journal.getArchiveFile();
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        this.journal = journal;
+        this.logger = logger;
+        this.listener = listener;
+        this.entityFilter = entityFilter;
+        this.retryPolicy = retryPolicy;
+    }
+
+    int getChunkCount() {
+        return (int) ((archive.length() + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * Send every chunk which hasn't been acknowledged yet
+     *
+     * @param url the upload service url for this upload
+     * @param headers builds the request headers for the first and last byte of a chunk
+     * @throws IOException if a chunk still fails once its retries run out
+     */
+    void send(String url, BiFunction<Long, Long, List<Header>> headers) throws IOException {
+        int chunkCount = getChunkCount();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<?>> pending = new ArrayList<>();
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                if (journal.isAcknowledged(chunk)) {
+                    continue;
+                }
+                int index = chunk;
+                pending.add(executor.submit(() -> {
+                    sendChunk(url, headers, index);
+                    return null;
+                }));
+            }
+            if (pending.size() < chunkCount) {
+                logger.info("Resuming upload, {} of {} chunks already sent", chunkCount - pending.size(), chunkCount);
+            }
+            for (Future<?> future : pending) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while uploading chunks");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Chunk upload failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void sendChunk(String url, BiFunction<Long, Long, List<Header>> headers, int chunk)
+            throws IOException {
+        long start = chunk * chunkSize;
+        long end = Math.min(start + chunkSize, archive.length()) - 1;
+        // One body for every attempt, so a filter tracking progress sees a retry as the same range sent again
+        HttpEntity body = entityFilter.apply(new FileRangeEntity(archive, start, end - start + 1));
+        retryPolicy.forOperation("chunk " + chunk).run(() -> {
+            postRange(url, headers.apply(start, end), body);
+            return null;
+        }, listener);
+        journal.acknowledge(chunk);
+        logger.debug("Sent chunk {} (bytes {}-{})", chunk, start, end);
+    }
+
+    private void postRange(String url, List<Header> requestHeaders, HttpEntity body) throws IOException {
+        HttpPost postRequest = new HttpPost(url);
+        for (Header header : requestHeaders) {
+            postRequest.setHeader(header.getName(), header.getValue());
+        }
+        postRequest.setEntity(body);
+        try (CloseableHttpResponse response = httpClient.execute(postRequest)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            EntityUtils.consumeQuietly(response.getEntity());
+            // Only a 429 or 5xx is retried, any other status would be answered the same again
+            if (statusCode != HttpURLConnection.HTTP_CREATED && statusCode != HttpURLConnection.HTTP_ACCEPTED) {
+                throw new HttpStatusException(response, "Upload service returned " + statusCode);
+            }
+        } finally {
+            postRequest.releaseConnection();
+        }
+    }
+
+    /**
+     * A range of the archive, read from the file each time it is sent
+     */
+    private static class FileRangeEntity extends AbstractHttpEntity {
+        private final File file;
+        private final long start;
+        private final long length;
+
+        FileRangeEntity(File file, long start, long length) {
+            this.file = file;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                channel.position(start);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            InputStream in = Channels.newInputStream(channel);
+            // BoundedInputStream doesn't close what it wraps, so each send would leak the channel
+            return new FilterInputStream(new BoundedInputStream(in, length)) {
+                @Override
+                public void close() throws IOException {
+                    in.close();
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            try (InputStream in = getContent()) {
+                IOUtils.copy(in, outStream);
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A read only view of the section headers of an ELF32/ELF64 shared object, backed by a memory mapped file
+ */
+class ElfFile {
+    static final int SHT_NULL = 0;
+    static final int SHT_NOTE = 7;
+    static final int SHT_NOBITS = 8;
+
+    private static final int NT_GNU_BUILD_ID = 3;
+    private static final int ELF32_HEADER_SIZE = 0x34;
+    private static final int ELF64_HEADER_SIZE = 0x40;
+    private static final int ELF32_SECTION_HEADER_SIZE = 0x28;
+    private static final int ELF64_SECTION_HEADER_SIZE = 0x40;
+    private static final byte[] ELF_MAGIC = {0x7f, 'E', 'L', 'F'};
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final boolean is64Bit;
+    private final List<Section> sections;
+    private long sectionHeaderOffset;
+    private int sectionHeaderSize;
+
+    /**
+     * Map and parse an ELF file
+     *
+     * @param file the ELF file
+     * @throws IOException if the file can't be read, isn't an ELF file or is truncated or corrupt
+     */
+    ElfFile(File file) throws IOException {
+        this.file = file;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("ELF file is too large to map: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (!hasElfMagic(buffer)) {
+            throw new IOException("Not an ELF file: " + file);
+        }
+        is64Bit = buffer.get(4) == 2;
+        if (buffer.limit() < (is64Bit ? ELF64_HEADER_SIZE : ELF32_HEADER_SIZE)) {
+            throw malformed("truncated ELF header");
+        }
+        buffer.order(buffer.get(5) == 2 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        if (!isInFile(0, getElfHeaderSize())) {
+            throw malformed("ELF header size past the end of the file");
+        }
+        long programHeaderOffset = getProgramHeaderOffset();
+        if (programHeaderOffset != 0 && !isInFile(programHeaderOffset, getProgramHeaderTableSize())) {
+            throw malformed("program header table past the end of the file");
+        }
+        sections = readSections();
+    }
+
+    /**
+     * Check the magic number of a file without mapping it
+     *
+     * @param file the file to check
+     * @return true if the file starts with the ELF magic number
+     */
+    static boolean isElf(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] magic = new byte[ELF_MAGIC.length];
+            return raf.read(magic) == magic.length && hasElfMagic(ByteBuffer.wrap(magic));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean hasElfMagic(ByteBuffer buffer) {
+        if (buffer.limit() < ELF_MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < ELF_MAGIC.length; i++) {
+            if (buffer.get(i) != ELF_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    boolean is64Bit() {
+        return is64Bit;
+    }
+
+    ByteOrder getByteOrder() {
+        return buffer.order();
+    }
+
+    /**
+     * @return the e_machine field, the instruction set the file was built for
+     */
+    int getMachine() {
+        return Short.toUnsignedInt(buffer.getShort(0x12));
+    }
+
+    List<Section> getSections() {
+        return sections;
+    }
+
+    /**
+     * @param name the section name, eg. .symtab
+     * @return the first section with that name or null
+     */
+    Section findSection(String name) {
+        for (Section section : sections) {
+            if (section.name.equals(name)) {
+                return section;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the GNU build id from the file's note sections
+     *
+     * @return the build id as a lower case hex string, or null if the file doesn't have one
+     */
+    String getBuildId() {
+        for (Section section : sections) {
+            if (section.type != SHT_NOTE) {
+                continue;
+            }
+            ByteBuffer notes = getContents(section);
+            while (notes.remaining() >= 12) {
+                int nameSize = notes.getInt();
+                int descSize = notes.getInt();
+                int type = notes.getInt();
+                int nameStart = notes.position();
+                if (nameSize < 0 || descSize < 0 || nameSize > notes.remaining() || descSize > notes.remaining()) {
+                    break;
+                }
+                int descStart = nameStart + align4(nameSize);
+                int next = descStart + align4(descSize);
+                if (next > notes.limit()) {
+                    break;
+                }
+                if (type == NT_GNU_BUILD_ID && nameSize == 4 && notes.get(nameStart) == 'G'
+                        && notes.get(nameStart + 1) == 'N' && notes.get(nameStart + 2) == 'U') {
+                    StringBuilder buildId = new StringBuilder();
+                    for (int i = 0; i < descSize; i++) {
+                        buildId.append(String.format("%02x", notes.get(descStart + i) & 0xff));
+                    }
+                    return buildId.toString();
+                }
+                notes.position(next);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param section a section of this file
+     * @return a view of the section's bytes, empty for sections which take no space in the file
+     */
+    ByteBuffer getContents(Section section) {
+        if (section.type == SHT_NOBITS || section.size == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        return getRange(section.offset, section.size);
+    }
+
+    /**
+     * @param offset the offset of the first byte in the file
+     * @param size the number of bytes
+     * @return a view of the mapped bytes, which aren't copied
+     */
+    ByteBuffer getRange(long offset, long size) {
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) offset).limit((int) (offset + size));
+        return view.slice().order(buffer.order());
+    }
+
+    long getProgramHeaderOffset() {
+        return is64Bit ? buffer.getLong(0x20) : Integer.toUnsignedLong(buffer.getInt(0x1c));
+    }
+
+    int getProgramHeaderTableSize() {
+        return Short.toUnsignedInt(buffer.getShort(is64Bit ? 0x36 : 0x2a))
+                * Short.toUnsignedInt(buffer.getShort(is64Bit ? 0x38 : 0x2c));
+    }
+
+    int getElfHeaderSize() {
+        return Short.toUnsignedInt(buffer.getShort(is64Bit ? 0x34 : 0x28));
+    }
+
+    /**
+     * @param section a section of this file
+     * @return a view of the section's entry in the section header table
+     */
+    ByteBuffer getSectionHeader(Section section) {
+        return getRange(sectionHeaderOffset + (long) section.index * sectionHeaderSize,
+                sectionHeaderSize);
+    }
+
+    /**
+     * @return true if the range is within the file, offsets and sizes read from the file may be anything
+     */
+    private boolean isInFile(long offset, long size) {
+        return offset >= 0 && size >= 0 && offset <= buffer.limit() - size;
+    }
+
+    private IOException malformed(String reason) {
+        return new IOException("Malformed ELF file (" + reason + "): " + file);
+    }
+
+    private List<Section> readSections() throws IOException {
+        sectionHeaderOffset = is64Bit ? buffer.getLong(0x28) : Integer.toUnsignedLong(buffer.getInt(0x20));
+        sectionHeaderSize = Short.toUnsignedInt(buffer.getShort(is64Bit ? 0x3a : 0x2e));
+        int sectionCount = Short.toUnsignedInt(buffer.getShort(is64Bit ? 0x3c : 0x30));
+        int nameSectionIndex = Short.toUnsignedInt(buffer.getShort(is64Bit ? 0x3e : 0x32));
+        if (sectionHeaderOffset == 0 || sectionCount == 0) {
+            return Collections.emptyList();
+        }
+        if (sectionHeaderSize < (is64Bit ? ELF64_SECTION_HEADER_SIZE : ELF32_SECTION_HEADER_SIZE)) {
+            throw malformed("section headers of " + sectionHeaderSize + " bytes");
+        }
+        if (!isInFile(sectionHeaderOffset, (long) sectionCount * sectionHeaderSize)) {
+            throw malformed("section header table past the end of the file");
+        }
+
+        List<Section> headers = new ArrayList<>(sectionCount);
+        for (int i = 0; i < sectionCount; i++) {
+            Section section = readSection((int) (sectionHeaderOffset + (long) i * sectionHeaderSize));
+            section.index = i;
+            headers.add(section);
+        }
+        for (Section section : headers) {
+            if (section.type != SHT_NOBITS && !isInFile(section.offset, section.size)) {
+                throw malformed("section " + section.index + " past the end of the file");
+            }
+        }
+
+        if (nameSectionIndex < headers.size()) {
+            ByteBuffer names = getContents(headers.get(nameSectionIndex));
+            for (Section section : headers) {
+                section.name = readString(names, section.nameOffset);
+            }
+        }
+        return Collections.unmodifiableList(headers);
+    }
+
+    private Section readSection(int offset) {
+        Section section = new Section();
+        section.nameOffset = buffer.getInt(offset);
+        section.type = buffer.getInt(offset + 4);
+        if (is64Bit) {
+            section.flags = buffer.getLong(offset + 8);
+            section.address = buffer.getLong(offset + 16);
+            section.offset = buffer.getLong(offset + 24);
+            section.size = buffer.getLong(offset + 32);
+            section.link = buffer.getInt(offset + 40);
+            section.info = buffer.getInt(offset + 44);
+            section.alignment = buffer.getLong(offset + 48);
+            section.entrySize = buffer.getLong(offset + 56);
+        } else {
+            section.flags = Integer.toUnsignedLong(buffer.getInt(offset + 8));
+            section.address = Integer.toUnsignedLong(buffer.getInt(offset + 12));
+            section.offset = Integer.toUnsignedLong(buffer.getInt(offset + 16));
+            section.size = Integer.toUnsignedLong(buffer.getInt(offset + 20));
+            section.link = buffer.getInt(offset + 24);
+            section.info = buffer.getInt(offset + 28);
+            section.alignment = Integer.toUnsignedLong(buffer.getInt(offset + 32));
+            section.entrySize = Integer.toUnsignedLong(buffer.getInt(offset + 36));
+        }
+        return section;
+    }
+
+    private static String readString(ByteBuffer strings, int offset) {
+        if (offset < 0 || offset >= strings.limit()) {
+            return "";
+        }
+        int end = offset;
+        while (end < strings.limit() && strings.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - offset];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = strings.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static int align4(int value) {
+        return (value + 3) & ~3;
+    }
+
+    /**
+     * An entry from the section header table
+     */
+    static class Section {
+        int index;
+        String name = "";
+        int nameOffset;
+        int type;
+        long flags;
+        long address;
+        long offset;
+        long size;
+        int link;
+        int info;
+        long alignment;
+        long entrySize;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a copy of a shared object holding only what symbolication needs, like objcopy --only-keep-debug.
+ *
+ * <p>The symbol tables, debug sections, build id note and section name table are copied straight from the mapped
+ * library into the new file. Every other section keeps its header, with its type changed to SHT_NOBITS, so section
+ * indexes, links and addresses stay valid. Program headers are copied as they are. Libraries without a .symtab
+ * keep their dynamic symbols instead.
+ */
+final class ElfSlimmer {
+    private ElfSlimmer() {
+    }
+
+    /**
+     * @param library the shared object
+     * @param slim the file to write the slim copy to
+     * @return the size of the slim copy, or -1 if the library has no section headers to slim by
+     */
+    static long slim(File library, File slim) throws IOException {
+        ElfFile elf = new ElfFile(library);
+        if (elf.getSections().isEmpty()) {
+            return -1;
+        }
+        boolean hasSymtab = elf.findSection(".symtab") != null;
+        boolean is64Bit = elf.is64Bit();
+        long[] offsets = new long[elf.getSections().size()];
+
+        try (FileChannel out = FileChannel.open(slim.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = copy(elf.getRange(0, elf.getElfHeaderSize()));
+            long position = header.capacity();
+
+            long programHeaderOffset = 0;
+            if (elf.getProgramHeaderOffset() != 0 && elf.getProgramHeaderTableSize() > 0) {
+                programHeaderOffset = align(position, 8);
+                position = write(out, elf.getRange(elf.getProgramHeaderOffset(), elf.getProgramHeaderTableSize()),
+                        programHeaderOffset);
+            }
+
+            for (ElfFile.Section section : elf.getSections()) {
+                if (isKept(section, hasSymtab) && section.type != ElfFile.SHT_NOBITS && section.size > 0) {
+                    offsets[section.index] = align(position, section.alignment);
+                    position = write(out, elf.getContents(section), offsets[section.index]);
+                }
+            }
+
+            long sectionHeaderOffset = align(position, 8);
+            position = sectionHeaderOffset;
+            for (ElfFile.Section section : elf.getSections()) {
+                ByteBuffer entry = copy(elf.getSectionHeader(section));
+                if (offsets[section.index] != 0) {
+                    putAddress(entry, is64Bit ? 24 : 16, offsets[section.index], is64Bit);
+                } else if (section.type != ElfFile.SHT_NULL) {
+                    if (!isKept(section, hasSymtab)) {
+                        entry.putInt(4, ElfFile.SHT_NOBITS);
+                    }
+                    putAddress(entry, is64Bit ? 24 : 16, sectionHeaderOffset, is64Bit);
+                }
+                position = write(out, entry, position);
+            }
+
+            putAddress(header, is64Bit ? 0x20 : 0x1c, programHeaderOffset, is64Bit);
+            putAddress(header, is64Bit ? 0x28 : 0x20, sectionHeaderOffset, is64Bit);
+            write(out, header, 0);
+            return position;
+        }
+    }
+
+    /**
+     * @return true if symbolication needs the section's contents
+     */
+    static boolean isKept(ElfFile.Section section, boolean hasSymtab) {
+        String name = section.name;
+        return name.equals(".symtab") || name.equals(".strtab") || name.equals(".shstrtab")
+                || name.equals(".note.gnu.build-id") || name.equals(".gnu_debugdata")
+                || name.startsWith(".debug_") || name.startsWith(".zdebug_")
+                || (!hasSymtab && (name.equals(".dynsym") || name.equals(".dynstr")));
+    }
+
+    private static ByteBuffer copy(ByteBuffer view) {
+        ByteBuffer copy = ByteBuffer.allocate(view.remaining()).order(view.order());
+        copy.put(view.duplicate()).flip();
+        return copy;
+    }
+
+    private static void putAddress(ByteBuffer buffer, int index, long value, boolean is64Bit) {
+        if (is64Bit) {
+            buffer.putLong(index, value);
+        } else {
+            buffer.putInt(index, (int) value);
+        }
+    }
+
+    private static long align(long position, long alignment) {
+        if (alignment <= 1) {
+            return position;
+        }
+        return (position + alignment - 1) / alignment * alignment;
+    }
+
+    /**
+     * Write a buffer at a position without copying it onto the heap
+     *
+     * @return the position after the buffer
+     */
+    private static long write(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        ByteBuffer source = buffer.duplicate();
+        while (source.hasRemaining()) {
+            position += out.write(source, position);
+        }
+        return position;
+    }
+}
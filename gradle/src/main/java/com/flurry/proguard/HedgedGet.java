@@ -0,0 +1,76 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import org.apache.http.client.methods.HttpGet;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.flurry.proguard.UploadMapping.LOGGER;
+
+/**
+ * Sends a GET, and sends it again if it isn't answered within the hedge delay. Whichever copy is answered first
+ * is used and the other is aborted, so one slow connection doesn't hold up the upload.
+ */
+final class HedgedGet {
+    /**
+     * Executes a GET and reads its answer
+     */
+    interface Request<T> {
+        T execute(HttpGet request) throws IOException;
+    }
+
+    private HedgedGet() {
+    }
+
+    /**
+     * @param url the resource to get
+     * @param hedgeDelayMs how long to wait before sending the copy (in ms), 0 to never send one
+     * @param executor sends the copy
+     * @param request executes each copy of the GET
+     * @return the answer to whichever copy was answered first
+     */
+    static <T> T send(String url, long hedgeDelayMs, Executor executor, Request<T> request) throws IOException {
+        HttpGet primary = new HttpGet(url);
+        if (hedgeDelayMs <= 0) {
+            return request.execute(primary);
+        }
+        HttpGet hedge = new HttpGet(url);
+        AtomicBoolean hedgeClaimed = new AtomicBoolean();
+        CompletableFuture<T> hedged = new CompletableFuture<>();
+        CompletableFuture.runAsync(() -> {
+            if (!hedgeClaimed.compareAndSet(false, true)) {
+                return;
+            }
+            LOGGER.debug("No answer from {} after {}ms, sending it again", url, hedgeDelayMs);
+            try {
+                hedged.complete(request.execute(hedge));
+                primary.abort();
+            } catch (Throwable e) {
+                hedged.completeExceptionally(e);
+            }
+        }, CompletableFuture.delayedExecutor(hedgeDelayMs, TimeUnit.MILLISECONDS, executor));
+        try {
+            return request.execute(primary);
+        } catch (IOException | RuntimeException e) {
+            if (hedgeClaimed.compareAndSet(false, true)) {
+                // The copy was never sent
+                throw e;
+            }
+            try {
+                return hedged.join();
+            } catch (CompletionException hedgeFailure) {
+                throw e;
+            }
+        } finally {
+            hedgeClaimed.set(true);
+            hedge.abort();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.utils.DateUtils;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Flurry service answered with an unexpected status. Only a 429 or a 5xx may succeed if the request is sent again.
+ */
+class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final long retryAfterMs;
+
+    /**
+     * @param statusCode the response's status
+     * @param retryAfterMs how long the service asked to wait before sending the request again, or -1
+     * @param message describes the failed request
+     */
+    HttpStatusException(int statusCode, long retryAfterMs, String message) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * @param response the failed response
+     * @param message describes the failed request
+     */
+    HttpStatusException(HttpResponse response, String message) {
+        this(response.getStatusLine().getStatusCode(), retryAfterMs(response), message);
+    }
+
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    /**
+     * @return true if the status may go away when the request is sent again
+     */
+    static boolean isTransient(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * Read the Retry-After header, given either as seconds or as a date
+     *
+     * @return the wait in ms, or -1 if there is no valid header
+     */
+    static long retryAfterMs(HttpResponse response) {
+        Header header = response.getFirstHeader("Retry-After");
+        if (header == null) {
+            return -1;
+        }
+        String value = header.getValue().trim();
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+        }
+    }
+}
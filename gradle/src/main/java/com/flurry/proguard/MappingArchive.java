@@ -0,0 +1,200 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.utils.CountingOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A gzipped tar archive of ProGuard/Native mapping files which can be written any number of times.
+ * Entry names are fixed when the archive is created so that every write produces the same bytes.
+ */
+class MappingArchive {
+    static final String MANIFEST = "manifest.json";
+
+    private final List<File> files;
+    private final List<String> entryNames;
+    private final byte[] manifest;
+    private final int compressionLevel;
+    private final int compressionThreads;
+
+    MappingArchive(List<File> files, String uuid) {
+        this(files, uuid, Deflater.DEFAULT_COMPRESSION, 1);
+    }
+
+    /**
+     * @param files the mapping files to archive
+     * @param uuid the uuid used to name the entries, or null to use a random one per file
+     * @param compressionLevel the deflate level, 0-9 or -1 for the default
+     * @param compressionThreads the number of threads to compress with, 1 for a plain gzip stream
+     */
+    MappingArchive(List<File> files, String uuid, int compressionLevel, int compressionThreads) {
+        this.compressionLevel = compressionLevel;
+        this.compressionThreads = compressionThreads;
+        this.files = Collections.unmodifiableList(new ArrayList<>(files));
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            names.add((uuid != null && !uuid.isEmpty() ? uuid : UUID.randomUUID()) + ".txt");
+        }
+        this.entryNames = Collections.unmodifiableList(names);
+        this.manifest = null;
+    }
+
+    private MappingArchive(List<File> files, List<String> entryNames, byte[] manifest, int compressionLevel,
+                           int compressionThreads) {
+        this.compressionLevel = compressionLevel;
+        this.compressionThreads = compressionThreads;
+        this.files = Collections.unmodifiableList(new ArrayList<>(files));
+        this.entryNames = Collections.unmodifiableList(entryNames);
+        this.manifest = manifest;
+    }
+
+    /**
+     * An archive of several builds' mappings. Each entry is named after its uuid, with a counter when a uuid has
+     * more than one file; entries without a uuid get one derived from their position and file name. A
+     * {@value #MANIFEST} entry comes first and lists which uuid, type and source file each entry belongs to.
+     *
+     * @param files the files to archive, eg. minified copies of the entries' files
+     * @param entries the batch entries the files were made from, in the same order
+     * @param compressionLevel the deflate level, 0-9 or -1 for the default
+     * @param compressionThreads the number of threads to compress with, 1 for a plain gzip stream
+     */
+    static MappingArchive forBatch(List<File> files, List<BatchEntry> entries, int compressionLevel,
+                                   int compressionThreads) {
+        List<String> names = new ArrayList<>();
+        Map<String, Integer> uuidCounts = new HashMap<>();
+        JSONArray manifestEntries = new JSONArray();
+        for (int i = 0; i < files.size(); i++) {
+            BatchEntry entry = entries.get(i);
+            File source = new File(entry.getPath());
+            String uuid = entry.getUuid();
+            if (uuid == null || uuid.isEmpty()) {
+                uuid = UUID.nameUUIDFromBytes((i + "/" + source.getName()).getBytes(StandardCharsets.UTF_8))
+                        .toString();
+            }
+            int count = uuidCounts.merge(uuid, 1, Integer::sum);
+            String name = (count == 1 ? uuid : uuid + "-" + count) + ".txt";
+            names.add(name);
+            manifestEntries.put(new JSONObject()
+                    .put("name", name)
+                    .put("uuid", entry.getUuid() != null ? entry.getUuid() : JSONObject.NULL)
+                    .put("type", entry.getUploadType().getUploadType())
+                    .put("file", source.getName())
+                    .put("size", files.get(i).length()));
+        }
+        byte[] manifest = new JSONObject().put("entries", manifestEntries).toString()
+                .getBytes(StandardCharsets.UTF_8);
+        return new MappingArchive(files, names, manifest, compressionLevel, compressionThreads);
+    }
+
+    List<File> getFiles() {
+        return files;
+    }
+
+    List<String> getEntryNames() {
+        return entryNames;
+    }
+
+    /**
+     * Compress the archive without keeping the output to find its size
+     *
+     * @return the number of bytes {@link #writeTo(OutputStream)} will produce
+     */
+    long computeLength() throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(OutputStream.nullOutputStream());
+        writeTo(counter);
+        return counter.getBytesWritten();
+    }
+
+    /**
+     * Write the tar-gzipped archive to a stream. The stream is flushed but not closed.
+     *
+     * @param out the stream to write to
+     */
+    void writeTo(OutputStream out) throws IOException {
+        try (TarArchiveOutputStream taos = new TarArchiveOutputStream(
+                    compressTo(new NonClosingOutputStream(out)))) {
+            if (manifest != null) {
+                TarArchiveEntry entry = new TarArchiveEntry(MANIFEST);
+                entry.setSize(manifest.length);
+                entry.setModTime(newestModification());
+                taos.putArchiveEntry(entry);
+                taos.write(manifest);
+                taos.closeArchiveEntry();
+            }
+            for (int i = 0; i < files.size(); i++) {
+                File file = files.get(i);
+                taos.putArchiveEntry(new TarArchiveEntry(file, entryNames.get(i)));
+                try (InputStream in = new FileInputStream(file)) {
+                    IOUtils.copy(in, taos);
+                }
+                taos.closeArchiveEntry();
+            }
+            taos.finish();
+        }
+    }
+
+    /**
+     * The manifest's timestamp comes from the files so that every write produces the same bytes
+     */
+    private long newestModification() {
+        long newest = 0;
+        for (File file : files) {
+            newest = Math.max(newest, file.lastModified());
+        }
+        return newest;
+    }
+
+    private OutputStream compressTo(OutputStream out) throws IOException {
+        if (compressionThreads > 1) {
+            return new ParallelGzipOutputStream(out, compressionLevel, compressionThreads,
+                    ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE);
+        }
+        return new GZIPOutputStream(new BufferedOutputStream(out)) {
+            {
+                def.setLevel(compressionLevel);
+            }
+        };
+    }
+
+    /**
+     * Flushes instead of closing so the archive can be written into a stream owned by someone else
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
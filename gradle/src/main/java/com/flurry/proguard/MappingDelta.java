@@ -0,0 +1,334 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sends only the classes of a ProGuard mapping which changed since the last upload of the same app.
+ *
+ * <p>A mapping is made of class blocks: a class line followed by its member lines. The {@link Index} of the last
+ * upload keeps a 64 bit hash of each class name and block, 16 bytes per class. A delta is itself a mapping file
+ * holding the new and changed blocks, with comments naming the base upload and the removed classes, so the
+ * crash service can {@link #reconstruct rebuild} the full mapping from the base upload.
+ */
+class MappingDelta {
+    static final String BASE = "# flurry-delta-base: ";
+    static final String REMOVED = "# flurry-delta-removed: ";
+    static final String PREAMBLE = "# flurry-delta-preamble";
+
+    /** The hash of the lines before the first class, eg. R8's header comments */
+    private static final long PREAMBLE_KEY = hash("");
+
+    private MappingDelta() {
+    }
+
+    /**
+     * The fingerprint of the last uploaded mapping of an app
+     */
+    static class Index {
+        private static final int MAGIC = 0x464c4449;
+
+        final String uploadId;
+        final String uuid;
+        final Map<Long, Long> blocks;
+
+        Index(String uploadId, String uuid, Map<Long, Long> blocks) {
+            this.uploadId = uploadId;
+            this.uuid = uuid;
+            this.blocks = blocks;
+        }
+
+        /**
+         * @param file the index file
+         * @return the index, or null if there is none or it can't be read
+         */
+        static Index load(File file) throws IOException {
+            if (!file.isFile()) {
+                return null;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != MAGIC) {
+                    return null;
+                }
+                String uploadId = in.readUTF();
+                String uuid = in.readUTF();
+                int count = in.readInt();
+                Map<Long, Long> blocks = new HashMap<>(count * 2);
+                for (int i = 0; i < count; i++) {
+                    blocks.put(in.readLong(), in.readLong());
+                }
+                return new Index(uploadId, uuid, blocks);
+            }
+        }
+
+        /**
+         * Replace the index file without readers ever seeing a partly written index
+         *
+         * @param file the index file
+         */
+        void store(File file) throws IOException {
+            // Each writer gets its own temp file, so builds sharing the index directory can't clobber each other
+            Path tempFile = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(),
+                    file.getName() + ".", ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                    out.writeInt(MAGIC);
+                    out.writeUTF(uploadId);
+                    out.writeUTF(uuid);
+                    out.writeInt(blocks.size());
+                    for (Map.Entry<Long, Long> block : blocks.entrySet()) {
+                        out.writeLong(block.getKey());
+                        out.writeLong(block.getValue());
+                    }
+                }
+                Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+
+        /**
+         * @param uploadId the upload the mapping was sent in
+         * @param uuid the build uuid of the upload
+         * @return this fingerprint recorded for an upload
+         */
+        Index forUpload(String uploadId, String uuid) {
+            return new Index(uploadId, uuid, blocks);
+        }
+    }
+
+    /**
+     * The outcome of {@link #write}
+     */
+    static class Result {
+        /** The fingerprint of the new mapping, to record once the upload is processed */
+        final Index index;
+        final int classes;
+        final int changed;
+        final int removed;
+
+        Result(Index index, int classes, int changed, int removed) {
+            this.index = index;
+            this.classes = classes;
+            this.changed = changed;
+            this.removed = removed;
+        }
+
+        /**
+         * @return true if the delta is small enough to be worth sending instead of the full mapping
+         */
+        boolean isWorthwhile() {
+            return changed + removed <= classes / 2;
+        }
+    }
+
+    /**
+     * @param mapping a mapping file
+     * @return its fingerprint, not yet tied to an upload
+     */
+    static Index fingerprint(File mapping) throws IOException {
+        Map<Long, Long> blocks = new HashMap<>();
+        try (BlockReader reader = new BlockReader(open(mapping))) {
+            while (reader.next()) {
+                blocks.put(reader.key, reader.hash);
+            }
+        }
+        return new Index(null, null, blocks);
+    }
+
+    /**
+     * Write the blocks of a mapping which aren't in the base upload
+     *
+     * @param mapping the new mapping file
+     * @param base the index of the last upload
+     * @param delta the file to write the delta to
+     * @return the new mapping's fingerprint and how much changed
+     */
+    static Result write(File mapping, Index base, File delta) throws IOException {
+        Map<Long, Long> blocks = new HashMap<>();
+        int changed = 0;
+        try (BlockReader reader = new BlockReader(open(mapping));
+             Writer out = new BufferedWriter(
+                     new OutputStreamWriter(new FileOutputStream(delta), StandardCharsets.UTF_8), 64 * 1024)) {
+            out.write(BASE + base.uploadId + " " + base.uuid + "\n");
+            while (reader.next()) {
+                blocks.put(reader.key, reader.hash);
+                Long baseHash = base.blocks.get(reader.key);
+                if (baseHash == null || baseHash != reader.hash) {
+                    if (reader.key == PREAMBLE_KEY) {
+                        out.write(PREAMBLE + "\n");
+                    }
+                    for (String line : reader.lines) {
+                        out.write(line);
+                        out.write('\n');
+                    }
+                    changed++;
+                }
+            }
+            int removed = 0;
+            for (Long key : base.blocks.keySet()) {
+                if (!blocks.containsKey(key)) {
+                    out.write(REMOVED + Long.toHexString(key) + "\n");
+                    removed++;
+                }
+            }
+            return new Result(new Index(null, null, blocks), blocks.size(), changed, removed);
+        }
+    }
+
+    /**
+     * Rebuild the full mapping from the base upload's mapping and a delta. This is the crash service's side of a
+     * delta upload, kept here to check that deltas are complete. Classes come out in a different order.
+     *
+     * @param base the mapping of the base upload
+     * @param delta the delta
+     * @param out where to write the full mapping, flushed but not closed
+     */
+    static void reconstruct(Reader base, Reader delta, Writer out) throws IOException {
+        Set<Long> replaced = new HashSet<>();
+        List<List<String>> added = new ArrayList<>();
+        List<String> preamble = null;
+        try (BlockReader reader = new BlockReader(delta)) {
+            while (reader.next()) {
+                List<String> lines = new ArrayList<>();
+                for (String line : reader.lines) {
+                    if (line.startsWith(REMOVED)) {
+                        replaced.add(Long.parseUnsignedLong(line.substring(REMOVED.length()), 16));
+                    } else if (line.equals(PREAMBLE)) {
+                        preamble = new ArrayList<>();
+                    } else if (!line.startsWith(BASE)) {
+                        lines.add(line);
+                    }
+                }
+                if (reader.key == PREAMBLE_KEY) {
+                    if (preamble != null) {
+                        preamble.addAll(lines);
+                    }
+                } else {
+                    replaced.add(reader.key);
+                    added.add(lines);
+                }
+            }
+        }
+        BufferedWriter writer = new BufferedWriter(out, 64 * 1024);
+        if (preamble != null) {
+            write(writer, preamble);
+            replaced.add(PREAMBLE_KEY);
+        }
+        try (BlockReader reader = new BlockReader(base)) {
+            while (reader.next()) {
+                if (!replaced.contains(reader.key)) {
+                    write(writer, reader.lines);
+                }
+            }
+        }
+        for (List<String> lines : added) {
+            write(writer, lines);
+        }
+        writer.flush();
+    }
+
+    private static void write(Writer writer, List<String> lines) throws IOException {
+        for (String line : lines) {
+            writer.write(line);
+            writer.write('\n');
+        }
+    }
+
+    private static Reader open(File mapping) throws IOException {
+        return new InputStreamReader(new FileInputStream(mapping), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 64 bit FNV-1a, plenty to tell the classes of one app apart
+     */
+    static long hash(CharSequence text) {
+        return hash(0xcbf29ce484222325L, text);
+    }
+
+    private static long hash(long hash, CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Reads a mapping one class block at a time. A block starts at each line which isn't indented or a comment;
+     * the lines before the first class form the preamble block.
+     */
+    private static class BlockReader implements AutoCloseable {
+        private final BufferedReader reader;
+        private final List<String> lines = new ArrayList<>();
+        private String nextLine;
+        private long key;
+        private long hash;
+
+        BlockReader(Reader in) throws IOException {
+            this.reader = new BufferedReader(in, 64 * 1024);
+            this.nextLine = reader.readLine();
+        }
+
+        /**
+         * @return true if another block was read into {@link #lines}, {@link #key} and {@link #hash}
+         */
+        boolean next() throws IOException {
+            lines.clear();
+            if (nextLine == null) {
+                return false;
+            }
+            boolean preamble = !startsBlock(nextLine);
+            key = preamble ? PREAMBLE_KEY : hash(className(nextLine));
+            hash = 0xcbf29ce484222325L;
+            do {
+                lines.add(nextLine);
+                hash = hash(hash, nextLine);
+                hash = hash(hash, "\n");
+                nextLine = reader.readLine();
+            } while (nextLine != null && !startsBlock(nextLine));
+            return true;
+        }
+
+        private static boolean startsBlock(String line) {
+            return !line.isEmpty() && !Character.isWhitespace(line.charAt(0)) && line.charAt(0) != '#';
+        }
+
+        private static String className(String line) {
+            int arrow = line.indexOf(" -> ");
+            return arrow < 0 ? line : line.substring(0, arrow);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
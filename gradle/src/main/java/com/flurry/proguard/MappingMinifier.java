@@ -0,0 +1,204 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes the entries of a ProGuard/R8 mapping file which retrace doesn't need: classes and members which kept
+ * their names. The file is read once, line by line, and only the current class's kept members are held in memory,
+ * so mappings of any size can be minified.
+ *
+ * <p>A line is only dropped if it maps a name to itself without line numbers. Members with line numbers describe
+ * inlining and line remapping and are always kept, as are comments. An identity member is kept if another member
+ * of its class was renamed to the same name, since retrace would otherwise lose the ambiguity. An identity class is
+ * kept while any of its lines are.
+ *
+ * <p>R8 writes metadata, eg. a class's source file or that a class or member was synthesized, as comments under
+ * the line they describe, and retrace reads them to name source files and hide synthetic frames. So a class with
+ * comments is always kept with them, and an identity member followed by a comment is kept so the comment still
+ * describes it instead of the line before.
+ */
+class MappingMinifier {
+    private static final String ARROW = " -> ";
+
+    private long linesRead;
+    private long linesWritten;
+
+    private String classLine;
+    private boolean classWritten;
+    private final Set<String> renamedTo = new HashSet<>();
+    private final List<String> keptMembers = new ArrayList<>();
+    private final List<String> classComments = new ArrayList<>();
+    // The identity member read last, which a comment on the next line describes
+    private String identityMember;
+
+    /**
+     * Minify a mapping file into another file
+     *
+     * @param mapping the mapping file
+     * @param minified the file to write the minified mapping to
+     */
+    void minify(File mapping, File minified) throws IOException {
+        try (Reader in = new InputStreamReader(new FileInputStream(mapping), StandardCharsets.UTF_8);
+             Writer out = new OutputStreamWriter(new FileOutputStream(minified), StandardCharsets.UTF_8)) {
+            minify(in, out);
+        }
+    }
+
+    /**
+     * Minify a mapping. The writer is flushed but not closed.
+     *
+     * @param in the mapping
+     * @param out where to write the minified mapping
+     */
+    void minify(Reader in, Writer out) throws IOException {
+        BufferedReader reader = new BufferedReader(in, 64 * 1024);
+        BufferedWriter writer = new BufferedWriter(out, 64 * 1024);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            linesRead++;
+            if (line.startsWith("#") && classLine != null) {
+                if (classWritten) {
+                    write(writer, line);
+                } else {
+                    classComments.add(line);
+                }
+            } else if (line.isEmpty() || !Character.isWhitespace(line.charAt(0))) {
+                endClass(writer);
+                if (line.startsWith("#") || line.isEmpty() || !isIdentity(line)) {
+                    write(writer, line);
+                    classWritten = true;
+                } else {
+                    classWritten = false;
+                }
+                classLine = line.startsWith("#") || line.isEmpty() ? null : line;
+            } else {
+                member(writer, line);
+            }
+        }
+        endClass(writer);
+        writer.flush();
+    }
+
+    private void member(Writer writer, String line) throws IOException {
+        int start = 0;
+        while (start < line.length() && Character.isWhitespace(line.charAt(start))) {
+            start++;
+        }
+        if (line.startsWith("#", start)) {
+            if (identityMember != null) {
+                keptMembers.remove(keptMembers.size() - 1);
+                writeMember(writer, identityMember);
+                identityMember = null;
+            }
+            writeMember(writer, line);
+            return;
+        }
+        identityMember = null;
+        int arrow = line.indexOf(ARROW, start);
+        if (arrow < 0 || Character.isDigit(line.charAt(start))) {
+            writeMember(writer, line);
+            return;
+        }
+        int nameEnd = line.indexOf('(', start);
+        if (nameEnd < 0 || nameEnd > arrow) {
+            nameEnd = arrow;
+        } else if (line.indexOf(':', nameEnd) >= 0 && line.indexOf(':', nameEnd) < arrow) {
+            // original line numbers without a range
+            writeMember(writer, line);
+            return;
+        }
+        int nameStart = line.lastIndexOf(' ', nameEnd - 1) + 1;
+        int obfuscatedStart = arrow + ARROW.length();
+        int obfuscatedLength = line.length() - obfuscatedStart;
+        if (nameEnd - nameStart == obfuscatedLength
+                && line.regionMatches(nameStart, line, obfuscatedStart, obfuscatedLength)) {
+            keptMembers.add(line);
+            identityMember = line;
+        } else {
+            renamedTo.add(line.substring(obfuscatedStart));
+            writeMember(writer, line);
+        }
+    }
+
+    /**
+     * Write the class if it has comments and the identity members which share a name with a renamed member, then
+     * forget the class
+     */
+    private void endClass(Writer writer) throws IOException {
+        if (!classComments.isEmpty()) {
+            writeClass(writer);
+        }
+        for (String member : keptMembers) {
+            if (renamedTo.contains(member.substring(member.indexOf(ARROW) + ARROW.length()))) {
+                writeMember(writer, member);
+            }
+        }
+        keptMembers.clear();
+        renamedTo.clear();
+        classComments.clear();
+        classLine = null;
+        identityMember = null;
+    }
+
+    private void writeMember(Writer writer, String line) throws IOException {
+        writeClass(writer);
+        write(writer, line);
+    }
+
+    /**
+     * Write the class line and its comments unless they were written already
+     */
+    private void writeClass(Writer writer) throws IOException {
+        if (!classWritten && classLine != null) {
+            write(writer, classLine);
+            for (String comment : classComments) {
+                write(writer, comment);
+            }
+            classComments.clear();
+            classWritten = true;
+        }
+    }
+
+    private void write(Writer writer, String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+        linesWritten++;
+    }
+
+    /**
+     * @return true if a class line like {@code a.b.C -> a.b.C:} maps the class to itself
+     */
+    private static boolean isIdentity(String line) {
+        int arrow = line.indexOf(ARROW);
+        if (arrow < 0 || !line.endsWith(":")) {
+            return false;
+        }
+        int obfuscatedStart = arrow + ARROW.length();
+        return line.length() - 1 - obfuscatedStart == arrow && line.regionMatches(0, line, obfuscatedStart, arrow);
+    }
+
+    long getLinesRead() {
+        return linesRead;
+    }
+
+    long getLinesWritten() {
+        return linesWritten;
+    }
+}
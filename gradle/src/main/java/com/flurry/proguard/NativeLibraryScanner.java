@@ -0,0 +1,195 @@
+/*
+ * Copyright Yahoo Inc. 2017, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.flurry.proguard.UploadMapping.LOGGER;
+
+/**
+ * Finds the shared objects worth uploading in native build output folders. The folders are walked and the
+ * libraries read in parallel. Libraries of other ABIs, libraries without symbols and copies of a library already
+ * found, matched by build id or else by contents, are left out.
+ */
+public class NativeLibraryScanner {
+    private static final Set<String> ABIS = new HashSet<>(Arrays.asList(
+            "armeabi", "armeabi-v7a", "arm64-v8a", "x86", "x86_64", "riscv64", "mips", "mips64"));
+    private static final Map<Integer, String> ABI_BY_MACHINE = new HashMap<>();
+    static {
+        ABI_BY_MACHINE.put(3, "x86");
+        ABI_BY_MACHINE.put(40, "armeabi-v7a");
+        ABI_BY_MACHINE.put(62, "x86_64");
+        ABI_BY_MACHINE.put(183, "arm64-v8a");
+        ABI_BY_MACHINE.put(243, "riscv64");
+    }
+
+    private final Set<String> abiFilters;
+    private int duplicates;
+    private int stripped;
+    private int malformed;
+
+    /**
+     * @param abiFilters the ABIs to upload, empty for every ABI
+     */
+    public NativeLibraryScanner(Collection<String> abiFilters) {
+        this.abiFilters = new HashSet<>(abiFilters);
+    }
+
+    /**
+     * @param roots the folders to search, and .so files to consider as they are. Missing files are ignored.
+     * @return the libraries to upload, in path order
+     */
+    public List<File> scan(Collection<File> roots) throws IOException {
+        try {
+            List<Path> candidates = roots.parallelStream()
+                    .filter(File::exists)
+                    .flatMap(root -> walk(root.toPath()))
+                    .distinct()
+                    .sorted()
+                    .collect(Collectors.toList());
+            List<Library> libraries = candidates.parallelStream()
+                    .map(Library::new)
+                    .collect(Collectors.toList());
+
+            List<File> files = new ArrayList<>();
+            Map<String, Path> seen = new HashMap<>();
+            for (Library library : libraries) {
+                if (!library.elf) {
+                    LOGGER.warn("Skipping {}, it isn't an ELF file", library.path);
+                } else if (library.malformed != null) {
+                    LOGGER.warn("Skipping {}, it can't be read: {}", library.path, library.malformed);
+                    malformed++;
+                } else if (!abiFilters.isEmpty() && !abiFilters.contains(library.abi)) {
+                    LOGGER.debug("Skipping {}, {} is filtered out", library.path, library.abi);
+                } else if (!library.hasSymbols) {
+                    LOGGER.info("Skipping {}, it is stripped", library.path);
+                    stripped++;
+                } else if (seen.containsKey(library.identity)) {
+                    LOGGER.info("Skipping {}, it is the same library as {}", library.path, seen.get(library.identity));
+                    duplicates++;
+                } else {
+                    seen.put(library.identity, library.path);
+                    files.add(library.path.toFile());
+                }
+            }
+            LOGGER.info("Found {} native libraries, skipped {} duplicates, {} without symbols and {} malformed",
+                    files.size(), duplicates, stripped, malformed);
+            return files;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return the number of libraries left out because the same library was already found
+     */
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return the number of libraries left out because they carry no symbols
+     */
+    public int getStripped() {
+        return stripped;
+    }
+
+    /**
+     * @return the number of libraries left out because they are truncated or corrupt
+     */
+    public int getMalformed() {
+        return malformed;
+    }
+
+    private static Stream<Path> walk(Path root) {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(".so") && Files.isRegularFile(path))
+                    .collect(Collectors.toList())
+                    .stream();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The ABI a library was built for: the name of the ABI folder holding it, or else the ELF machine type
+     */
+    static String abiOf(Path path, int machine) {
+        for (Path folder = path.getParent(); folder != null; folder = folder.getParent()) {
+            String name = folder.getFileName() != null ? folder.getFileName().toString() : "";
+            if (ABIS.contains(name)) {
+                return name;
+            }
+        }
+        return ABI_BY_MACHINE.getOrDefault(machine, "unknown");
+    }
+
+    /**
+     * @return true if the library has a symbol table or debug information, not just its dynamic symbols
+     */
+    static boolean hasSymbols(ElfFile elf) {
+        for (ElfFile.Section section : elf.getSections()) {
+            if (section.type == ElfFile.SHT_NOBITS) {
+                continue;
+            }
+            String name = section.name;
+            if (name.equals(".symtab") || name.equals(".gnu_debugdata")
+                    || name.startsWith(".debug_") || name.startsWith(".zdebug_")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private class Library {
+        final Path path;
+        final boolean elf;
+        final String abi;
+        final boolean hasSymbols;
+        final String identity;
+        final String malformed;
+
+        Library(Path path) {
+            this.path = path;
+            File file = path.toFile();
+            this.elf = ElfFile.isElf(file);
+            String abi = null;
+            boolean hasSymbols = false;
+            String identity = null;
+            String malformed = null;
+            if (elf) {
+                try {
+                    ElfFile elfFile = new ElfFile(file);
+                    abi = abiOf(path, elfFile.getMachine());
+                    hasSymbols = hasSymbols(elfFile);
+                    if (hasSymbols && (abiFilters.isEmpty() || abiFilters.contains(abi))) {
+                        String buildId = elfFile.getBuildId();
+                        identity = buildId != null ? "build-id:" + buildId
+                                : "sha256:" + UploadCache.contentHash(file);
+                    }
+                } catch (IOException e) {
+                    malformed = e.getMessage();
+                }
+            }
+            this.abi = abi;
+            this.hasSymbols = hasSymbols;
+            this.identity = identity;
+            this.malformed = malformed;
+        }
+    }
+}
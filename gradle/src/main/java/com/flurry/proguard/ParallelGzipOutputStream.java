@@ -0,0 +1,206 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip stream which splits its input into fixed size blocks and deflates them concurrently.
+ * Every block becomes its own gzip member, so the output is a standard multi-member gzip file
+ * which any gzip reader (including {@link java.util.zip.GZIPInputStream}) decompresses as one stream.
+ * The output only depends on the input, the level and the block size, never on the thread count.
+ */
+class ParallelGzipOutputStream extends OutputStream {
+    static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final OutputStream out;
+    private final int level;
+    private final int blockSize;
+    private final int maxPendingBlocks;
+    private final ForkJoinPool pool;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private byte[] block;
+    private int count;
+    private boolean wroteMember;
+    private boolean closed;
+
+    /**
+     * @param out the stream to write the compressed data to
+     * @param level the deflate level, 0-9 or -1 for the default
+     * @param threads the number of blocks to compress at the same time
+     * @param blockSize the number of uncompressed bytes in each gzip member
+     */
+    ParallelGzipOutputStream(OutputStream out, int level, int threads, int blockSize) {
+        this.out = out;
+        this.level = level;
+        this.blockSize = blockSize;
+        // Allow a few finished blocks to queue up behind a slow one without holding the whole input in memory
+        this.maxPendingBlocks = threads * 2;
+        this.pool = new ForkJoinPool(threads);
+        this.block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            int n = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Flushes the compressed members written so far. Buffered input is only compressed once a block is full
+     * so that flushing does not change the output.
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Compress any remaining input and write all outstanding members without closing the underlying stream
+     */
+    void finish() throws IOException {
+        if (pool.isShutdown()) {
+            throw new IOException("Compression already failed");
+        }
+        boolean finished = false;
+        try {
+            if (count > 0 || !wroteMember && pending.isEmpty()) {
+                submitBlock();
+            }
+            while (!pending.isEmpty()) {
+                writeMember(pending.removeFirst());
+            }
+            out.flush();
+            finished = true;
+        } finally {
+            if (!finished) {
+                // Nothing more can be written once a member is lost, so do not keep the workers around
+                shutdown();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            finish();
+        } finally {
+            try {
+                shutdown();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * @return true once the compression threads have been told to stop
+     */
+    boolean isShutdown() {
+        return pool.isShutdown();
+    }
+
+    private void shutdown() {
+        for (Future<byte[]> member : pending) {
+            member.cancel(true);
+        }
+        pending.clear();
+        pool.shutdownNow();
+    }
+
+    private void submitBlock() throws IOException {
+        byte[] data = block;
+        int length = count;
+        block = new byte[blockSize];
+        count = 0;
+        pending.addLast(pool.submit(() -> compress(data, length, level)));
+        while (pending.size() >= maxPendingBlocks) {
+            writeMember(pending.removeFirst());
+        }
+    }
+
+    private void writeMember(Future<byte[]> member) throws IOException {
+        try {
+            out.write(member.get());
+            wroteMember = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress block", e.getCause());
+        }
+    }
+
+    /**
+     * Deflate one block into a complete gzip member
+     *
+     * @param data the buffer holding the block
+     * @param length the number of bytes of the buffer to use
+     * @param level the deflate level
+     * @return the gzip member
+     */
+    static byte[] compress(byte[] data, int length, int level) {
+        ByteArrayOutputStream member = new ByteArrayOutputStream(length / 2 + 64);
+        member.write(HEADER, 0, HEADER.length);
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                member.write(buffer, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        writeIntLE(member, (int) crc.getValue());
+        writeIntLE(member, length);
+        return member.toByteArray();
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 24) & 0xff);
+    }
+}
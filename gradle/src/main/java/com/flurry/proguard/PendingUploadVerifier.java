@@ -0,0 +1,94 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.flurry.proguard.UploadMapping.LOGGER;
+import static com.flurry.proguard.UploadMapping.ONE_MINUTE_IN_MS;
+import static com.flurry.proguard.UploadMapping.failWithError;
+
+/**
+ * Checks the uploads which were sent with {@link UploadOptions#setVerifyLater(boolean)} until each is processed.
+ * Processed uploads are recorded in the upload cache and forgotten, as are uploads which failed processing.
+ */
+class PendingUploadVerifier {
+    private final UploadSession session;
+
+    /**
+     * @param session polls the uploads
+     */
+    PendingUploadVerifier(UploadSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Check every pending upload of an API key
+     *
+     * @param apiKey the API key of the project the uploads were sent to
+     * @param token the auth token for API calls
+     * @param timeout the amount of time to wait for the uploads to be processed (in ms)
+     * @param options the pending uploads directory, upload cache and poll settings
+     * @return a future completed with every pending upload once they are all processed
+     */
+    CompletableFuture<List<UploadResult>> verify(String apiKey, String token, int timeout, UploadOptions options) {
+        if (apiKey == null) {
+            failWithError("No API key provided");
+        }
+        if (token == null) {
+            failWithError("No token provided");
+        }
+        return session.async(() -> new PendingUploads(options.getPendingUploadsDir(), apiKey)).thenCompose(pending -> {
+            List<PendingUploads.Entry> entries;
+            try {
+                entries = pending.list();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            LOGGER.info("Verifying {} pending uploads", entries.size());
+            UploadCache cache = UploadSession.openCache(options, apiKey);
+            List<CompletableFuture<UploadResult>> checks = new ArrayList<>();
+            UploadListener listener = options.getListener();
+            for (PendingUploads.Entry entry : entries) {
+                UploadResult upload = entry.upload;
+                checks.add(session.getPoller().watch(upload.getProjectId(), upload.getUploadId(), token,
+                        Math.max(ONE_MINUTE_IN_MS, timeout), options, listener).handle((ignored, error) -> {
+                    if (error == null) {
+                        LOGGER.info("Upload {} was processed", upload.getUploadId());
+                        UploadSession.recordUploads(cache, entry.cacheKeys);
+                        forgetPendingUpload(pending, upload);
+                        return upload.asProcessed();
+                    } else if (error instanceof UploadPoller.ProcessingFailedException) {
+                        LOGGER.error("Upload {}: {}", upload.getUploadId(), error.getMessage());
+                        forgetPendingUpload(pending, upload);
+                    } else {
+                        LOGGER.error("Cannot verify upload {}", upload.getUploadId(), error);
+                    }
+                    return upload;
+                }));
+            }
+            return CompletableFuture.allOf(checks.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+                List<UploadResult> results = new ArrayList<>();
+                checks.forEach(check -> results.add(check.join()));
+                long failed = results.stream().filter(upload -> !upload.isProcessed()).count();
+                if (failed > 0) {
+                    failWithError("{} of {} pending uploads were not processed", failed, results.size());
+                }
+                return results;
+            });
+        });
+    }
+
+    private static void forgetPendingUpload(PendingUploads pending, UploadResult upload) {
+        try {
+            pending.remove(upload.getUploadId());
+        } catch (IOException e) {
+            LOGGER.warn("Cannot update the pending uploads", e);
+        }
+    }
+}
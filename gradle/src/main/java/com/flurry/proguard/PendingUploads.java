@@ -0,0 +1,102 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Uploads which were sent but not yet confirmed as processed, so a later task or CLI run can verify them.
+ * Each API key has its own file in the pending uploads directory.
+ */
+class PendingUploads {
+    private static final String PROJECT_ID = ".projectId";
+    private static final String TYPE = ".type";
+    private static final String SIZE = ".size";
+    private static final String FILES = ".files";
+    private static final String CACHE_KEYS = ".cacheKeys";
+
+    private final File file;
+
+    /**
+     * @param directory the directory holding the pending upload files
+     * @param apiKey the project's API key
+     */
+    PendingUploads(File directory, String apiKey) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the pending uploads directory " + directory);
+        }
+        this.file = new File(directory, "pending-" + UploadCache.sha256(apiKey) + ".properties");
+    }
+
+    /**
+     * Record a sent upload
+     *
+     * @param upload the sent upload
+     * @param cacheKeys the upload cache keys to record once the upload is processed
+     */
+    void add(UploadResult upload, Collection<String> cacheKeys) throws IOException {
+        String uploadId = upload.getUploadId();
+        PropertiesFile.update(file, "Flurry pending uploads", properties -> {
+            properties.setProperty(uploadId + PROJECT_ID, upload.getProjectId());
+            properties.setProperty(uploadId + TYPE, upload.getUploadType().name());
+            properties.setProperty(uploadId + SIZE, Long.toString(upload.getArchiveSize()));
+            properties.setProperty(uploadId + FILES, Integer.toString(upload.getFileCount()));
+            properties.setProperty(uploadId + CACHE_KEYS, String.join(",", cacheKeys));
+        });
+    }
+
+    /**
+     * @return the uploads waiting to be verified
+     */
+    List<Entry> list() throws IOException {
+        Properties properties = PropertiesFile.load(file);
+        List<Entry> entries = new ArrayList<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.endsWith(PROJECT_ID)) {
+                String uploadId = name.substring(0, name.length() - PROJECT_ID.length());
+                String cacheKeys = properties.getProperty(uploadId + CACHE_KEYS, "");
+                UploadResult upload = new UploadResult(
+                        AndroidUploadType.valueOf(properties.getProperty(uploadId + TYPE)),
+                        properties.getProperty(name), uploadId,
+                        Long.parseLong(properties.getProperty(uploadId + SIZE, "0")),
+                        Integer.parseInt(properties.getProperty(uploadId + FILES, "0")), false);
+                entries.add(new Entry(upload,
+                        cacheKeys.isEmpty() ? Collections.emptyList() : Arrays.asList(cacheKeys.split(","))));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Forget an upload once it was verified
+     *
+     * @param uploadId the upload's id
+     */
+    void remove(String uploadId) throws IOException {
+        PropertiesFile.update(file, "Flurry pending uploads", properties -> {
+            properties.remove(uploadId + PROJECT_ID);
+            properties.remove(uploadId + TYPE);
+            properties.remove(uploadId + SIZE);
+            properties.remove(uploadId + FILES);
+            properties.remove(uploadId + CACHE_KEYS);
+        });
+    }
+
+    static class Entry {
+        final UploadResult upload;
+        final List<String> cacheKeys;
+
+        Entry(UploadResult upload, List<String> cacheKeys) {
+            this.upload = upload;
+            this.cacheKeys = cacheKeys;
+        }
+    }
+}
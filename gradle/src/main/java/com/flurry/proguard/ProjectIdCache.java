@@ -0,0 +1,176 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+import static com.flurry.proguard.UploadMapping.LOGGER;
+
+/**
+ * Remembers which project an API key belongs to so uploads don't have to ask the metadata service every time.
+ * Lookups are kept in memory for the life of the JVM and, optionally, in a file shared between builds.
+ */
+class ProjectIdCache {
+    static final int MAX_ENTRIES = 1000;
+
+    private static final ConcurrentMap<String, Entry> MEMORY = new ConcurrentHashMap<>();
+
+    private final File file;
+    private final long ttlMillis;
+
+    /**
+     * @param file the file to share lookups between processes in, or null to only cache in memory
+     * @param ttlMillis how long a lookup is trusted
+     */
+    ProjectIdCache(File file, long ttlMillis) {
+        this.file = file;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @param apiKey the project's API key
+     * @return the cached project id or null if it needs to be looked up
+     */
+    String get(String apiKey) {
+        long now = System.currentTimeMillis();
+        Entry entry = MEMORY.get(apiKey);
+        if (entry != null && !entry.isExpired(now, ttlMillis)) {
+            return entry.projectId;
+        }
+        if (file != null) {
+            try {
+                entry = Entry.parse(PropertiesFile.load(file).getProperty(UploadCache.sha256(apiKey)));
+            } catch (IOException e) {
+                LOGGER.warn("Cannot read the project id cache {}", file, e);
+                return null;
+            }
+            if (entry != null && !entry.isExpired(now, ttlMillis)) {
+                MEMORY.put(apiKey, entry);
+                return entry.projectId;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remember a project id looked up from the metadata service
+     *
+     * @param apiKey the project's API key
+     * @param projectId the project's id
+     */
+    void put(String apiKey, String projectId) {
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(projectId, now);
+        MEMORY.put(apiKey, entry);
+        evictFromMemory(now);
+        if (file != null) {
+            updateFile(properties -> {
+                properties.setProperty(UploadCache.sha256(apiKey), entry.toString());
+                evictFromFile(properties, now);
+            });
+        }
+    }
+
+    /**
+     * Forget an API key's project, eg. after the metadata service said the project doesn't exist
+     *
+     * @param apiKey the project's API key
+     */
+    void invalidate(String apiKey) {
+        MEMORY.remove(apiKey);
+        if (file != null) {
+            updateFile(properties -> properties.remove(UploadCache.sha256(apiKey)));
+        }
+    }
+
+    /**
+     * Drop expired entries, then the oldest entries until there are at most {@link #MAX_ENTRIES}
+     */
+    private void evictFromMemory(long now) {
+        MEMORY.values().removeIf(entry -> entry.isExpired(now, ttlMillis));
+        oldestBeyondLimit(new HashMap<>(MEMORY)).forEach(MEMORY::remove);
+    }
+
+    private void evictFromFile(Properties properties, long now) {
+        Map<String, Entry> entries = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            Entry entry = Entry.parse(properties.getProperty(key));
+            if (entry == null || entry.isExpired(now, ttlMillis)) {
+                properties.remove(key);
+            } else {
+                entries.put(key, entry);
+            }
+        }
+        oldestBeyondLimit(entries).forEach(properties::remove);
+    }
+
+    private static Iterable<String> oldestBeyondLimit(Map<String, Entry> entries) {
+        return () -> entries.entrySet().stream()
+                .sorted(Comparator.comparingLong(e -> e.getValue().createdAt))
+                .limit(Math.max(0, entries.size() - MAX_ENTRIES))
+                .map(Map.Entry::getKey)
+                .iterator();
+    }
+
+    private void updateFile(Consumer<Properties> change) {
+        try {
+            File directory = file.getAbsoluteFile().getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            PropertiesFile.update(file, "Flurry project ids", change);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot update the project id cache {}", file, e);
+        }
+    }
+
+    /**
+     * Clear the in-memory cache
+     */
+    static void clearMemory() {
+        MEMORY.clear();
+    }
+
+    private static class Entry {
+        private final String projectId;
+        private final long createdAt;
+
+        Entry(String projectId, long createdAt) {
+            this.projectId = projectId;
+            this.createdAt = createdAt;
+        }
+
+        boolean isExpired(long now, long ttlMillis) {
+            return now - createdAt >= ttlMillis;
+        }
+
+        static Entry parse(String value) {
+            if (value == null) {
+                return null;
+            }
+            int separator = value.lastIndexOf(',');
+            if (separator < 0) {
+                return null;
+            }
+            try {
+                return new Entry(value.substring(0, separator), Long.parseLong(value.substring(separator + 1)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return projectId + "," + createdAt;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Reads and atomically replaces the properties files used for the client's local state
+ */
+final class PropertiesFile {
+    // File locks are held by the whole JVM, so threads of one build also need to take turns
+    private static final ConcurrentMap<String, Object> JVM_LOCKS = new ConcurrentHashMap<>();
+
+    private PropertiesFile() {
+    }
+
+    /**
+     * @param file the properties file
+     * @return its properties, empty if the file doesn't exist
+     */
+    static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Replace a properties file without readers ever seeing a partly written file
+     *
+     * @param properties the properties to write
+     * @param file the file to replace
+     * @param comment the comment for the top of the file
+     */
+    static void store(Properties properties, File file, String comment) throws IOException {
+        // Each writer gets its own temp file, so writers which don't hold the update lock can't clobber each other
+        Path tempFile = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName() + ".",
+                ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                properties.store(out, comment);
+            }
+            Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Re-read, change and write a properties file while holding a lock, so concurrent builds sharing the file
+     * don't lose each other's changes
+     *
+     * @param file the file to update
+     * @param comment the comment for the top of the file
+     * @param change applies the changes to the latest properties
+     * @return the properties which were written
+     */
+    static Properties update(File file, String comment, Consumer<Properties> change) throws IOException {
+        File lockFile = new File(file.getParentFile(), file.getName() + ".lock");
+        synchronized (JVM_LOCKS.computeIfAbsent(lockFile.getAbsolutePath(), path -> new Object())) {
+            try (RandomAccessFile raf = new RandomAccessFile(lockFile, "rw")) {
+                FileLock lock = raf.getChannel().lock();
+                try {
+                    Properties latest = load(file);
+                    change.accept(latest);
+                    store(latest, file, comment);
+                    return latest;
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+}
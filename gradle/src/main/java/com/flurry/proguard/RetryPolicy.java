@@ -0,0 +1,141 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import org.apache.http.conn.ConnectTimeoutException;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.flurry.proguard.UploadMapping.LOGGER;
+
+/**
+ * Sends a request again when it fails in a way which may go away, waiting exponentially longer, with jitter, between
+ * attempts and at least as long as a Retry-After header asks.
+ *
+ * <p>Idempotent operations, like project lookups, status checks and byte ranges, are retried after any connection
+ * error, 429 or 5xx. Other operations, like registering an upload, are only retried when the service cannot have
+ * acted on them: the connection was never made, or the service answered 429 or 503.
+ */
+class RetryPolicy {
+    /**
+     * One attempt at an operation
+     */
+    interface Attempt<T> {
+        T run() throws IOException;
+    }
+
+    private final String operation;
+    private final boolean idempotent;
+    private final int maxRetries;
+    private final long delayMs;
+    private final long maxDelayMs;
+
+    /**
+     * @param operation names the operation in logs and {@link UploadListener#retried} calls
+     * @param idempotent true if sending the operation twice has the same effect as sending it once
+     * @param maxRetries the most times to send the operation again
+     * @param delayMs the wait before the first retry (in ms)
+     * @param maxDelayMs the longest wait before a retry (in ms)
+     */
+    RetryPolicy(String operation, boolean idempotent, int maxRetries, long delayMs, long maxDelayMs) {
+        this.operation = operation;
+        this.idempotent = idempotent;
+        this.maxRetries = maxRetries;
+        this.delayMs = delayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * @return a policy with the options' retry limits
+     */
+    static RetryPolicy of(String operation, boolean idempotent, UploadOptions options) {
+        return new RetryPolicy(operation, idempotent, options.getMaxRetries(), options.getRetryDelayMs(),
+                options.getMaxRetryDelayMs());
+    }
+
+    /**
+     * @return the same policy for another operation, eg. one chunk of an upload
+     */
+    RetryPolicy forOperation(String operation) {
+        return new RetryPolicy(operation, idempotent, maxRetries, delayMs, maxDelayMs);
+    }
+
+    String getOperation() {
+        return operation;
+    }
+
+    /**
+     * Run the operation until it succeeds, fails in a way which won't go away, or runs out of retries
+     *
+     * @param attempt one attempt at the operation
+     * @param listener told about each retry
+     * @return the result of the successful attempt
+     * @throws IOException the failure of the last attempt
+     */
+    <T> T run(Attempt<T> attempt, UploadListener listener) throws IOException {
+        for (int attempts = 1; ; attempts++) {
+            try {
+                return attempt.run();
+            } catch (IOException e) {
+                if (attempts > maxRetries || !isRetryable(e)) {
+                    throw e;
+                }
+                long delay = delayMs(attempts, e instanceof HttpStatusException
+                        ? ((HttpStatusException) e).getRetryAfterMs() : -1);
+                LOGGER.warn("{} failed on attempt {}, retrying in {}ms: {}", operation, attempts, delay,
+                        e.getMessage());
+                listener.retried(operation, attempts, e);
+                sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * @return true if sending the operation again may succeed where this attempt failed
+     */
+    boolean isRetryable(IOException failure) {
+        if (failure instanceof HttpStatusException) {
+            int statusCode = ((HttpStatusException) failure).getStatusCode();
+            return idempotent ? HttpStatusException.isTransient(statusCode)
+                    : statusCode == 429 || statusCode == HttpURLConnection.HTTP_UNAVAILABLE;
+        }
+        if (failure instanceof ConnectException || failure instanceof ConnectTimeoutException) {
+            // The request never left the client
+            return true;
+        }
+        if (!idempotent || failure instanceof UnknownHostException || failure instanceof SSLException) {
+            return false;
+        }
+        // Other interruptions are an abort or a cancelled upload, not a network failure
+        return !(failure instanceof InterruptedIOException) || failure instanceof SocketTimeoutException;
+    }
+
+    /**
+     * @param attempt the attempt which failed, starting at 1
+     * @param retryAfterMs the wait the service asked for, or -1
+     * @return how long to wait before the next attempt (in ms)
+     */
+    long delayMs(int attempt, long retryAfterMs) {
+        long backoff = (long) Math.min(maxDelayMs, delayMs * Math.pow(2, attempt - 1));
+        long jittered = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        return Math.max(jittered, Math.min(retryAfterMs, maxDelayMs));
+    }
+
+    private static void sleep(long delayMs) throws InterruptedIOException {
+        try {
+            TimeUnit.MILLISECONDS.sleep(delayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A request body written no faster than a bandwidth limit allows, with its progress tracked as it goes. Writing the
+ * body again, for a retry, takes back the bytes of the earlier attempt from the progress.
+ */
+class ThrottledEntity extends HttpEntityWrapper {
+    /** The most bytes written between checks of the limit, so large writes don't burst past it */
+    static final int MAX_WRITE = 16 * 1024;
+
+    private final BandwidthLimiter limiter;
+    private final TransferProgress progress;
+    private long written;
+
+    /**
+     * @param entity the body to send
+     * @param limiter the bandwidth limit, or null to only track progress
+     * @param progress the upload's progress
+     */
+    ThrottledEntity(HttpEntity entity, BandwidthLimiter limiter, TransferProgress progress) {
+        super(entity);
+        this.limiter = limiter;
+        this.progress = progress;
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        if (written > 0) {
+            progress.resending(written);
+            written = 0;
+        }
+        wrappedEntity.writeTo(new FilterOutputStream(outStream) {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    int length = Math.min(len, MAX_WRITE);
+                    long waitNanos = limiter != null ? limiter.acquire(length) : 0;
+                    out.write(b, off, length);
+                    written += length;
+                    progress.sent(length, waitNanos);
+                    off += length;
+                    len -= length;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.flush();
+            }
+        });
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.flurry.proguard.UploadMapping.LOGGER;
+
+/**
+ * Tracks the bytes an upload has sent, across all of its chunks, and reports its throughput every few seconds along
+ * with how long it waited for the bandwidth limit. Bytes sent again by a retry are counted apart, so the sent bytes
+ * never exceed the archive.
+ */
+class TransferProgress {
+    static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private final long totalBytes;
+    private final UploadListener listener;
+    private final long startedAt = System.nanoTime();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong resentBytes = new AtomicLong();
+    private final AtomicLong throttledNanos = new AtomicLong();
+    private final AtomicLong reportedAt = new AtomicLong(startedAt);
+
+    /**
+     * @param totalBytes the size of the archive
+     * @param listener told about the progress every few seconds
+     */
+    TransferProgress(long totalBytes, UploadListener listener) {
+        this.totalBytes = totalBytes;
+        this.listener = listener;
+    }
+
+    /**
+     * Record a write to the connection
+     *
+     * @param bytes the number of bytes written
+     * @param waitNanos how long the write waited for the bandwidth limit
+     */
+    void sent(long bytes, long waitNanos) {
+        long sent = sentBytes.addAndGet(bytes);
+        long throttled = throttledNanos.addAndGet(waitNanos);
+        long now = System.nanoTime();
+        long last = reportedAt.get();
+        if (now - last >= REPORT_INTERVAL_NANOS && reportedAt.compareAndSet(last, now)) {
+            report(sent, throttled, now);
+        }
+    }
+
+    /**
+     * Record that a body is being sent again, so the bytes of its earlier attempt no longer count as sent
+     *
+     * @param bytes the number of bytes the earlier attempt sent
+     */
+    void resending(long bytes) {
+        sentBytes.addAndGet(-bytes);
+        resentBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Report the final throughput once the archive is sent
+     */
+    void finish() {
+        report(sentBytes.get(), throttledNanos.get(), System.nanoTime());
+        if (resentBytes.get() > 0) {
+            LOGGER.info("Sent {} bytes again after failed attempts", resentBytes.get());
+        }
+    }
+
+    long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    long getResentBytes() {
+        return resentBytes.get();
+    }
+
+    long getThrottledNanos() {
+        return throttledNanos.get();
+    }
+
+    private void report(long sent, long throttled, long now) {
+        long elapsed = Math.max(1, now - startedAt);
+        long bytesPerSecond = (long) (sent * 1e9 / elapsed);
+        LOGGER.info("Sent {} of {} bytes at {} KB/s, {} ms waiting for the bandwidth limit", sent, totalBytes,
+                bytesPerSecond / 1024, TimeUnit.NANOSECONDS.toMillis(throttled));
+        listener.transferProgress(sent, totalBytes, bytesPerSecond, throttled);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Properties;
+
+/**
+ * An on-disk index of the files which were already uploaded to a project, so unchanged files can be skipped.
+ *
+ * Native libraries are keyed by their GNU build id when they have one, everything else by a SHA-256 of its
+ * contents. ProGuard mappings also include the build UUID in their key since every build needs its own copy.
+ * Entries expire after the configured TTL; deleting the cache directory resets it.
+ */
+class UploadCache {
+    private static final int HASH_WINDOW = 64 * 1024 * 1024;
+
+    private final File indexFile;
+    private final long ttlMillis;
+    private final Properties index;
+
+    /**
+     * @param directory the directory holding the index files
+     * @param apiKey the API key of the project
+     * @param ttlMillis how long an upload is remembered for
+     */
+    UploadCache(File directory, String apiKey, long ttlMillis) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the upload cache directory " + directory);
+        }
+        this.indexFile = new File(directory, sha256(apiKey) + ".properties");
+        this.ttlMillis = ttlMillis;
+        this.index = PropertiesFile.load(indexFile);
+    }
+
+    /**
+     * Get the key a file is recorded under
+     *
+     * @param file the file to upload
+     * @param uuid the build uuid, may be null for native uploads
+     * @param uploadType the type of upload
+     * @return the cache key
+     */
+    String cacheKey(File file, String uuid, AndroidUploadType uploadType) throws IOException {
+        String identity = null;
+        if (uploadType == AndroidUploadType.ANDROID_NATIVE && ElfFile.isElf(file)) {
+            String buildId = new ElfFile(file).getBuildId();
+            if (buildId != null) {
+                identity = "build-id:" + buildId;
+            }
+        }
+        if (identity == null) {
+            identity = "sha256:" + contentHash(file);
+        }
+        if (uploadType == AndroidUploadType.ANDROID_JAVA) {
+            identity = uuid + "/" + identity;
+        }
+        return uploadType.getUploadType() + "/" + identity;
+    }
+
+    /**
+     * @param key a key from {@link #cacheKey(File, String, AndroidUploadType)}
+     * @return true if the key was uploaded and hasn't expired
+     */
+    boolean isUploaded(String key) {
+        String uploadedAt = index.getProperty(key);
+        return isFresh(uploadedAt, System.currentTimeMillis());
+    }
+
+    /**
+     * Record successfully processed uploads. Expired entries are dropped.
+     *
+     * @param keys the keys of the uploaded files
+     */
+    void markUploaded(Collection<String> keys) throws IOException {
+        long now = System.currentTimeMillis();
+        Properties latest = PropertiesFile.update(indexFile, "Flurry symbol uploads", properties -> {
+            for (String key : keys) {
+                properties.setProperty(key, Long.toString(now));
+            }
+            properties.entrySet().removeIf(entry -> !isFresh((String) entry.getValue(), now));
+        });
+        index.clear();
+        index.putAll(latest);
+    }
+
+    /**
+     * @param uploadedAt when a file was uploaded, as recorded in the index
+     * @return true if the entry hasn't expired, an entry which isn't a time is treated as missing
+     */
+    private boolean isFresh(String uploadedAt, long now) {
+        if (uploadedAt == null) {
+            return false;
+        }
+        try {
+            return now - Long.parseLong(uploadedAt.trim()) <= ttlMillis;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Hash a file through memory mapped windows so large native libraries aren't copied onto the heap
+     *
+     * @param file the file to hash
+     * @return the hex encoded SHA-256 of the file
+     */
+    static String contentHash(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += HASH_WINDOW) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(HASH_WINDOW, size - position));
+                digest.update(window);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @param value a string which shouldn't appear in file names as is, eg. an API key
+     * @return the hex encoded SHA-256 of the string
+     */
+    static String sha256(String value) {
+        return toHex(newDigest().digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.flurry.proguard.UploadMapping.LOGGER;
+
+/**
+ * Runs upload jobs sent over a Unix domain socket, so release tooling can hand the uploads of many apps to one warm
+ * JVM instead of starting a JVM, and paying for its TLS handshakes and project lookups, for each upload.
+ *
+ * <p>A client writes one JSON job per line, with the fields of a {@link UploadManifest} job and an optional
+ * {@code id}, and reads back one JSON result per job, carrying the same {@code id}, as each job finishes. Results
+ * can come back in a different order than the jobs were sent. Once the client shuts down its side of the
+ * connection, the daemon sends the results of the jobs still running and closes it. Only the socket's owner can
+ * connect to it.
+ */
+class UploadDaemon implements Closeable {
+    private final Path socketPath;
+    private final UploadJobRunner runner;
+    private final ServerSocketChannel server;
+    private final ExecutorService connections = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "flurry-upload-daemon");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param socketPath the socket to listen on, a stale socket left by a daemon which stopped is replaced
+     * @param runner runs the jobs
+     * @throws IOException if the socket can't be created or another daemon is listening on it
+     */
+    UploadDaemon(Path socketPath, UploadJobRunner runner) throws IOException {
+        this.socketPath = socketPath;
+        this.runner = runner;
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socketPath);
+        if (Files.exists(socketPath)) {
+            if (isListening(address)) {
+                throw new IOException("Another upload daemon is listening on " + socketPath);
+            }
+            Files.delete(socketPath);
+        }
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            bindPrivately(socketPath);
+        } catch (IOException | RuntimeException e) {
+            server.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Bind the socket in a directory only the owner can enter and move it into place once it is restricted to its
+     * owner, so no other user can connect between the socket being created and its permissions being set
+     */
+    private void bindPrivately(Path socketPath) throws IOException {
+        Path parent = socketPath.toAbsolutePath().getParent();
+        Path privateDir;
+        try {
+            privateDir = Files.createTempDirectory(parent, ".flurry",
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } catch (UnsupportedOperationException e) {
+            LOGGER.debug("Cannot restrict {} to its owner on this file system", socketPath);
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            return;
+        }
+        Path privateSocket = privateDir.resolve(socketPath.getFileName());
+        try {
+            server.bind(UnixDomainSocketAddress.of(privateSocket));
+            Files.setPosixFilePermissions(privateSocket, PosixFilePermissions.fromString("rw-------"));
+            Files.move(privateSocket, socketPath, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(privateSocket);
+            Files.delete(privateDir);
+        }
+    }
+
+    /**
+     * Accept connections until the daemon is closed
+     */
+    void serve() throws IOException {
+        LOGGER.info("Listening for upload jobs on {}", socketPath);
+        while (server.isOpen()) {
+            SocketChannel client;
+            try {
+                client = server.accept();
+            } catch (AsynchronousCloseException e) {
+                return;
+            }
+            connections.execute(() -> handle(client));
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (SocketChannel channel = client;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(
+                     new ChannelInput(channel), StandardCharsets.UTF_8))) {
+            List<CompletableFuture<Void>> replies = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    replies.add(run(line).thenAccept(reply -> send(channel, reply)));
+                }
+            }
+            CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])).join();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Upload daemon connection failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @param line a job as JSON
+     * @return the job's result as JSON, with the job's id
+     */
+    private CompletableFuture<JSONObject> run(String line) {
+        Object id = JSONObject.NULL;
+        try {
+            JSONObject request = new JSONObject(line);
+            id = request.opt("id") != null ? request.get("id") : JSONObject.NULL;
+            Object requestId = id;
+            return runner.submit(UploadJob.fromJson(request))
+                    .thenApply(result -> result.toJson().put("id", requestId));
+        } catch (JSONException | IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(new JSONObject()
+                    .put("id", id)
+                    .put("status", "failed")
+                    .put("error", "Bad job: " + e.getMessage()));
+        }
+    }
+
+    private void send(SocketChannel channel, JSONObject reply) {
+        ByteBuffer buffer = ByteBuffer.wrap((reply.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        synchronized (channel) {
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Cannot send the result of an upload job: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static boolean isListening(UnixDomainSocketAddress address) {
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            return channel.isConnected();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        connections.shutdownNow();
+        Files.deleteIfExists(socketPath);
+    }
+
+    /**
+     * Reads a socket channel without the blocking lock of {@link java.nio.channels.Channels#newInputStream}, which
+     * would hold up results being written while the daemon waits for the next job
+     */
+    private static class ChannelInput extends InputStream {
+        private final SocketChannel channel;
+
+        ChannelInput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            return length == 0 ? 0 : channel.read(ByteBuffer.wrap(bytes, offset, length));
+        }
+    }
+}
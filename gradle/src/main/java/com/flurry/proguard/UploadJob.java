@@ -0,0 +1,71 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import org.json.JSONObject;
+
+/**
+ * One upload of a manifest or the upload daemon, eg. the mapping of one variant of one app
+ */
+public class UploadJob {
+    private final String apiKey;
+    private final String uuid;
+    private final String path;
+    private final AndroidUploadType uploadType;
+
+    /**
+     * @param apiKey the API key of the app's project
+     * @param uuid the build uuid of the mapping, required for ProGuard mappings
+     * @param path the path to the ProGuard/Native mapping file
+     * @param uploadType the type of mapping
+     */
+    public UploadJob(String apiKey, String uuid, String path, AndroidUploadType uploadType) {
+        if (apiKey == null || apiKey.isEmpty()) {
+            throw new IllegalArgumentException("An upload job needs an API key");
+        }
+        if (path == null || path.isEmpty()) {
+            throw new IllegalArgumentException("An upload job needs a path");
+        }
+        if (uploadType == null) {
+            throw new IllegalArgumentException("An upload job needs an upload type, java or native");
+        }
+        if (uploadType == AndroidUploadType.ANDROID_JAVA && (uuid == null || uuid.isEmpty())) {
+            throw new IllegalArgumentException("A ProGuard upload job needs a uuid: " + path);
+        }
+        this.apiKey = apiKey;
+        this.uuid = uuid;
+        this.path = path;
+        this.uploadType = uploadType;
+    }
+
+    /**
+     * @param json a job with apiKey, uuid, path and type (java or native) fields
+     * @return the job
+     */
+    static UploadJob fromJson(JSONObject json) {
+        return new UploadJob(json.optString("apiKey", null), json.optString("uuid", null),
+                json.optString("path", null), UploadMapping.parseUploadType(json.optString("type", null)));
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public AndroidUploadType getUploadType() {
+        return uploadType;
+    }
+
+    @Override
+    public String toString() {
+        return uploadType.getDisplayName() + " " + path + (uuid != null ? " (" + uuid + ")" : "");
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How one job of a manifest or the upload daemon went
+ */
+public class UploadJobResult {
+    private final UploadJob job;
+    private final UploadResult result;
+    private final Throwable failure;
+    private final long durationNanos;
+
+    UploadJobResult(UploadJob job, UploadResult result, Throwable failure, long durationNanos) {
+        this.job = job;
+        this.result = result;
+        this.failure = failure;
+        this.durationNanos = durationNanos;
+    }
+
+    public UploadJob getJob() {
+        return job;
+    }
+
+    /**
+     * @return the finished upload, or null if the job failed
+     */
+    public UploadResult getResult() {
+        return result;
+    }
+
+    /**
+     * @return why the job failed, or null if it succeeded
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public boolean isSucceeded() {
+        return failure == null;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return the job and its outcome, the duration is in milliseconds
+     */
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject()
+                .put("apiKey", job.getApiKey())
+                .put("uuid", job.getUuid() != null ? job.getUuid() : JSONObject.NULL)
+                .put("path", job.getPath())
+                .put("type", job.getUploadType() == AndroidUploadType.ANDROID_JAVA ? "java" : "native")
+                .put("status", status())
+                .put("durationMs", TimeUnit.NANOSECONDS.toMillis(durationNanos));
+        if (result != null && !result.isSkipped()) {
+            json.put("projectId", result.getProjectId())
+                    .put("uploadId", result.getUploadId())
+                    .put("archiveBytes", result.getArchiveSize());
+        }
+        if (failure != null) {
+            json.put("error", String.valueOf(failure.getMessage()));
+        }
+        return json;
+    }
+
+    private String status() {
+        if (failure != null) {
+            return "failed";
+        } else if (result.isSkipped()) {
+            return "skipped";
+        }
+        return result.isProcessed() ? "processed" : "sent";
+    }
+
+    @Override
+    public String toString() {
+        return job + ": " + status() + (failure != null ? " (" + failure.getMessage() + ")" : "");
+    }
+}
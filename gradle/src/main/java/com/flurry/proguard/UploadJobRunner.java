@@ -0,0 +1,115 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static com.flurry.proguard.UploadMapping.LOGGER;
+
+/**
+ * Runs upload jobs on one session, at most a set number at a time, so jobs share its warm connections, project
+ * lookups and status poller instead of each paying for their own
+ */
+class UploadJobRunner {
+    private final UploadSession session;
+    private final String token;
+    private final int timeout;
+    private final UploadOptions options;
+    private final UploadQueue queue;
+
+    /**
+     * @param session the session to upload with
+     * @param token the auth token for API calls
+     * @param timeout the amount of time to wait for each upload to be processed (in ms)
+     * @param options the upload settings shared by every job
+     * @param parallelism the most jobs to run at the same time
+     */
+    UploadJobRunner(UploadSession session, String token, int timeout, UploadOptions options, int parallelism) {
+        this.session = session;
+        this.token = token;
+        this.timeout = timeout;
+        this.options = options;
+        this.queue = new UploadQueue(parallelism);
+    }
+
+    /**
+     * Start a job once fewer than the maximum are running
+     *
+     * @return a future completed once the job finished, it never fails, a failed job is reported in its result
+     */
+    CompletableFuture<UploadJobResult> submit(UploadJob job) {
+        return queue.submit(() -> {
+            long start = System.nanoTime();
+            CompletableFuture<UploadResult> upload;
+            try {
+                upload = session.uploadFilesAsync(job.getApiKey(), job.getUuid(),
+                        Collections.singletonList(job.getPath()), token, timeout, job.getUploadType(), options);
+            } catch (RuntimeException e) {
+                upload = new CompletableFuture<>();
+                upload.completeExceptionally(e);
+            }
+            return upload.handle((result, error) -> {
+                Throwable failure = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                UploadJobResult finished = new UploadJobResult(job, result, failure, System.nanoTime() - start);
+                if (failure != null) {
+                    LOGGER.error("Upload job failed: {}", finished);
+                } else {
+                    LOGGER.info("Upload job finished: {}", finished);
+                }
+                return finished;
+            });
+        });
+    }
+
+    /**
+     * Run every job and wait for all of them
+     *
+     * @return the result of each job, in the order of the jobs
+     */
+    List<UploadJobResult> runAll(List<UploadJob> jobs) {
+        List<CompletableFuture<UploadJobResult>> running = new ArrayList<>();
+        jobs.forEach(job -> running.add(submit(job)));
+        List<UploadJobResult> results = new ArrayList<>();
+        running.forEach(job -> results.add(job.join()));
+        long failed = results.stream().filter(result -> !result.isSucceeded()).count();
+        LOGGER.info("{} of {} upload jobs succeeded", results.size() - failed, results.size());
+        return results;
+    }
+
+    /**
+     * @return the results with a count of the jobs which succeeded and failed
+     */
+    static JSONObject summary(List<UploadJobResult> results) {
+        JSONArray jobs = new JSONArray();
+        results.forEach(result -> jobs.put(result.toJson()));
+        long failed = results.stream().filter(result -> !result.isSucceeded()).count();
+        return new JSONObject()
+                .put("succeeded", results.size() - failed)
+                .put("failed", failed)
+                .put("jobs", jobs);
+    }
+
+    /**
+     * Write the summary of the results, replacing any earlier summary in the file
+     */
+    static void writeSummary(List<UploadJobResult> results, File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        Files.write(file.toPath(), (summary(results).toString(2) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Records the progress of a chunked upload so an interrupted upload can continue where it stopped,
+ * even from a new process. The archive is kept next to the journal so resumed chunks have the same bytes.
+ */
+class UploadJournal {
+    private static final String PROJECT_ID = "projectId";
+    private static final String UPLOAD_ID = "uploadId";
+    private static final String SIZE = "size";
+    private static final String CHUNK_SIZE = "chunkSize";
+    private static final String ACKNOWLEDGED = "acknowledged";
+
+    private final File journalFile;
+    private final File archiveFile;
+    private final Properties properties;
+    private final Set<Integer> acknowledged = new TreeSet<>();
+
+    private UploadJournal(File journalFile, File archiveFile, Properties properties) {
+        this.journalFile = journalFile;
+        this.archiveFile = archiveFile;
+        this.properties = properties;
+    }
+
+    /**
+     * Open the journal for an upload, discarding it if it was written with a different chunk size
+     *
+     * @param directory the directory holding journals
+     * @param apiKey the project's API key
+     * @param uuid the build uuid
+     * @param uploadType the type of upload
+     * @param files the files being uploaded
+     * @param chunkSize the size of each chunk
+     * @return the journal, which is empty if there is no upload to resume
+     */
+    static UploadJournal open(File directory, String apiKey, String uuid, AndroidUploadType uploadType,
+                              List<File> files, long chunkSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the upload journal directory " + directory);
+        }
+        String name = journalName(apiKey, uuid, uploadType, files);
+        File journalFile = new File(directory, name + ".properties");
+        File archiveFile = new File(directory, name + ".tgz");
+        UploadJournal journal = new UploadJournal(journalFile, archiveFile, PropertiesFile.load(journalFile));
+        if (journalFile.isFile() && archiveFile.isFile()) {
+            if (Long.toString(chunkSize).equals(journal.properties.getProperty(CHUNK_SIZE))
+                    && Long.toString(journal.archiveFile.length()).equals(journal.properties.getProperty(SIZE))) {
+                String chunks = journal.properties.getProperty(ACKNOWLEDGED, "");
+                for (String chunk : chunks.split(",")) {
+                    if (!chunk.isEmpty()) {
+                        journal.acknowledged.add(Integer.parseInt(chunk));
+                    }
+                }
+            } else {
+                journal.delete();
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * The journal is named after everything that determines the archive's contents, so a changed mapping file
+     * starts a new upload instead of resuming an old one.
+     */
+    private static String journalName(String apiKey, String uuid, AndroidUploadType uploadType, List<File> files) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((apiKey + "\n" + uuid + "\n" + uploadType.name() + "\n").getBytes(StandardCharsets.UTF_8));
+            for (File file : files) {
+                String identity = file.getAbsolutePath() + "\n" + file.length() + "\n" + file.lastModified() + "\n";
+                digest.update(identity.getBytes(StandardCharsets.UTF_8));
+            }
+            StringBuilder name = new StringBuilder("upload-");
+            for (byte b : digest.digest()) {
+                name.append(String.format("%02x", b & 0xff));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * @return true if an earlier process created the upload and the archive is still available
+     */
+    synchronized boolean canResume() {
+        return properties.getProperty(UPLOAD_ID) != null && archiveFile.isFile();
+    }
+
+    File getArchiveFile() {
+        return archiveFile;
+    }
+
+    synchronized String getProjectId() {
+        return properties.getProperty(PROJECT_ID);
+    }
+
+    synchronized String getUploadId() {
+        return properties.getProperty(UPLOAD_ID);
+    }
+
+    /**
+     * Record a newly created upload for the archive
+     *
+     * @param projectId the project's id
+     * @param uploadId the upload's id
+     * @param chunkSize the size of each chunk
+     */
+    synchronized void start(String projectId, String uploadId, long chunkSize) throws IOException {
+        properties.clear();
+        acknowledged.clear();
+        properties.setProperty(PROJECT_ID, projectId);
+        properties.setProperty(UPLOAD_ID, uploadId);
+        properties.setProperty(SIZE, Long.toString(archiveFile.length()));
+        properties.setProperty(CHUNK_SIZE, Long.toString(chunkSize));
+        save();
+    }
+
+    synchronized boolean isAcknowledged(int chunk) {
+        return acknowledged.contains(chunk);
+    }
+
+    /**
+     * Record that the upload service accepted a chunk
+     *
+     * @param chunk the chunk's index
+     */
+    synchronized void acknowledge(int chunk) throws IOException {
+        acknowledged.add(chunk);
+        StringBuilder chunks = new StringBuilder();
+        for (Integer index : acknowledged) {
+            if (chunks.length() > 0) {
+                chunks.append(',');
+            }
+            chunks.append(index);
+        }
+        properties.setProperty(ACKNOWLEDGED, chunks.toString());
+        save();
+    }
+
+    /**
+     * Remove the journal and its archive once the upload is finished
+     */
+    synchronized void delete() {
+        properties.clear();
+        acknowledged.clear();
+        if (!journalFile.delete() && journalFile.exists()) {
+            journalFile.deleteOnExit();
+        }
+        if (!archiveFile.delete() && archiveFile.exists()) {
+            archiveFile.deleteOnExit();
+        }
+    }
+
+    private void save() throws IOException {
+        PropertiesFile.store(properties, journalFile, "Flurry chunked upload");
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+/**
+ * Receives the timings and sizes of an upload as it goes, eg. to send them to a metrics system. Methods are called
+ * from the session's threads, so implementations must be thread safe, and every method does nothing by default.
+ */
+public interface UploadListener {
+    /**
+     * @param phase the phase which finished
+     * @param durationNanos how long the phase took
+     * @param failure why the phase failed, or null if it succeeded
+     */
+    default void phaseCompleted(UploadPhase phase, long durationNanos, Throwable failure) {
+    }
+
+    /**
+     * @param fileCount the number of files in the archive
+     * @param rawBytes the size of the files before minifying, slimming and compression
+     * @param archiveBytes the size of the archive
+     */
+    default void archivePrepared(int fileCount, long rawBytes, long archiveBytes) {
+    }
+
+    /**
+     * @param bytes the number of bytes sent
+     * @param durationNanos how long sending took
+     */
+    default void archiveSent(long bytes, long durationNanos) {
+    }
+
+    /**
+     * Called every few seconds while the archive is sent, and once it is sent
+     *
+     * @param sentBytes the number of bytes sent so far
+     * @param totalBytes the size of the archive
+     * @param bytesPerSecond the average throughput so far
+     * @param throttledNanos how long the upload has waited for the bandwidth limit so far
+     */
+    default void transferProgress(long sentBytes, long totalBytes, long bytesPerSecond, long throttledNanos) {
+    }
+
+    /**
+     * @param operation what was retried, eg. "chunk 3"
+     * @param attempt the attempt which failed, starting at 1
+     * @param failure why it failed
+     */
+    default void retried(String operation, int attempt, Throwable failure) {
+    }
+
+    /**
+     * @param uploadId the upload which was checked
+     * @param attempt the number of checks made so far, starting at 1
+     * @param status the upload's status
+     */
+    default void statusPolled(String uploadId, int attempt, String status) {
+    }
+
+    /**
+     * @param result the finished upload, or null if it failed
+     * @param failure why the upload failed, or null if it succeeded
+     */
+    default void uploadFinished(UploadResult result, Throwable failure) {
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.flurry.proguard.UploadMapping.LOGGER;
+
+/**
+ * Passes upload events on to several listeners. A listener which throws is logged and doesn't affect the upload
+ * or the other listeners.
+ */
+class UploadListeners implements UploadListener {
+    private final List<UploadListener> listeners = new ArrayList<>();
+
+    /**
+     * @param listeners the listeners to notify, nulls are ignored
+     */
+    UploadListeners(UploadListener... listeners) {
+        for (UploadListener listener : listeners) {
+            if (listener != null) {
+                this.listeners.add(listener);
+            }
+        }
+    }
+
+    private void notify(Consumer<UploadListener> event) {
+        for (UploadListener listener : listeners) {
+            try {
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Upload listener {} failed", listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void phaseCompleted(UploadPhase phase, long durationNanos, Throwable failure) {
+        notify(listener -> listener.phaseCompleted(phase, durationNanos, failure));
+    }
+
+    @Override
+    public void archivePrepared(int fileCount, long rawBytes, long archiveBytes) {
+        notify(listener -> listener.archivePrepared(fileCount, rawBytes, archiveBytes));
+    }
+
+    @Override
+    public void archiveSent(long bytes, long durationNanos) {
+        notify(listener -> listener.archiveSent(bytes, durationNanos));
+    }
+
+    @Override
+    public void transferProgress(long sentBytes, long totalBytes, long bytesPerSecond, long throttledNanos) {
+        notify(listener -> listener.transferProgress(sentBytes, totalBytes, bytesPerSecond, throttledNanos));
+    }
+
+    @Override
+    public void retried(String operation, int attempt, Throwable failure) {
+        notify(listener -> listener.retried(operation, attempt, failure));
+    }
+
+    @Override
+    public void statusPolled(String uploadId, int attempt, String status) {
+        notify(listener -> listener.statusPolled(uploadId, attempt, status));
+    }
+
+    @Override
+    public void uploadFinished(UploadResult result, Throwable failure) {
+        notify(listener -> listener.uploadFinished(result, failure));
+    }
+}
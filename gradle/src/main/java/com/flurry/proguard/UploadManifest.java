@@ -0,0 +1,127 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads the upload jobs of a manifest. A {@code .json} manifest is an array of objects, or an object with a
+ * {@code jobs} array, each with {@code apiKey}, {@code uuid}, {@code path} and {@code type} fields. Any other
+ * manifest is read as CSV: a header naming the same four columns in any order, then one job per line. Blank lines
+ * and lines starting with {@code #} are skipped, and values can't contain commas.
+ *
+ * <p>Relative paths are resolved against the manifest's directory.
+ */
+class UploadManifest {
+    private static final List<String> COLUMNS = Arrays.asList("apiKey", "uuid", "path", "type");
+
+    private UploadManifest() {
+    }
+
+    /**
+     * @param manifest the manifest file
+     * @return the jobs in the order they are listed
+     * @throws IOException if the manifest can't be read or a job is incomplete
+     */
+    static List<UploadJob> read(File manifest) throws IOException {
+        File directory = manifest.getAbsoluteFile().getParentFile();
+        if (manifest.getName().toLowerCase(Locale.ROOT).endsWith(".json")) {
+            return readJson(manifest, directory);
+        }
+        return readCsv(manifest, directory);
+    }
+
+    private static List<UploadJob> readJson(File manifest, File directory) throws IOException {
+        JSONArray array;
+        try (Reader reader = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8)) {
+            Object value = new JSONTokener(reader).nextValue();
+            array = value instanceof JSONObject ? ((JSONObject) value).getJSONArray("jobs") : (JSONArray) value;
+        } catch (JSONException | ClassCastException e) {
+            throw new IOException("Cannot read the manifest " + manifest + ": " + e.getMessage(), e);
+        }
+        List<UploadJob> jobs = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            try {
+                jobs.add(resolve(UploadJob.fromJson(array.getJSONObject(i)), directory));
+            } catch (JSONException | IllegalArgumentException e) {
+                throw new IOException(String.format("Job %d of %s: %s", i + 1, manifest, e.getMessage()), e);
+            }
+        }
+        return jobs;
+    }
+
+    private static List<UploadJob> readCsv(File manifest, File directory) throws IOException {
+        List<String> lines = Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8);
+        List<UploadJob> jobs = new ArrayList<>();
+        int[] columns = null;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] values = line.split(",", -1);
+            if (columns == null) {
+                columns = header(values, manifest);
+                continue;
+            }
+            if (values.length != COLUMNS.size()) {
+                throw new IOException(String.format("Line %d of %s has %d values, expected %d", i + 1, manifest,
+                        values.length, COLUMNS.size()));
+            }
+            try {
+                String uuid = values[columns[1]].trim();
+                jobs.add(resolve(new UploadJob(values[columns[0]].trim(), uuid.isEmpty() ? null : uuid,
+                        values[columns[2]].trim(), UploadMapping.parseUploadType(values[columns[3]].trim())),
+                        directory));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(String.format("Line %d of %s: %s", i + 1, manifest, e.getMessage()), e);
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * @return the index of each of {@link #COLUMNS} in the header
+     */
+    private static int[] header(String[] names, File manifest) throws IOException {
+        int[] columns = new int[COLUMNS.size()];
+        Arrays.fill(columns, -1);
+        for (int i = 0; i < names.length; i++) {
+            for (int column = 0; column < COLUMNS.size(); column++) {
+                if (COLUMNS.get(column).equalsIgnoreCase(names[i].trim())) {
+                    columns[column] = i;
+                }
+            }
+        }
+        for (int column = 0; column < COLUMNS.size(); column++) {
+            if (columns[column] < 0 || names.length != COLUMNS.size()) {
+                throw new IOException("The first line of " + manifest + " must name the columns "
+                        + String.join(",", COLUMNS));
+            }
+        }
+        return columns;
+    }
+
+    private static UploadJob resolve(UploadJob job, File directory) {
+        File path = new File(job.getPath());
+        if (path.isAbsolute()) {
+            return job;
+        }
+        return new UploadJob(job.getApiKey(), job.getUuid(), new File(directory, job.getPath()).getPath(),
+                job.getUploadType());
+    }
+}
@@ -4,441 +4,448 @@
 package com.flurry.proguard;
 
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.Namespace;
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
-import org.apache.commons.compress.utils.IOUtils;
-import org.apache.http.Header;
-import org.apache.http.HttpEntity;
-import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.entity.FileEntity;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.message.BasicHeader;
-import org.apache.http.util.EntityUtils;
-import org.json.JSONArray;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.nio.charset.Charset;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
-import java.util.UUID;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.Deflater;
 
 public class UploadMapping {
-    private static final String METADATA_BASE = "https://crash-metadata.flurry.com/pulse/v1";
-    private static final String UPLOAD_BASE = "https://upload.flurry.com/upload/v1";
     public static final int FIVE_SECONDS_IN_MS = 5 * 1000;
     public static final int ONE_MINUTE_IN_MS = 60 * 1000;
     public static final int THREE_SECONDS_IN_MS = 3 * 1000;
     public static final int TEN_MINUTES_IN_MS = 10 * ONE_MINUTE_IN_MS;
 
     private static boolean EXIT_PROCESS_ON_ERROR = false;
-    private static Logger LOGGER = LoggerFactory.getLogger(UploadMapping.class.getName());
-    private static final RequestConfig REQUEST_CONFIG = RequestConfig.custom()
-                .setConnectTimeout(FIVE_SECONDS_IN_MS) // 5 Seconds
-                .setSocketTimeout(FIVE_SECONDS_IN_MS)
-                .setConnectionRequestTimeout(ONE_MINUTE_IN_MS).build();
-    private static CloseableHttpClient httpClient;
+    static Logger LOGGER = LoggerFactory.getLogger(UploadMapping.class.getName());
+    private static UploadSession sharedSession;
+    private static String metadataBase = UploadSession.DEFAULT_METADATA_BASE;
+    private static String uploadBase = UploadSession.DEFAULT_UPLOAD_BASE;
 
     public static void main(String[] args) throws IOException {
         ArgumentParser parser = ArgumentParsers.newArgumentParser("com.flurry.proguard.UploadMapping", true)
                 .description("Uploads Proguard/Native Mapping Files for Android");
-        parser.addArgument("-k", "--api-key").required(true)
-                    .help("API Key for your project");
-        parser.addArgument("-u", "--uuid").required(true)
-                    .help("The build UUID");
-        parser.addArgument("-p", "--path").required(true)
-                .help("Path to ProGuard/Native mapping file for the build");
+        parser.addArgument("-k", "--api-key")
+                    .help("API Key for your project, required unless running a manifest or the daemon");
+        parser.addArgument("-u", "--uuid")
+                    .help("The build UUID, required unless verifying pending uploads");
+        parser.addArgument("-p", "--path")
+                .help("Path to ProGuard/Native mapping file for the build, required unless verifying pending uploads");
         parser.addArgument("-t", "--token").required(true)
                     .help("A Flurry auth token to use for the upload");
         parser.addArgument("-to", "--timeout").type(Integer.class).setDefault(TEN_MINUTES_IN_MS)
                     .help("How long to wait (in ms) for the upload to be processed");
         parser.addArgument("-n", "--ndk").type(Boolean.class).setDefault(false)
                     .help("Is it a Native mapping file");
+        parser.addArgument("-s", "--stream").type(Boolean.class).setDefault(false)
+                    .help("Compress the mapping files into memory instead of a temp file");
+        parser.addArgument("--compression-level").type(Integer.class).setDefault(Deflater.DEFAULT_COMPRESSION)
+                    .choices(Arguments.range(Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION))
+                    .help("The gzip level (0-9) for the archive, -1 uses the default level");
+        parser.addArgument("--compression-threads").type(Integer.class).setDefault(1)
+                    .help("How many threads to compress the archive with");
+        parser.addArgument("--cache-dir")
+                    .help("A directory to remember uploaded files in, unchanged files are not uploaded again");
+        parser.addArgument("--cache-ttl-hours").type(Integer.class).setDefault(30 * 24)
+                    .help("How long (in hours) an upload is remembered in the cache");
+        parser.addArgument("--chunk-size").type(Long.class).setDefault(0L)
+                    .help("Upload the archive in ranges of this many bytes so a failed upload can be resumed, "
+                            + "0 sends it in one request");
+        parser.addArgument("--parallel-chunks").type(Integer.class).setDefault(1)
+                    .help("How many ranges to send at the same time in a chunked upload");
+        parser.addArgument("--journal-dir")
+                    .help("Where to keep the progress of chunked uploads");
+        parser.addArgument("--project-cache-file")
+                    .help("A file to remember the project of each API key in between runs");
+        parser.addArgument("--project-cache-ttl-hours").type(Integer.class).setDefault(24)
+                    .help("How long (in hours) a remembered project is trusted, 0 disables the cache");
+        parser.addArgument("--poll-interval").type(Long.class).setDefault((long) THREE_SECONDS_IN_MS)
+                    .help("How long to wait (in ms) before checking whether the upload was processed again");
+        parser.addArgument("--max-poll-interval").type(Long.class).setDefault(30000L)
+                    .help("The longest (in ms) the poll interval grows to");
+        parser.addArgument("--poll-backoff").type(Double.class).setDefault(1.5)
+                    .help("What the poll interval is multiplied by after each check");
+        parser.addArgument("--poll-jitter").type(Double.class).setDefault(0.2)
+                    .help("The fraction (0-1) each poll interval is randomly changed by");
+        parser.addArgument("--verify-later").type(Boolean.class).setDefault(false)
+                    .help("Exit once the mapping is sent and record the upload to be verified with --verify-pending");
+        parser.addArgument("--verify-pending").type(Boolean.class).setDefault(false)
+                    .help("Wait for the uploads recorded by --verify-later to be processed instead of uploading");
+        parser.addArgument("--pending-dir")
+                    .help("Where to record uploads which still need to be verified");
+        parser.addArgument("--minify").type(Boolean.class).setDefault(false)
+                    .help("Leave classes and members which kept their names out of the uploaded ProGuard mapping");
+        parser.addArgument("--delta-dir")
+                    .help("A directory to fingerprint uploaded mappings in, later uploads only send changed classes");
+        parser.addArgument("--delta-variant").setDefault("default")
+                    .help("The build variant of the mapping, deltas are only made against the same variant");
+        parser.addArgument("--experimental-delta").type(Boolean.class).setDefault(false)
+                    .help("Send deltas from --delta-dir to a --metadata-url which rebuilds the full mapping");
+        parser.addArgument("--slim-native").type(Boolean.class).setDefault(false)
+                    .help("Upload only the symbol tables, debug sections and build id of native libraries");
+        parser.addArgument("-b", "--batch-entry").action(Arguments.append()).metavar("TYPE:UUID:PATH")
+                    .help("A mapping to send in a single batch upload instead of -u/-p, TYPE is java or native "
+                            + "and UUID may be empty for native libraries. Can be repeated.");
+        parser.addArgument("--report")
+                    .help("A file to write the upload's timings, sizes, retries and status checks to as JSON");
+        parser.addArgument("--max-upload-rate").type(Long.class).setDefault(0L)
+                    .help("The most bytes per second to send, shared by all uploads in this JVM, 0 for no limit");
+        parser.addArgument("--max-concurrent-uploads").type(Integer.class).setDefault(0)
+                    .help("The most archives to send at the same time in this JVM, 0 for no limit");
+        parser.addArgument("--max-retries").type(Integer.class).setDefault(3)
+                    .help("How many times to send a request again after a connection error, 429 or 5xx");
+        parser.addArgument("--retry-delay").type(Long.class).setDefault(500L)
+                    .help("How long to wait before the first retry (in ms), doubling for each retry after it");
+        parser.addArgument("--max-retry-delay").type(Long.class).setDefault(30000L)
+                    .help("The longest to wait before a retry (in ms), including waits asked for with Retry-After");
+        parser.addArgument("--hedge-delay").type(Long.class).setDefault(0L)
+                    .help("Send a project lookup or status check again if it isn't answered in this long (in ms), "
+                            + "0 to never send it again");
+        parser.addArgument("--manifest")
+                    .help("A JSON or CSV file listing upload jobs by apiKey, uuid, path and type (java or native), "
+                            + "run in this JVM instead of -k/-u/-p");
+        parser.addArgument("--summary")
+                    .help("A file to write the result of each manifest job to as JSON");
+        parser.addArgument("--parallel-jobs").type(Integer.class).setDefault(4)
+                    .help("How many manifest or daemon jobs to run at the same time");
+        parser.addArgument("--daemon-socket")
+                    .help("Listen on this Unix domain socket for upload jobs, one JSON job per line, "
+                            + "instead of uploading and exiting");
+        parser.addArgument("--metadata-url").setDefault(UploadSession.DEFAULT_METADATA_BASE)
+                    .help("The base URL of the metadata service");
+        parser.addArgument("--upload-url").setDefault(UploadSession.DEFAULT_UPLOAD_BASE)
+                    .help("The base URL of the upload service");
 
         Namespace res = null;
         try {
             res = parser.parseArgs(args);
+            boolean jobs = res.getString("manifest") != null || res.getString("daemon_socket") != null;
+            if (!jobs && res.getString("api_key") == null) {
+                throw new ArgumentParserException("argument -k/--api-key is required", parser);
+            }
+            if (!jobs && !res.getBoolean("verify_pending") && res.getList("batch_entry") == null
+                    && (res.getString("uuid") == null || res.getString("path") == null)) {
+                throw new ArgumentParserException("arguments -u/--uuid and -p/--path are required", parser);
+            }
+            if (jobs && res.getString("report") != null) {
+                throw new ArgumentParserException("argument --report is for single uploads, use --summary", parser);
+            }
+            if (res.getInt("parallel_jobs") < 1) {
+                throw new ArgumentParserException("argument --parallel-jobs must be at least 1", parser);
+            }
+            if (res.getInt("compression_threads") < 1) {
+                throw new ArgumentParserException("argument --compression-threads must be at least 1", parser);
+            }
         } catch (ArgumentParserException e) {
             parser.handleError(e);
             System.exit(1);
         }
 
         EXIT_PROCESS_ON_ERROR = true;
-        if (res.getBoolean("ndk")) {
+        setServiceUrls(res.getString("metadata_url"), res.getString("upload_url"));
+        UploadOptions options;
+        try {
+            options = parseOptions(res);
+        } catch (IllegalArgumentException e) {
+            // The options reject out of range values, report those like any other bad argument
+            parser.handleError(new ArgumentParserException(e.getMessage(), parser));
+            System.exit(1);
+            return;
+        }
+        if (res.getString("manifest") != null || res.getString("daemon_socket") != null) {
+            runJobs(res, options);
+        } else if (res.getBoolean("verify_pending")) {
+            verifyPendingUploads(res.getString("api_key"), res.getString("token"), res.getInt("timeout"), options);
+        } else if (res.getList("batch_entry") != null) {
+            List<BatchEntry> entries = new ArrayList<>();
+            for (Object entry : res.getList("batch_entry")) {
+                entries.add(parseBatchEntry(entry.toString()));
+            }
+            uploadBatch(res.getString("api_key"), entries, res.getString("token"), res.getInt("timeout"), options);
+        } else if (res.getBoolean("ndk")) {
             uploadFiles(res.getString("api_key"), res.getString("uuid"),
                     new ArrayList<>(Collections.singletonList(res.getString("path"))),
-                    res.getString("token"), res.getInt("timeout"), AndroidUploadType.ANDROID_NATIVE);
+                    res.getString("token"), res.getInt("timeout"), AndroidUploadType.ANDROID_NATIVE, options);
         } else {
             uploadFiles(res.getString("api_key"), res.getString("uuid"),
                     new ArrayList<>(Collections.singletonList(res.getString("path"))),
-                    res.getString("token"), res.getInt("timeout"), AndroidUploadType.ANDROID_JAVA);
+                    res.getString("token"), res.getInt("timeout"), AndroidUploadType.ANDROID_JAVA, options);
         }
     }
-    public static void setLogger(Logger logger) {
-        LOGGER = logger;
-    }
 
     /**
-     * Parses an properties file
+     * Build the upload options from the parsed arguments
      *
-     * @param filePath the path to the config file
-     * @return a map of the keys and values from the config
+     * @param res the parsed arguments
+     * @return the options
+     * @throws IllegalArgumentException if an argument is out of range
      */
-    public static Properties parseConfigFile(String filePath) {
-        Properties config = new Properties();
-        File configFile = new File(filePath);
-        try {
-            config.load(new FileInputStream(configFile));
-        } catch (IOException e) {
-            failWithError("Bad config file {}", configFile.getAbsolutePath(), e);
+    private static UploadOptions parseOptions(Namespace res) {
+        UploadOptions options = new UploadOptions()
+                .setStreaming(res.getBoolean("stream"))
+                .setCompressionLevel(res.getInt("compression_level"))
+                .setCompressionThreads(res.getInt("compression_threads"))
+                .setCacheTtlHours(res.getInt("cache_ttl_hours"));
+        if (res.getString("cache_dir") != null) {
+            options.setCacheDir(new File(res.getString("cache_dir")));
         }
-
-        return config;
-    }
-
-    /**
-     * Tar a ProGuard/Native mapping file and send it to Flurry's crash service
-     *
-     * @param apiKey the API key for the project being built
-     * @param uuid the uuid for this build
-     * @param paths the paths to the ProGuard/Native mapping.txt files
-     * @param token the auth token for API calls
-     * @param timeout the amount of time to wait for the upload to be processed (in ms)
-     * @param androidUploadType type of upload
-     */
-    public static void uploadFiles(String apiKey, String uuid, List<String> paths, String token, int timeout,
-                                   AndroidUploadType androidUploadType) throws IOException {
-        ArrayList<File> files = new ArrayList<>();
-        paths.forEach(path -> {
-            File file = new File(path);
-            if (file.isDirectory()) {
-                failWithError("{} is a directory. Please provide the path to " + androidUploadType.getDisplayName()
-                        + " mapping file " + path);
-            }
-            files.add(file);
-        });
-
-        if (apiKey == null) {
-            failWithError("No API key provided");
+        options.setChunkSize(res.getLong("chunk_size"))
+                .setParallelChunks(res.getInt("parallel_chunks"));
+        if (res.getString("journal_dir") != null) {
+            options.setJournalDir(new File(res.getString("journal_dir")));
         }
-        if (androidUploadType == AndroidUploadType.ANDROID_JAVA && uuid == null) {
-            failWithError("No UUID provided");
+        options.setProjectIdCacheTtlHours(res.getInt("project_cache_ttl_hours"));
+        if (res.getString("project_cache_file") != null) {
+            options.setProjectIdCacheFile(new File(res.getString("project_cache_file")));
         }
-        if (token == null) {
-            failWithError("No token provided");
+        options.setPollIntervalMs(res.getLong("poll_interval"))
+                .setMaxPollIntervalMs(res.getLong("max_poll_interval"))
+                .setPollBackoff(res.getDouble("poll_backoff"))
+                .setPollJitter(res.getDouble("poll_jitter"))
+                .setVerifyLater(res.getBoolean("verify_later"))
+                .setMinifyMappings(res.getBoolean("minify"))
+                .setDeltaVariant(res.getString("delta_variant"))
+                .setExperimentalDeltaUploads(res.getBoolean("experimental_delta"))
+                .setSlimNativeLibraries(res.getBoolean("slim_native"))
+                .setMaxUploadBytesPerSecond(res.getLong("max_upload_rate"))
+                .setMaxConcurrentUploads(res.getInt("max_concurrent_uploads"))
+                .setMaxRetries(res.getInt("max_retries"))
+                .setRetryDelayMs(res.getLong("retry_delay"))
+                .setMaxRetryDelayMs(res.getLong("max_retry_delay"))
+                .setHedgeDelayMs(res.getLong("hedge_delay"));
+        if (res.getString("delta_dir") != null) {
+            options.setDeltaIndexDir(new File(res.getString("delta_dir")));
         }
-
-        try {
-            httpClient = HttpClientBuilder.create().setDefaultRequestConfig(REQUEST_CONFIG).build();
-
-            File zippedFile = createArchive(files, uuid);
-            String projectId = lookUpProjectId(apiKey, token);
-            LOGGER.info("Found project {} for api key {}", projectId, apiKey);
-
-            String payload = getUploadJson(zippedFile, projectId, androidUploadType.getUploadType());
-            String uploadId = createUpload(projectId, payload, token);
-            LOGGER.info("Created upload with ID: {}", uploadId);
-
-            sendToUploadService(zippedFile, projectId, uploadId, token);
-            LOGGER.info(androidUploadType.getDisplayName() + " mapping uploaded to Flurry");
-
-            waitForUploadToBeProcessed(projectId, uploadId, token, timeout);
-            LOGGER.info("Upload completed successfully!");
-        } finally {
-            httpClient.close();
-            httpClient = null;
+        if (res.getString("pending_dir") != null) {
+            options.setPendingUploadsDir(new File(res.getString("pending_dir")));
         }
+        if (res.getString("report") != null) {
+            options.setReportFile(new File(res.getString("report")));
+        }
+        return options;
     }
 
     /**
-     * Create a gzipped tar archive containing the ProGuard/Native mapping files
-     *
-     * @param files array of mapping.txt files
-     * @return the tar-gzipped archive
+     * Run the jobs of a manifest and exit with an error if any failed, or serve jobs from the daemon socket
      */
-    private static File createArchive(List<File> files, String uuid) {
+    private static void runJobs(Namespace res, UploadOptions options) {
+        // A failed job is reported in its result instead of ending the JVM
+        EXIT_PROCESS_ON_ERROR = false;
+        UploadJobRunner runner = new UploadJobRunner(getSharedSession(), res.getString("token"), res.getInt("timeout"),
+                options, res.getInt("parallel_jobs"));
         try {
-            File tarZippedFile = File.createTempFile("tar-zipped-file", ".tgz");
-            TarArchiveOutputStream taos = new TarArchiveOutputStream(
-                        new GZIPOutputStream(
-                                    new BufferedOutputStream(
-                                                new FileOutputStream(tarZippedFile))));
-            for (File file : files) {
-                taos.putArchiveEntry(new TarArchiveEntry(file,
-                        (uuid != null && !uuid.isEmpty() ? uuid : UUID.randomUUID()) + ".txt"));
-                IOUtils.copy(new FileInputStream(file), taos);
-                taos.closeArchiveEntry();
+            if (res.getString("daemon_socket") != null) {
+                UploadDaemon daemon = new UploadDaemon(Paths.get(res.getString("daemon_socket")), runner);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        daemon.close();
+                    } catch (IOException e) {
+                        LOGGER.warn("Cannot remove the daemon socket", e);
+                    }
+                }));
+                daemon.serve();
+                return;
+            }
+            List<UploadJobResult> results = runner.runAll(UploadManifest.read(new File(res.getString("manifest"))));
+            if (res.getString("summary") != null) {
+                UploadJobRunner.writeSummary(results, new File(res.getString("summary")));
+            }
+            if (results.stream().anyMatch(result -> !result.isSucceeded())) {
+                System.exit(1);
             }
-            taos.finish();
-            taos.close();
-            return tarZippedFile;
         } catch (IOException e) {
-            failWithError("IO Exception while trying to tar and zip the file.", e);
-            return null;
+            LOGGER.error(e.getMessage(), e);
+            System.exit(1);
         }
     }
 
     /**
-     * Call the metadata service to get the project's ID
-     *
-     * @param apiKey the API key for the project
-     * @param token the Flurry auth token
-     * @return the project's ID
+     * @param entry a batch entry given as TYPE:UUID:PATH
+     * @return the parsed entry
      */
-    private static String lookUpProjectId(String apiKey, String token) throws IOException {
-        String queryUrl = String.format("%s/project?fields[project]=apiKey&filter[project.apiKey]=%s",
-                    METADATA_BASE, apiKey);
-        JSONObject jsonObject;
-        try (CloseableHttpResponse response = executeHttpRequest(new HttpGet(queryUrl), getMetadataHeaders(token))) {
-            expectStatus(response, HttpURLConnection.HTTP_OK);
-            jsonObject = getJsonFromEntity(response.getEntity());
-            JSONArray jsonArray = jsonObject.getJSONArray("data");
-            if (jsonArray.length() == 0) {
-                failWithError("No projects found for the API Key: " + apiKey);
-            }
-            return jsonArray.getJSONObject(0).get("id").toString();
+    static BatchEntry parseBatchEntry(String entry) {
+        String[] parts = entry.split(":", 3);
+        if (parts.length < 3 || parts[2].isEmpty()) {
+            failWithError("Batch entries are given as TYPE:UUID:PATH, not {}", entry);
         }
+        AndroidUploadType type = parseUploadType(parts[0]);
+        if (type == null) {
+            failWithError("Unknown batch entry type {}, use java or native", parts[0]);
+        }
+        return new BatchEntry(parts[1].isEmpty() ? null : parts[1], parts[2], type);
     }
 
     /**
-     * Get the payload for creating the Upload in the metadata service
-     *
-     * @param zippedFile the archive to upload
-     * @param projectId the project's ID
-     * @return a JSON string to be sent to the metadata service
+     * @param type java or native, in any case
+     * @return the upload type, or null if it is neither
      */
-    private static String getUploadJson(File zippedFile, String projectId, String uploadType) {
-        return getUploadTemplate()
-                    .replace("UPLOAD_TYPE", uploadType)
-                    .replace("UPLOAD_SIZE", Long.toString(zippedFile.length()))
-                    .replace("PROJECT_ID", projectId);
+    static AndroidUploadType parseUploadType(String type) {
+        if ("java".equalsIgnoreCase(type)) {
+            return AndroidUploadType.ANDROID_JAVA;
+        } else if ("native".equalsIgnoreCase(type)) {
+            return AndroidUploadType.ANDROID_NATIVE;
+        }
+        return null;
+    }
+
+    public static void setLogger(Logger logger) {
+        LOGGER = logger;
     }
 
     /**
-     * Convert a HTTP response to JSON
+     * Parses an properties file
      *
-     * @param httpEntity the response body
-     * @return a JSON object
+     * @param filePath the path to the config file
+     * @return a map of the keys and values from the config
      */
-    private static JSONObject getJsonFromEntity(HttpEntity httpEntity) {
+    public static Properties parseConfigFile(String filePath) {
+        Properties config = new Properties();
+        File configFile = new File(filePath);
         try {
-            return new JSONObject(EntityUtils.toString(httpEntity));
+            config.load(new FileInputStream(configFile));
         } catch (IOException e) {
-            failWithError("Cannot read HttpEntity {}", httpEntity, e);
-            return null;
-        } finally {
-            EntityUtils.consumeQuietly(httpEntity);
+            failWithError("Bad config file {}", configFile.getAbsolutePath(), e);
         }
+
+        return config;
     }
 
     /**
-     * Read the template Upload from resources
+     * Tar a ProGuard/Native mapping file and send it to Flurry's crash service
      *
-     * @return a mostly complete JSON string
+     * @param apiKey the API key for the project being built
+     * @param uuid the uuid for this build
+     * @param paths the paths to the ProGuard/Native mapping.txt files
+     * @param token the auth token for API calls
+     * @param timeout the amount of time to wait for the upload to be processed (in ms)
+     * @param androidUploadType type of upload
      */
-    private static String getUploadTemplate() {
-        return "{\"data\": {" +
-                    "\"type\": \"upload\"," +
-                    "\"attributes\":" +
-                        "{\"uploadType\": \"UPLOAD_TYPE\", \"contentLength\": UPLOAD_SIZE}," +
-                    "\"relationships\":" +
-                        "{\"project\":{\"data\":{\"id\":PROJECT_ID,\"type\":\"project\"}}}" +
-                    "}" +
-                "}";
+    public static void uploadFiles(String apiKey, String uuid, List<String> paths, String token, int timeout,
+                                   AndroidUploadType androidUploadType) throws IOException {
+        uploadFiles(apiKey, uuid, paths, token, timeout, androidUploadType, new UploadOptions());
     }
 
     /**
-     * Register this upload with the metadata service
+     * Tar a ProGuard/Native mapping file and send it to Flurry's crash service
      *
-     * @param projectId the id of the project
-     * @param payload the JSON body to send
-     * @param token the Flurry auth token
-     * @return the id of the created upload
+     * @param apiKey the API key for the project being built
+     * @param uuid the uuid for this build
+     * @param paths the paths to the ProGuard/Native mapping.txt files
+     * @param token the auth token for API calls
+     * @param timeout the amount of time to wait for the upload to be processed (in ms)
+     * @param androidUploadType type of upload
+     * @param options optional upload settings
      */
-    private static String createUpload(String projectId, String payload, String token) throws IOException {
-        String postUrl = String.format("%s/project/%s/uploads", METADATA_BASE, projectId);
-        List<Header> requestHeaders = getMetadataHeaders(token);
-        HttpPost postRequest = new HttpPost(postUrl);
-        postRequest.setEntity(new StringEntity(payload, Charset.forName("UTF-8")));
-        try (CloseableHttpResponse response = executeHttpRequest(postRequest, requestHeaders)) {
-            expectStatus(response, HttpURLConnection.HTTP_CREATED);
-            JSONObject jsonObject = getJsonFromEntity(response.getEntity());
-            return jsonObject.getJSONObject("data").get("id").toString();
-        } finally {
-            postRequest.releaseConnection();
-        }
+    public static void uploadFiles(String apiKey, String uuid, List<String> paths, String token, int timeout,
+                                   AndroidUploadType androidUploadType, UploadOptions options) throws IOException {
+        getSharedSession().uploadFiles(apiKey, uuid, paths, token, timeout, androidUploadType, options);
     }
 
     /**
-     * Upload the archive to Flurry
+     * Tar a ProGuard/Native mapping file and send it to Flurry's crash service without blocking the caller
      *
-     * @param file the archive to send
-     * @param projectId the project's id
-     * @param uploadId the the upload's id
-     * @param token the Flurry auth token
+     * @param apiKey the API key for the project being built
+     * @param uuid the uuid for this build
+     * @param paths the paths to the ProGuard/Native mapping.txt files
+     * @param token the auth token for API calls
+     * @param timeout the amount of time to wait for the upload to be processed (in ms)
+     * @param androidUploadType type of upload
+     * @param options optional upload settings
+     * @return a future completed once the upload is processed, cancel it to stop the upload
      */
-    private static void sendToUploadService(File file, String projectId, String uploadId, String token)
-            throws IOException {
-        String uploadServiceUrl = String.format("%s/upload/%s/%s", UPLOAD_BASE, projectId, uploadId);
-        List<Header> requestHeaders = getUploadServiceHeaders(file.length(), token);
-        HttpPost postRequest = new HttpPost(uploadServiceUrl);
-        postRequest.setEntity(new FileEntity(file));
-        try (CloseableHttpResponse response = executeHttpRequest(postRequest, requestHeaders)) {
-            expectStatus(response, HttpURLConnection.HTTP_CREATED, HttpURLConnection.HTTP_ACCEPTED);
-        } finally {
-            postRequest.releaseConnection();
-        }
+    public static CompletableFuture<UploadResult> uploadFilesAsync(String apiKey, String uuid, List<String> paths,
+                                                                   String token, int timeout,
+                                                                   AndroidUploadType androidUploadType,
+                                                                   UploadOptions options) {
+        return getSharedSession().uploadFilesAsync(apiKey, uuid, paths, token, timeout, androidUploadType, options);
     }
 
     /**
-     * Ensure that a response had an expected status
+     * Send the mappings of several builds in one archive and wait for them to be processed
      *
-     * @param response the API response
-     * @param validStatuses the list of acceptable statuses
+     * @param apiKey the API key for the project being built
+     * @param entries the uuid, path and type of each mapping file
+     * @param token the auth token for API calls
+     * @param timeout the amount of time to wait for the uploads to be processed (in ms)
+     * @param options optional upload settings
+     * @return the finished uploads, one per upload type in the batch
      */
-    private static void expectStatus(CloseableHttpResponse response, Integer... validStatuses) {
-        int statusCode = response.getStatusLine().getStatusCode();
-        if (statusCode == HttpURLConnection.HTTP_UNAUTHORIZED) {
-            failWithError("The provided token is expired");
-        }
-        if (!Arrays.asList(validStatuses).contains(statusCode)) {
-            String responseString;
-            try {
-                responseString = "Response Body: " + EntityUtils.toString(response.getEntity());
-            } catch (IOException e) {
-                responseString = "IO Exception while reading the response body.";
-            }
-            failWithError("Request failed: {} {}", statusCode, responseString);
-        }
+    public static List<UploadResult> uploadBatch(String apiKey, List<BatchEntry> entries, String token, int timeout,
+                                                 UploadOptions options) throws IOException {
+        return getSharedSession().uploadBatch(apiKey, entries, token, timeout, options);
     }
 
     /**
-     * Query the metadata service to see if the upload was processed
+     * Run many uploads, eg. every variant of every app of a release, in this JVM so they share its connections
+     * and project lookups. A failed job doesn't stop the others.
      *
-     * @param projectId the project's id
-     * @param uploadId the upload's id
-     * @param token the Flurry auth token
-     * @param maxWaitTime how long to wait for the upload to be processes (in ms)
+     * @param jobs the api key, uuid, path and type of each upload
+     * @param token the auth token for API calls
+     * @param timeout the amount of time to wait for each upload to be processed (in ms)
+     * @param options optional upload settings shared by every job
+     * @param parallelism the most jobs to run at the same time
+     * @return the result of each job, in the order of the jobs
      */
-    private static void waitForUploadToBeProcessed(String projectId, String uploadId, String token, int maxWaitTime)
-            throws IOException {
-        int waitingTime = 0;
-        int maxTimeToWait = Math.max(ONE_MINUTE_IN_MS, maxWaitTime);
-        int multiplier = 1;
-        while (true) {
-            JSONObject upload = fetchUpload(projectId, uploadId, token);
-            String uploadStatus = upload.getJSONObject("data")
-                        .getJSONObject("attributes")
-                        .getString("uploadStatus").toUpperCase();
-            switch (uploadStatus) {
-                case "COMPLETED":
-                    return;
-
-                case "FAILED":
-                    String reason = upload.getJSONObject("data")
-                                .getJSONObject("attributes")
-                                .getString("failureReason");
-                    failWithError("Upload processing failed: {}", reason);
-
-                default:
-                    if (waitingTime < maxTimeToWait) {
-                        multiplier = multiplier + 1;
-                        int sleepTime = THREE_SECONDS_IN_MS * multiplier;
-                        waitingTime += sleepTime;
-                        try {
-                            Thread.sleep(sleepTime);
-                        } catch (InterruptedException e) {
-                            failWithError("Exception while waiting for the upload to be processed", e);
-                        }
-                    } else {
-                        failWithError("Upload not processed after {}s", maxTimeToWait / 1000);
-                    }
-
-            }
-            LOGGER.debug("Upload still not processed after {}s", waitingTime / 1000);
-        }
+    public static List<UploadJobResult> uploadJobs(List<UploadJob> jobs, String token, int timeout,
+                                                   UploadOptions options, int parallelism) {
+        return new UploadJobRunner(getSharedSession(), token, timeout, options, parallelism).runAll(jobs);
     }
 
     /**
-     * Fetch the upload from the metadata service
+     * Check the uploads which were sent with {@link UploadOptions#setVerifyLater(boolean)} until each is processed
      *
-     * @param projectId the project's id
-     * @param uploadId the upload's id
-     * @param token the Flurry auth token
-     * @return the upload
+     * @param apiKey the API key of the project the uploads were sent to
+     * @param token the auth token for API calls
+     * @param timeout the amount of time to wait for the uploads to be processed (in ms)
+     * @param options the pending uploads directory, upload cache and poll settings
      */
-    private static JSONObject fetchUpload(String projectId, String uploadId, String token) throws IOException {
-        String queryUrl = String.format("%s/project/%s/uploads/%s?fields[upload]=uploadStatus,failureReason",
-                    METADATA_BASE, projectId, uploadId);
-        HttpGet getRequest = new HttpGet(queryUrl);
-        List<Header> requestHeaders = getMetadataHeaders(token);
-        try (CloseableHttpResponse response = executeHttpRequest(getRequest, requestHeaders)) {
-            expectStatus(response, HttpURLConnection.HTTP_OK);
-            return getJsonFromEntity(response.getEntity());
-        } finally {
-            getRequest.releaseConnection();
-        }
-    }
-
-    private static CloseableHttpResponse executeHttpRequest(HttpUriRequest request, List<Header> requestHeaders) {
-        for (Header header : requestHeaders) {
-            request.setHeader(header.getName(), header.getValue());
-        }
-        try {
-            return httpClient.execute(request);
-        } catch (IOException e) {
-            failWithError("IO Exception during request: {}", request, e);
-            return null;
-        }
+    public static void verifyPendingUploads(String apiKey, String token, int timeout, UploadOptions options)
+            throws IOException {
+        getSharedSession().verifyPendingUploads(apiKey, token, timeout, options);
     }
 
     /**
-     * Get headers for a JSON API service
+     * The session used by the static upload methods. It is shared by every upload in the JVM so that
+     * concurrent uploads reuse warm connections, and is never closed; idle connections are evicted instead.
      *
-     * @param token the Flurry auth token to use
-     * @return the headers
+     * @return the shared session
      */
-    private static List<Header> getMetadataHeaders(String token) {
-        List<Header> headers = new ArrayList<>();
-        headers.add(new BasicHeader("Authorization", "Bearer " + token));
-        headers.add(new BasicHeader("Accept", "application/vnd.api+json"));
-        headers.add(new BasicHeader("Content-Type", "application/vnd.api+json"));
-        return headers;
+    public static synchronized UploadSession getSharedSession() {
+        if (sharedSession == null) {
+            sharedSession = new UploadSession(metadataBase, uploadBase, UploadSession.DEFAULT_MAX_CONNECTIONS_PER_ROUTE,
+                    UploadSession.DEFAULT_MAX_CONNECTIONS_TOTAL, UploadSession.DEFAULT_KEEP_ALIVE_MS, null);
+        }
+        return sharedSession;
     }
 
     /**
-     * Get headers for the upload service
+     * Send the uploads of the static upload methods somewhere other than Flurry's services, eg. a local stand-in.
+     * Uploads already started on the shared session carry on against the old services.
      *
-     * @param size the size of the payload
-     * @param token the Flurry auth token to use
-     * @return the headers
+     * @param metadataBase the base URL of the metadata service
+     * @param uploadBase the base URL of the upload service
      */
-    private static List<Header> getUploadServiceHeaders(long size, String token) {
-        List<Header> headers = new ArrayList<>();
-        headers.add(new BasicHeader("Content-Type", "application/octet-stream"));
-        headers.add(new BasicHeader("Range", "bytes 0-" + Long.toString(size - 1)));
-        headers.add(new BasicHeader("Authorization", "Bearer " + token));
-        return headers;
+    public static synchronized void setServiceUrls(String metadataBase, String uploadBase) {
+        if (sharedSession != null && (!sharedSession.getMetadataBase().equals(metadataBase)
+                || !sharedSession.getUploadBase().equals(uploadBase))) {
+            sharedSession = null;
+        }
+        UploadMapping.metadataBase = metadataBase;
+        UploadMapping.uploadBase = uploadBase;
     }
 
     /**
@@ -447,7 +454,7 @@ public class UploadMapping {
      * @param format The message format string
      * @param args the extra arguments for the logger
      */
-    private static void failWithError(String format, Object... args) {
+    static void failWithError(String format, Object... args) {
         LOGGER.error(format, args);
         if (EXIT_PROCESS_ON_ERROR) {
             System.exit(1);
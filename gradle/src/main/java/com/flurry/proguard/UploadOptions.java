@@ -0,0 +1,543 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Optional settings for an upload. With the defaults the archive is built in a temp file at the default gzip level
+ * and sent in one request, as the plain
+ * {@link UploadMapping#uploadFiles(String, String, java.util.List, String, int, AndroidUploadType)} call always did.
+ * Failed requests are retried up to 3 times, and the status of a sent upload is checked straight away, then after
+ * 3s growing by 1.5x up to 30s, each wait randomly lengthened or shortened by up to 20%.
+ */
+public class UploadOptions {
+    private boolean streaming = false;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int compressionThreads = 1;
+    private File cacheDir = null;
+    private int cacheTtlHours = 30 * 24;
+    private long chunkSize = 0;
+    private int parallelChunks = 1;
+    private File journalDir = new File(System.getProperty("java.io.tmpdir"), "flurry-upload-journal");
+    private File projectIdCacheFile = null;
+    private int projectIdCacheTtlHours = 24;
+    private long pollIntervalMs = UploadMapping.THREE_SECONDS_IN_MS;
+    private long maxPollIntervalMs = 30000;
+    private double pollBackoff = 1.5;
+    private double pollJitter = 0.2;
+    private boolean verifyLater = false;
+    private File pendingUploadsDir = new File(System.getProperty("java.io.tmpdir"), "flurry-pending-uploads");
+    private boolean minifyMappings = false;
+    private File deltaIndexDir = null;
+    private String deltaVariant = "default";
+    private boolean experimentalDeltaUploads = false;
+    private boolean slimNativeLibraries = false;
+    private UploadListener listener = null;
+    private long maxUploadBytesPerSecond = 0;
+    private int maxRetries = 3;
+    private long retryDelayMs = 500;
+    private long maxRetryDelayMs = 30000;
+    private long hedgeDelayMs = 0;
+    private int maxConcurrentUploads = 0;
+    private File reportFile = null;
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Streaming saves writing the archive to disk at the cost of memory: the archive is compressed once into memory
+     * and held there until it is sent, so retries send the same bytes without compressing again.
+     *
+     * @param streaming compress the archive into memory instead of a temp file
+     * @return these options
+     */
+    public UploadOptions setStreaming(boolean streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * @param compressionLevel the gzip level, 0-9 or -1 for the default
+     * @return these options
+     */
+    public UploadOptions setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between -1 and 9: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    /**
+     * @param compressionThreads the number of threads to compress the archive with, more than 1 writes the
+     *                           archive as a multi-member gzip
+     * @return these options
+     */
+    public UploadOptions setCompressionThreads(int compressionThreads) {
+        if (compressionThreads < 1) {
+            throw new IllegalArgumentException("Compression threads must be at least 1: " + compressionThreads);
+        }
+        this.compressionThreads = compressionThreads;
+        return this;
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * @param cacheDir a directory to record successful uploads in so unchanged files are skipped next time,
+     *                 null disables the cache
+     * @return these options
+     */
+    public UploadOptions setCacheDir(File cacheDir) {
+        this.cacheDir = cacheDir;
+        return this;
+    }
+
+    public int getCacheTtlHours() {
+        return cacheTtlHours;
+    }
+
+    long getCacheTtlMillis() {
+        return TimeUnit.HOURS.toMillis(cacheTtlHours);
+    }
+
+    /**
+     * @param cacheTtlHours how long a recorded upload is trusted before the file is sent again
+     * @return these options
+     */
+    public UploadOptions setCacheTtlHours(int cacheTtlHours) {
+        if (cacheTtlHours < 0) {
+            throw new IllegalArgumentException("Cache TTL must not be negative: " + cacheTtlHours);
+        }
+        this.cacheTtlHours = cacheTtlHours;
+        return this;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @param chunkSize send the archive in ranges of this many bytes and journal them so an interrupted upload
+     *                  can be resumed, 0 sends the archive in a single request
+     * @return these options
+     */
+    public UploadOptions setChunkSize(long chunkSize) {
+        if (chunkSize < 0) {
+            throw new IllegalArgumentException("Chunk size must not be negative: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public int getParallelChunks() {
+        return parallelChunks;
+    }
+
+    /**
+     * @param parallelChunks the number of ranges of a chunked upload to send at the same time
+     * @return these options
+     */
+    public UploadOptions setParallelChunks(int parallelChunks) {
+        if (parallelChunks < 1) {
+            throw new IllegalArgumentException("Parallel chunks must be at least 1: " + parallelChunks);
+        }
+        this.parallelChunks = parallelChunks;
+        return this;
+    }
+
+    public File getJournalDir() {
+        return journalDir;
+    }
+
+    /**
+     * @param journalDir the directory to keep chunked upload progress and archives in
+     * @return these options
+     */
+    public UploadOptions setJournalDir(File journalDir) {
+        this.journalDir = journalDir;
+        return this;
+    }
+
+    public File getProjectIdCacheFile() {
+        return projectIdCacheFile;
+    }
+
+    /**
+     * @param projectIdCacheFile a file to share API key to project id lookups between builds in,
+     *                           null only caches them in memory
+     * @return these options
+     */
+    public UploadOptions setProjectIdCacheFile(File projectIdCacheFile) {
+        this.projectIdCacheFile = projectIdCacheFile;
+        return this;
+    }
+
+    public int getProjectIdCacheTtlHours() {
+        return projectIdCacheTtlHours;
+    }
+
+    long getProjectIdCacheTtlMillis() {
+        return TimeUnit.HOURS.toMillis(projectIdCacheTtlHours);
+    }
+
+    /**
+     * @param projectIdCacheTtlHours how long a project id lookup is trusted, 0 looks the project up every time
+     * @return these options
+     */
+    public UploadOptions setProjectIdCacheTtlHours(int projectIdCacheTtlHours) {
+        if (projectIdCacheTtlHours < 0) {
+            throw new IllegalArgumentException("Project id cache TTL must not be negative: " + projectIdCacheTtlHours);
+        }
+        this.projectIdCacheTtlHours = projectIdCacheTtlHours;
+        return this;
+    }
+
+    public long getPollIntervalMs() {
+        return pollIntervalMs;
+    }
+
+    /**
+     * @param pollIntervalMs how long to wait before checking a sent upload's status again (in ms)
+     * @return these options
+     */
+    public UploadOptions setPollIntervalMs(long pollIntervalMs) {
+        if (pollIntervalMs < 1) {
+            throw new IllegalArgumentException("Poll interval must be at least 1ms: " + pollIntervalMs);
+        }
+        this.pollIntervalMs = pollIntervalMs;
+        return this;
+    }
+
+    public long getMaxPollIntervalMs() {
+        return maxPollIntervalMs;
+    }
+
+    /**
+     * @param maxPollIntervalMs the longest the poll interval grows to (in ms)
+     * @return these options
+     */
+    public UploadOptions setMaxPollIntervalMs(long maxPollIntervalMs) {
+        if (maxPollIntervalMs < 1) {
+            throw new IllegalArgumentException("Max poll interval must be at least 1ms: " + maxPollIntervalMs);
+        }
+        this.maxPollIntervalMs = maxPollIntervalMs;
+        return this;
+    }
+
+    public double getPollBackoff() {
+        return pollBackoff;
+    }
+
+    /**
+     * @param pollBackoff what the poll interval is multiplied by after each check, 1 keeps it constant
+     * @return these options
+     */
+    public UploadOptions setPollBackoff(double pollBackoff) {
+        if (!(pollBackoff >= 1)) {
+            throw new IllegalArgumentException("Poll backoff must be at least 1: " + pollBackoff);
+        }
+        this.pollBackoff = pollBackoff;
+        return this;
+    }
+
+    public double getPollJitter() {
+        return pollJitter;
+    }
+
+    /**
+     * @param pollJitter the fraction (0-1) each poll interval is randomly lengthened or shortened by, so
+     *                   uploads from many builds don't check at the same moment
+     * @return these options
+     */
+    public UploadOptions setPollJitter(double pollJitter) {
+        if (!(pollJitter >= 0 && pollJitter <= 1)) {
+            throw new IllegalArgumentException("Poll jitter must be between 0 and 1: " + pollJitter);
+        }
+        this.pollJitter = pollJitter;
+        return this;
+    }
+
+    public boolean isVerifyLater() {
+        return verifyLater;
+    }
+
+    /**
+     * @param verifyLater finish once the archive is sent and record the upload in the pending uploads directory,
+     *                    instead of waiting for it to be processed
+     * @return these options
+     */
+    public UploadOptions setVerifyLater(boolean verifyLater) {
+        this.verifyLater = verifyLater;
+        return this;
+    }
+
+    public File getPendingUploadsDir() {
+        return pendingUploadsDir;
+    }
+
+    /**
+     * @param pendingUploadsDir the directory to record uploads which still need to be verified in
+     * @return these options
+     */
+    public UploadOptions setPendingUploadsDir(File pendingUploadsDir) {
+        this.pendingUploadsDir = pendingUploadsDir;
+        return this;
+    }
+
+    public boolean isMinifyMappings() {
+        return minifyMappings;
+    }
+
+    /**
+     * @param minifyMappings leave the entries retrace doesn't need, like classes and members which kept their
+     *                       names, out of uploaded ProGuard mappings
+     * @return these options
+     */
+    public UploadOptions setMinifyMappings(boolean minifyMappings) {
+        this.minifyMappings = minifyMappings;
+        return this;
+    }
+
+    public File getDeltaIndexDir() {
+        return deltaIndexDir;
+    }
+
+    /**
+     * @param deltaIndexDir a directory to fingerprint uploaded ProGuard mappings in, so later builds only send the
+     *                      classes which changed. Null always sends the full mapping. Deltas are only sent with
+     *                      {@link #setExperimentalDeltaUploads(boolean)} to a metadata service other than Flurry's,
+     *                      which would store a delta as the build's whole mapping.
+     * @return these options
+     */
+    public UploadOptions setDeltaIndexDir(File deltaIndexDir) {
+        this.deltaIndexDir = deltaIndexDir;
+        return this;
+    }
+
+    public String getDeltaVariant() {
+        return deltaVariant;
+    }
+
+    /**
+     * @param deltaVariant the build variant of the mapping, deltas are only made against the same variant
+     * @return these options
+     */
+    public UploadOptions setDeltaVariant(String deltaVariant) {
+        if (deltaVariant == null || deltaVariant.isEmpty()) {
+            throw new IllegalArgumentException("Delta variant must not be empty");
+        }
+        this.deltaVariant = deltaVariant;
+        return this;
+    }
+
+    public boolean isExperimentalDeltaUploads() {
+        return experimentalDeltaUploads;
+    }
+
+    /**
+     * @param experimentalDeltaUploads send deltas against the {@link #setDeltaIndexDir(File) delta index}. Flurry's
+     *                                 own metadata service never gets a delta, as it would lose every class left out.
+     * @return these options
+     */
+    public UploadOptions setExperimentalDeltaUploads(boolean experimentalDeltaUploads) {
+        this.experimentalDeltaUploads = experimentalDeltaUploads;
+        return this;
+    }
+
+    public boolean isSlimNativeLibraries() {
+        return slimNativeLibraries;
+    }
+
+    /**
+     * @param slimNativeLibraries upload copies of native libraries with only their symbol tables, debug sections
+     *                            and build id, leaving out code and data
+     * @return these options
+     */
+    public UploadOptions setSlimNativeLibraries(boolean slimNativeLibraries) {
+        this.slimNativeLibraries = slimNativeLibraries;
+        return this;
+    }
+
+    public UploadListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @param listener receives the timings and sizes of each upload, or null
+     * @return these options
+     */
+    public UploadOptions setListener(UploadListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public File getReportFile() {
+        return reportFile;
+    }
+
+    /**
+     * @param reportFile a file to write a JSON report of each upload's timings and sizes to once it finishes,
+     *                   or null for no report
+     * @return these options
+     */
+    public UploadOptions setReportFile(File reportFile) {
+        this.reportFile = reportFile;
+        return this;
+    }
+
+    public long getMaxUploadBytesPerSecond() {
+        return maxUploadBytesPerSecond;
+    }
+
+    /**
+     * @param maxUploadBytesPerSecond the most bytes per second to send, shared by every limited upload in the JVM,
+     *                                which all send at the lowest limit among them, or 0 for no limit
+     * @return these options
+     */
+    public UploadOptions setMaxUploadBytesPerSecond(long maxUploadBytesPerSecond) {
+        if (maxUploadBytesPerSecond < 0) {
+            throw new IllegalArgumentException("Upload bandwidth limit must not be negative: "
+                    + maxUploadBytesPerSecond);
+        }
+        this.maxUploadBytesPerSecond = maxUploadBytesPerSecond;
+        return this;
+    }
+
+    public int getMaxConcurrentUploads() {
+        return maxConcurrentUploads;
+    }
+
+    /**
+     * @param maxConcurrentUploads the most archives to send at the same time across the JVM, or 0 for no limit.
+     *                             Uploads over the limit wait for a slot once their archive is ready. When uploads
+     *                             with different limits are waiting or being sent, the lowest limit applies.
+     * @return these options
+     */
+    public UploadOptions setMaxConcurrentUploads(int maxConcurrentUploads) {
+        if (maxConcurrentUploads < 0) {
+            throw new IllegalArgumentException("Concurrent upload limit must not be negative: "
+                    + maxConcurrentUploads);
+        }
+        this.maxConcurrentUploads = maxConcurrentUploads;
+        return this;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param maxRetries how many times a request which failed with a connection error, a 429 or a 5xx is sent
+     *                   again, 0 to fail straight away. Registering an upload is only retried when the service
+     *                   cannot have acted on it.
+     * @return these options
+     */
+    public UploadOptions setMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("Retries must not be negative: " + maxRetries);
+        }
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    public long getRetryDelayMs() {
+        return retryDelayMs;
+    }
+
+    /**
+     * @param retryDelayMs how long to wait before the first retry (in ms), later retries wait twice as long as
+     *                     the one before, less up to half at random
+     * @return these options
+     */
+    public UploadOptions setRetryDelayMs(long retryDelayMs) {
+        if (retryDelayMs < 1) {
+            throw new IllegalArgumentException("Retry delay must be at least 1ms: " + retryDelayMs);
+        }
+        this.retryDelayMs = retryDelayMs;
+        return this;
+    }
+
+    public long getMaxRetryDelayMs() {
+        return maxRetryDelayMs;
+    }
+
+    /**
+     * @param maxRetryDelayMs the longest to wait before a retry (in ms), including waits asked for with Retry-After
+     * @return these options
+     */
+    public UploadOptions setMaxRetryDelayMs(long maxRetryDelayMs) {
+        if (maxRetryDelayMs < 1) {
+            throw new IllegalArgumentException("Max retry delay must be at least 1ms: " + maxRetryDelayMs);
+        }
+        this.maxRetryDelayMs = maxRetryDelayMs;
+        return this;
+    }
+
+    public long getHedgeDelayMs() {
+        return hedgeDelayMs;
+    }
+
+    /**
+     * @param hedgeDelayMs send a second copy of a project lookup or status check which hasn't been answered after
+     *                     this long (in ms) and take whichever answer comes first, or 0 to never send a copy
+     * @return these options
+     */
+    public UploadOptions setHedgeDelayMs(long hedgeDelayMs) {
+        if (hedgeDelayMs < 0) {
+            throw new IllegalArgumentException("Hedge delay must not be negative: " + hedgeDelayMs);
+        }
+        this.hedgeDelayMs = hedgeDelayMs;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "UploadOptions{" +
+                "streaming=" + streaming +
+                ", compressionLevel=" + compressionLevel +
+                ", compressionThreads=" + compressionThreads +
+                ", cacheDir=" + cacheDir +
+                ", cacheTtlHours=" + cacheTtlHours +
+                ", chunkSize=" + chunkSize +
+                ", parallelChunks=" + parallelChunks +
+                ", journalDir=" + journalDir +
+                ", projectIdCacheFile=" + projectIdCacheFile +
+                ", projectIdCacheTtlHours=" + projectIdCacheTtlHours +
+                ", pollIntervalMs=" + pollIntervalMs +
+                ", maxPollIntervalMs=" + maxPollIntervalMs +
+                ", pollBackoff=" + pollBackoff +
+                ", pollJitter=" + pollJitter +
+                ", verifyLater=" + verifyLater +
+                ", pendingUploadsDir=" + pendingUploadsDir +
+                ", minifyMappings=" + minifyMappings +
+                ", deltaIndexDir=" + deltaIndexDir +
+                ", deltaVariant='" + deltaVariant + '\'' +
+                ", experimentalDeltaUploads=" + experimentalDeltaUploads +
+                ", slimNativeLibraries=" + slimNativeLibraries +
+                ", listener=" + listener +
+                ", reportFile=" + reportFile +
+                ", maxUploadBytesPerSecond=" + maxUploadBytesPerSecond +
+                ", maxConcurrentUploads=" + maxConcurrentUploads +
+                ", maxRetries=" + maxRetries +
+                ", retryDelayMs=" + retryDelayMs +
+                ", maxRetryDelayMs=" + maxRetryDelayMs +
+                ", hedgeDelayMs=" + hedgeDelayMs +
+                '}';
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+/**
+ * The steps of an upload, in the order they finish
+ */
+public enum UploadPhase {
+    /** Checking the files and dropping those already uploaded */
+    SELECT_FILES("selectFiles"),
+    /** Minifying, slimming and compressing the files into the archive */
+    PREPARE_ARCHIVE("prepareArchive"),
+    /** Finding the project of the API key, in parallel with the archive */
+    LOOK_UP_PROJECT("lookUpProject"),
+    /** Registering the upload with the metadata service */
+    CREATE_UPLOAD("createUpload"),
+    /** Sending the archive to the upload service */
+    SEND("send"),
+    /** Waiting for the crash service to process the archive */
+    PROCESSING("processing")
+    ;
+
+    private final String reportName;
+
+    UploadPhase(String reportName) {
+        this.reportName = reportName;
+    }
+
+    /**
+     * @return the phase's name in upload reports
+     */
+    public String getReportName() {
+        return reportName;
+    }
+}
@@ -0,0 +1,601 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.FileEntity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import static com.flurry.proguard.UploadMapping.LOGGER;
+import static com.flurry.proguard.UploadMapping.ONE_MINUTE_IN_MS;
+import static com.flurry.proguard.UploadMapping.failWithError;
+
+/**
+ * The phases of a single upload: the files are selected, the archive is built while the project is looked up,
+ * then the upload is registered, sent and waited on until it is processed.
+ */
+class UploadPipeline {
+    private final UploadSession session;
+    private final String apiKey;
+    private final String uuid;
+    private final List<BatchEntry> entries;
+    private final boolean batch;
+    private final String token;
+    private final int timeout;
+    private final AndroidUploadType androidUploadType;
+    private final UploadOptions options;
+    private final Consumer<UploadResult> onSent;
+    private final File reportFile;
+    private final UploadReport report;
+    private final UploadListener listener;
+    private final CompletableFuture<UploadResult> result = new CompletableFuture<>();
+    private final List<String> cacheKeys = new ArrayList<>();
+    private final ProjectIdCache projectIds;
+
+    private UploadCache cache;
+    private UploadJournal journal;
+    private volatile File zippedFile;
+    private final List<File> temporaryFiles = new CopyOnWriteArrayList<>();
+    private volatile CompletableFuture<Void> processing;
+    private volatile MappingDelta.Index deltaIndex;
+    private volatile List<BatchEntry> selected;
+
+    /**
+     * @param session sends the upload's requests
+     * @param uuid the uuid of a single build, or null for a batch
+     * @param entries the files to upload, all of the same type
+     * @param batch true to name the archive's entries after each entry's uuid and add a manifest
+     * @param onSent called once the archive is sent, or null
+     * @param reportFile where to write the upload's report, or null
+     */
+    UploadPipeline(UploadSession session, String apiKey, String uuid, List<BatchEntry> entries, boolean batch,
+                   String token, int timeout, AndroidUploadType androidUploadType, UploadOptions options,
+                   Consumer<UploadResult> onSent, File reportFile) {
+        this.session = session;
+        this.apiKey = apiKey;
+        this.uuid = uuid;
+        this.entries = entries;
+        this.batch = batch;
+        this.token = token;
+        this.timeout = timeout;
+        this.androidUploadType = androidUploadType;
+        this.options = options;
+        this.onSent = onSent;
+        this.reportFile = reportFile;
+        this.report = reportFile != null ? new UploadReport(androidUploadType) : null;
+        this.listener = new UploadListeners(options.getListener(), report);
+        this.projectIds = new ProjectIdCache(options.getProjectIdCacheFile(),
+                options.getProjectIdCacheTtlMillis());
+    }
+
+    CompletableFuture<UploadResult> start() {
+        session.async(() -> timed(UploadPhase.SELECT_FILES, this::selectFiles))
+                .thenCompose(files -> files.isEmpty()
+                        ? CompletableFuture.completedFuture(UploadResult.skipped(androidUploadType))
+                        : upload(files))
+                .whenComplete((upload, error) -> {
+                    if (zippedFile != null) {
+                        temporaryFiles.add(zippedFile);
+                    }
+                    for (File file : temporaryFiles) {
+                        if (!file.delete()) {
+                            file.deleteOnExit();
+                        }
+                    }
+                    Throwable failure = error instanceof CompletionException ? error.getCause() : error;
+                    listener.uploadFinished(upload, failure);
+                    writeReport();
+                    if (failure != null) {
+                        result.completeExceptionally(failure);
+                    } else {
+                        result.complete(upload);
+                    }
+                });
+        result.whenComplete((upload, error) -> stopPolling());
+        return result;
+    }
+
+    /**
+     * Run one phase of the upload, telling the listeners how long it took
+     */
+    private <T> T timed(UploadPhase phase, UploadSession.IOSupplier<T> work) throws IOException {
+        long start = System.nanoTime();
+        Throwable failure = null;
+        try {
+            return work.get();
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            listener.phaseCompleted(phase, System.nanoTime() - start, failure);
+        }
+    }
+
+    private void writeReport() {
+        if (report == null) {
+            return;
+        }
+        try {
+            report.write(reportFile);
+            LOGGER.info("Wrote upload report to {}", reportFile);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot write the upload report {}", reportFile, e);
+        }
+    }
+
+    /**
+     * Validate the request and drop files which were already uploaded
+     *
+     * @return the files to upload, empty if there is nothing to send
+     */
+    private List<File> selectFiles() {
+        entries.forEach(entry -> {
+            if (new File(entry.getPath()).isDirectory()) {
+                failWithError("{} is a directory. Please provide the path to "
+                        + androidUploadType.getDisplayName() + " mapping file " + entry.getPath());
+            }
+        });
+
+        if (apiKey == null) {
+            failWithError("No API key provided");
+        }
+        if (androidUploadType == AndroidUploadType.ANDROID_JAVA
+                && (batch ? entries.stream().anyMatch(entry -> entry.getUuid() == null) : uuid == null)) {
+            failWithError("No UUID provided");
+        }
+        if (token == null) {
+            failWithError("No token provided");
+        }
+
+        cache = UploadSession.openCache(options, apiKey);
+        selected = cache == null ? entries : skipUploadedFiles(cache, entries, cacheKeys);
+        if (cache != null && selected.isEmpty()) {
+            LOGGER.info("All " + androidUploadType.getDisplayName() + " files were already uploaded, skipping");
+        }
+        List<File> files = new ArrayList<>();
+        selected.forEach(entry -> files.add(new File(entry.getPath())));
+        return files;
+    }
+
+    /**
+     * @return what the journal of a chunked upload is named after besides the files
+     */
+    private String journalKey() {
+        if (!batch) {
+            return uuid;
+        }
+        StringBuilder key = new StringBuilder("batch");
+        selected.forEach(entry -> key.append(',').append(entry.getUuid()));
+        return key.toString();
+    }
+
+    /**
+     * Build the archive while the project is looked up, then register and send the upload
+     */
+    private CompletableFuture<UploadResult> upload(List<File> files) {
+        if (options.getChunkSize() > 0) {
+            journal = openJournal(options, apiKey, journalKey(), androidUploadType, files);
+            if (journal.canResume()) {
+                LOGGER.info("Resuming upload with ID: {}", journal.getUploadId());
+                PreparedArchive prepared = new PreparedArchive(null, journal.getArchiveFile().length());
+                listener.archivePrepared(files.size(), totalLength(files), prepared.size);
+                return inSendSlot(() -> session.async(
+                        () -> transfer(journal.getProjectId(), journal.getUploadId(), prepared, files)))
+                        .thenCompose(this::awaitProcessing);
+            }
+        }
+
+        CompletableFuture<PreparedArchive> preparedArchive = session.async(() -> {
+            PreparedArchive prepared = timed(UploadPhase.PREPARE_ARCHIVE, () -> prepareArchive(files));
+            listener.archivePrepared(files.size(), totalLength(files), prepared.size);
+            return prepared;
+        });
+        CompletableFuture<String> projectId = session.async(() -> {
+            String id = timed(UploadPhase.LOOK_UP_PROJECT,
+                    () -> session.findProjectId(apiKey, token, projectIds, options, listener));
+            LOGGER.info("Found project {} for api key {}", id, apiKey);
+            return id;
+        });
+        return preparedArchive.thenCombine(projectId, PreparedUpload::new)
+                .thenCompose(prepared -> inSendSlot(() -> session.async(() -> register(prepared, files))))
+                .thenCompose(this::awaitProcessing);
+    }
+
+    /**
+     * Register and send the upload once fewer than the JVM's limit of uploads are being sent. Every upload goes
+     * through the one send queue, which sends at most the lowest limit of the uploads waiting or being sent.
+     */
+    private CompletableFuture<UploadResult> inSendSlot(Supplier<CompletableFuture<UploadResult>> send) {
+        UploadQueue slots = UploadQueue.shared();
+        CompletableFuture<UploadResult> sent = slots.submit(options.getMaxConcurrentUploads(), send);
+        int waiting = slots.getWaiting();
+        if (waiting > 0) {
+            LOGGER.info("{} uploads are waiting to be sent, at most {} are sent at a time", waiting,
+                    slots.getLimit());
+        }
+        return sent;
+    }
+
+    private long totalLength(List<File> files) {
+        long length = 0;
+        for (File file : files) {
+            length += file.length();
+        }
+        return length;
+    }
+
+    private PreparedArchive prepareArchive(List<File> files) throws IOException {
+        checkCancelled();
+        List<File> archived = files;
+        if (options.isMinifyMappings() && androidUploadType == AndroidUploadType.ANDROID_JAVA) {
+            archived = minifyMappings(files);
+        }
+        if (options.isSlimNativeLibraries() && androidUploadType == AndroidUploadType.ANDROID_NATIVE) {
+            archived = slimLibraries(files);
+        }
+        if (options.getDeltaIndexDir() != null && androidUploadType == AndroidUploadType.ANDROID_JAVA
+                && archived.size() == 1 && !batch) {
+            if (sendsDeltas(options, session.getMetadataBase())) {
+                archived = Collections.singletonList(deltaOf(archived.get(0)));
+            } else {
+                LOGGER.warn("Flurry's crash service stores a delta as the build's whole mapping, uploading the "
+                        + "full mapping. Deltas need experimental delta uploads and a service which accepts them.");
+            }
+        }
+        MappingArchive archive = batch
+                ? MappingArchive.forBatch(archived, selected, options.getCompressionLevel(),
+                        options.getCompressionThreads())
+                : new MappingArchive(archived, uuid, options.getCompressionLevel(),
+                        options.getCompressionThreads());
+        if (journal != null) {
+            return new PreparedArchive(null, UploadSession.createArchive(archive, journal.getArchiveFile()).length());
+        } else if (options.isStreaming()) {
+            byte[] compressed = compressInMemory(archive);
+            LOGGER.info("Streaming {} byte archive", compressed.length);
+            return new PreparedArchive(new ByteArrayEntity(compressed, ContentType.APPLICATION_OCTET_STREAM),
+                    compressed.length);
+        }
+        zippedFile = UploadSession.createArchive(archive, null);
+        return new PreparedArchive(new FileEntity(zippedFile), zippedFile.length());
+    }
+
+    /**
+     * Write a copy of each mapping without the entries retrace doesn't need
+     *
+     * @return the minified copies, deleted once the upload finishes
+     */
+    private List<File> minifyMappings(List<File> files) throws IOException {
+        List<File> minified = new ArrayList<>();
+        for (File file : files) {
+            File copy = File.createTempFile("minified-mapping", ".txt");
+            temporaryFiles.add(copy);
+            MappingMinifier minifier = new MappingMinifier();
+            minifier.minify(file, copy);
+            LOGGER.info("Minified {} from {} to {} bytes, saving {} bytes ({} of {} lines removed)",
+                    file.getName(), file.length(), copy.length(), file.length() - copy.length(),
+                    minifier.getLinesRead() - minifier.getLinesWritten(), minifier.getLinesRead());
+            minified.add(copy);
+        }
+        return minified;
+    }
+
+    /**
+     * Write a copy of each shared object with only the sections symbolication needs
+     *
+     * @return the slim copies, or the original files where slimming didn't help
+     */
+    private List<File> slimLibraries(List<File> files) throws IOException {
+        List<File> slimmed = new ArrayList<>();
+        long originalSize = 0;
+        long slimSize = 0;
+        for (File file : files) {
+            File slim = null;
+            if (ElfFile.isElf(file)) {
+                slim = File.createTempFile("slim-", ".so");
+                temporaryFiles.add(slim);
+                try {
+                    long size = ElfSlimmer.slim(file, slim);
+                    if (size < 0 || size >= file.length()) {
+                        slim = null;
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn("Cannot slim {}, uploading it as is: {}", file.getName(), e.getMessage());
+                    slim = null;
+                }
+            }
+            originalSize += file.length();
+            slimSize += slim != null ? slim.length() : file.length();
+            slimmed.add(slim != null ? slim : file);
+        }
+        LOGGER.info("Slimmed native libraries from {} to {} bytes", originalSize, slimSize);
+        return slimmed;
+    }
+
+    /**
+     * Deltas are only sent when asked for explicitly, and never to Flurry's own metadata service, which has no way
+     * to rebuild the full mapping from one
+     *
+     * @param options the upload options
+     * @param metadataBase the base URL of the metadata service the upload goes to
+     * @return true to send the classes which changed instead of the full mapping
+     */
+    static boolean sendsDeltas(UploadOptions options, String metadataBase) {
+        return options.isExperimentalDeltaUploads() && !UploadSession.DEFAULT_METADATA_BASE.equals(metadataBase);
+    }
+
+    /**
+     * Write the classes which changed since the last upload of this app, if it's worth it
+     *
+     * @return the delta, or the mapping itself if it should be sent in full
+     */
+    private File deltaOf(File mapping) throws IOException {
+        File indexFile = deltaIndexFile();
+        MappingDelta.Index base = null;
+        try {
+            base = MappingDelta.Index.load(indexFile);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot read the delta index {}, uploading the full mapping", indexFile, e);
+        }
+        if (base == null) {
+            deltaIndex = MappingDelta.fingerprint(mapping);
+            return mapping;
+        }
+
+        File delta = File.createTempFile("mapping-delta", ".txt");
+        temporaryFiles.add(delta);
+        MappingDelta.Result result = MappingDelta.write(mapping, base, delta);
+        deltaIndex = result.index;
+        if (!result.isWorthwhile()) {
+            LOGGER.info("{} of {} classes changed since upload {}, uploading the full mapping",
+                    result.changed + result.removed, result.classes, base.uploadId);
+            return mapping;
+        }
+        LOGGER.info("Uploading {} changed and {} removed of {} classes against upload {}, {} instead of {} bytes",
+                result.changed, result.removed, result.classes, base.uploadId, delta.length(), mapping.length());
+        return delta;
+    }
+
+    private File deltaIndexFile() {
+        return new File(options.getDeltaIndexDir(),
+                "delta-" + UploadCache.sha256(apiKey + "\n" + options.getDeltaVariant()) + ".idx");
+    }
+
+    /**
+     * Make the processed upload the base of the next delta
+     */
+    private void recordDeltaIndex(UploadResult upload) {
+        if (deltaIndex == null) {
+            return;
+        }
+        File indexFile = deltaIndexFile();
+        try {
+            File directory = indexFile.getAbsoluteFile().getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            deltaIndex.forUpload(upload.getUploadId(), uuid).store(indexFile);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot update the delta index {}", indexFile, e);
+        }
+    }
+
+    private UploadResult register(PreparedUpload prepared, List<File> files) throws IOException {
+        checkCancelled();
+        String payload = UploadSession.getUploadJson(prepared.archive.size, prepared.projectId,
+                androidUploadType.getUploadType());
+        String uploadId = timed(UploadPhase.CREATE_UPLOAD,
+                () -> session.createUpload(apiKey, prepared.projectId, payload, token, projectIds, options, listener));
+        LOGGER.info("Created upload with ID: {}", uploadId);
+        if (journal != null) {
+            journal.start(prepared.projectId, uploadId, options.getChunkSize());
+        }
+        return transfer(prepared.projectId, uploadId, prepared.archive, files);
+    }
+
+    private UploadResult transfer(String projectId, String uploadId, PreparedArchive archive, List<File> files)
+            throws IOException {
+        checkCancelled();
+        long start = System.nanoTime();
+        long limit = options.getMaxUploadBytesPerSecond();
+        BandwidthLimiter limiter = limit > 0 ? BandwidthLimiter.shared() : null;
+        TransferProgress progress = new TransferProgress(archive.size, listener);
+        UnaryOperator<HttpEntity> throttle = entity -> new ThrottledEntity(entity, limiter, progress);
+        if (limiter != null) {
+            limiter.addLimit(limit);
+        }
+        try {
+            timed(UploadPhase.SEND, () -> {
+                if (journal != null) {
+                    session.sendChunksToUploadService(journal, options, listener, throttle, apiKey, projectId, uploadId,
+                            token, projectIds);
+                } else {
+                    session.sendToUploadService(throttle.apply(archive.entity), archive.size, apiKey, projectId,
+                            uploadId, token, projectIds, options, listener);
+                }
+                return null;
+            });
+        } finally {
+            if (limiter != null) {
+                limiter.removeLimit(limit);
+            }
+        }
+        progress.finish();
+        listener.archiveSent(progress.getSentBytes(), System.nanoTime() - start);
+        LOGGER.info(androidUploadType.getDisplayName() + " mapping uploaded to Flurry");
+        if (journal != null) {
+            journal.delete();
+        }
+        return new UploadResult(androidUploadType, projectId, uploadId, archive.size, files.size(), false);
+    }
+
+    /**
+     * Wait on the shared poller for the upload to be processed, or record it to be verified later
+     */
+    private CompletableFuture<UploadResult> awaitProcessing(UploadResult sent) {
+        checkCancelled();
+        if (onSent != null) {
+            onSent.accept(sent);
+        }
+        if (options.isVerifyLater()) {
+            try {
+                new PendingUploads(options.getPendingUploadsDir(), apiKey).add(sent, cacheKeys);
+            } catch (IOException e) {
+                failWithError("Cannot record the pending upload {}", sent.getUploadId(), e);
+            }
+            LOGGER.info("Upload {} will be verified later", sent.getUploadId());
+            return CompletableFuture.completedFuture(sent);
+        }
+
+        long start = System.nanoTime();
+        processing = session.getPoller().watch(sent.getProjectId(), sent.getUploadId(), token,
+                Math.max(ONE_MINUTE_IN_MS, timeout), options, listener);
+        if (result.isDone()) {
+            stopPolling();
+        }
+        return processing.handle((ignored, error) -> {
+            listener.phaseCompleted(UploadPhase.PROCESSING, System.nanoTime() - start, error);
+            if (error != null) {
+                failProcessing(error);
+            }
+            LOGGER.info("Upload completed successfully!");
+            UploadSession.recordUploads(cache, cacheKeys);
+            recordDeltaIndex(sent);
+            return sent.asProcessed();
+        });
+    }
+
+    private void stopPolling() {
+        CompletableFuture<Void> poll = processing;
+        if (poll != null && result.isCancelled()) {
+            poll.cancel(false);
+        }
+    }
+
+    private void checkCancelled() {
+        if (result.isCancelled()) {
+            throw new CancellationException("Upload cancelled");
+        }
+    }
+
+    /**
+     * An archive ready to be sent, the entity is null for chunked uploads
+     */
+    private static class PreparedArchive {
+        private final HttpEntity entity;
+        private final long size;
+
+        PreparedArchive(HttpEntity entity, long size) {
+            this.entity = entity;
+            this.size = size;
+        }
+    }
+
+    private static class PreparedUpload {
+        private final PreparedArchive archive;
+        private final String projectId;
+
+        PreparedUpload(PreparedArchive archive, String projectId) {
+            this.archive = archive;
+            this.projectId = projectId;
+        }
+    }
+
+    /**
+     * Remove files which were already uploaded from the list
+     *
+     * @param cache the upload cache
+     * @param entries the files to upload
+     * @param cacheKeys filled with the cache keys of the files which still need uploading
+     * @return the entries which still need uploading
+     */
+    private static List<BatchEntry> skipUploadedFiles(UploadCache cache, List<BatchEntry> entries,
+                                                      List<String> cacheKeys) {
+        List<BatchEntry> remaining = new ArrayList<>();
+        for (BatchEntry entry : entries) {
+            File file = new File(entry.getPath());
+            try {
+                String key = cache.cacheKey(file, entry.getUuid(), entry.getUploadType());
+                if (cache.isUploaded(key)) {
+                    LOGGER.info("Skipping {}, it was already uploaded", file.getName());
+                    continue;
+                }
+                cacheKeys.add(key);
+            } catch (IOException e) {
+                LOGGER.warn("Cannot hash {}, uploading it", file.getName(), e);
+            }
+            remaining.add(entry);
+        }
+        return remaining;
+    }
+
+    /**
+     * Open the journal for a chunked upload
+     *
+     * @param options the upload options
+     * @param apiKey the API key for the project
+     * @param uuid the uuid for this build
+     * @param androidUploadType type of upload
+     * @param files the files being uploaded
+     * @return the journal
+     */
+    private static UploadJournal openJournal(UploadOptions options, String apiKey, String uuid,
+                                             AndroidUploadType androidUploadType, List<File> files) {
+        try {
+            return UploadJournal.open(options.getJournalDir(), apiKey, uuid, androidUploadType, files,
+                    options.getChunkSize());
+        } catch (IOException e) {
+            failWithError("Cannot open the upload journal in {}", options.getJournalDir(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Compress the archive once into memory, so its size is known for the request and every send reuses the bytes
+     *
+     * @param archive the mapping files to archive
+     * @return the tar-gzipped archive
+     */
+    private static byte[] compressInMemory(MappingArchive archive) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            archive.writeTo(out);
+        } catch (IOException e) {
+            failWithError("IO Exception while trying to tar and zip the file.", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Turn a failed wait for processing into the client's usual error
+     */
+    private static void failProcessing(Throwable error) {
+        if (error instanceof CancellationException) {
+            throw (CancellationException) error;
+        } else if (error instanceof UploadPoller.ProcessingFailedException || error instanceof TimeoutException) {
+            failWithError(error.getMessage());
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof IOException) {
+            throw new UncheckedIOException((IOException) error);
+        }
+        throw new CompletionException(error);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.flurry.proguard.UploadMapping.LOGGER;
+
+/**
+ * Waits for uploads to be processed without holding a thread per upload. A single scheduler thread keeps the
+ * timers of every pending upload and the status checks themselves run on the session's executor.
+ */
+class UploadPoller implements Closeable {
+    /**
+     * Fetches an upload from the metadata service
+     */
+    interface StatusFetcher {
+        JSONObject fetch(String projectId, String uploadId, String token, UploadOptions options,
+                         UploadListener listener) throws IOException;
+    }
+
+    /**
+     * The crash service reported that it could not process an upload
+     */
+    static class ProcessingFailedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        ProcessingFailedException(String message) {
+            super(message);
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+    private final StatusFetcher fetcher;
+
+    /**
+     * @param executor runs the status checks
+     * @param fetcher fetches the upload's status
+     */
+    UploadPoller(Executor executor, StatusFetcher fetcher) {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "flurry-upload-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor = executor;
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Check an upload's status until it is processed. The first check is made straight away, later ones back off
+     * from the options' poll interval up to its maximum.
+     *
+     * @param projectId the project's id
+     * @param uploadId the upload's id
+     * @param token the auth token for API calls
+     * @param maxWaitMs how long to wait for the upload to be processed (in ms)
+     * @param options the poll interval, backoff and jitter
+     * @param listener told about each check, or null
+     * @return a future completed once the upload is processed, cancel it to stop polling. It fails with a
+     *         {@link ProcessingFailedException} if processing failed or a {@link TimeoutException} if the upload
+     *         isn't processed in time.
+     */
+    CompletableFuture<Void> watch(String projectId, String uploadId, String token, long maxWaitMs,
+                                  UploadOptions options, UploadListener listener) {
+        Watch watch = new Watch(projectId, uploadId, token, maxWaitMs, options,
+                listener != null ? listener : new UploadListener() { });
+        watch.schedule(0);
+        return watch.processed;
+    }
+
+    /**
+     * @param options the poll settings
+     * @param attempt the number of checks made so far, starting at 1
+     * @return how long to wait before the next check (in ms)
+     */
+    static long nextDelay(UploadOptions options, int attempt) {
+        double delay = Math.min(options.getMaxPollIntervalMs(),
+                options.getPollIntervalMs() * Math.pow(options.getPollBackoff(), attempt - 1));
+        double jitter = options.getPollJitter() * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Math.max(0, Math.round(delay * (1 + jitter)));
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private class Watch {
+        private final String projectId;
+        private final String uploadId;
+        private final String token;
+        private final long deadline;
+        private final long maxWaitMs;
+        private final UploadOptions options;
+        private final UploadListener listener;
+        private final CompletableFuture<Void> processed = new CompletableFuture<>();
+        private int attempts = 0;
+
+        Watch(String projectId, String uploadId, String token, long maxWaitMs, UploadOptions options,
+              UploadListener listener) {
+            this.projectId = projectId;
+            this.uploadId = uploadId;
+            this.token = token;
+            this.maxWaitMs = maxWaitMs;
+            this.deadline = System.currentTimeMillis() + maxWaitMs;
+            this.options = options;
+            this.listener = listener;
+        }
+
+        private void schedule(long delayMs) {
+            try {
+                scheduler.schedule(() -> executor.execute(this::check), delayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                processed.completeExceptionally(e);
+            }
+        }
+
+        private void check() {
+            if (processed.isDone()) {
+                return;
+            }
+            try {
+                attempts++;
+                JSONObject attributes = fetcher.fetch(projectId, uploadId, token, options, listener)
+                        .getJSONObject("data")
+                        .getJSONObject("attributes");
+                String uploadStatus = attributes.getString("uploadStatus").toUpperCase();
+                listener.statusPolled(uploadId, attempts, uploadStatus);
+                switch (uploadStatus) {
+                    case "COMPLETED":
+                        processed.complete(null);
+                        return;
+
+                    case "FAILED":
+                        processed.completeExceptionally(new ProcessingFailedException(
+                                "Upload processing failed: " + attributes.optString("failureReason")));
+                        return;
+
+                    default:
+                        long now = System.currentTimeMillis();
+                        if (now >= deadline) {
+                            processed.completeExceptionally(new TimeoutException(
+                                    "Upload not processed after " + maxWaitMs / 1000 + "s"));
+                            return;
+                        }
+                        long delay = Math.min(nextDelay(options, attempts), deadline - now);
+                        LOGGER.debug("Upload {} still not processed, checking again in {}ms", uploadId, delay);
+                        schedule(delay);
+                }
+            } catch (Throwable e) {
+                processed.completeExceptionally(e);
+            }
+        }
+    }
+}
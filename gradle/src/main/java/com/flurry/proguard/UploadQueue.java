@@ -0,0 +1,155 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Limits how many asynchronous uploads run at the same time. Uploads beyond the limit wait in order, without
+ * holding a thread, until a running upload finishes.
+ *
+ * <p>The JVM's {@link #shared() send queue} has no limit of its own. Each upload brings its limit while it waits or
+ * runs and the queue runs at the lowest of them, so uploads asking for different limits still share one cap.
+ */
+public class UploadQueue {
+    private static final UploadQueue SHARED = new UploadQueue();
+
+    private final int maxConcurrent;
+    private final Queue<Runnable> waiting = new ArrayDeque<>();
+    // The limits of the uploads waiting or running, and how many uploads asked for each
+    private final TreeMap<Integer, Integer> limits = new TreeMap<>();
+    // Set while a thread starts waiting uploads, so uploads which finish as they start don't recurse
+    private final ThreadLocal<Boolean> starting = new ThreadLocal<>();
+    private int running = 0;
+
+    private UploadQueue() {
+        this.maxConcurrent = Integer.MAX_VALUE;
+    }
+
+    /**
+     * @param maxConcurrent the most uploads to run at the same time
+     */
+    public UploadQueue(int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("At least one upload has to be allowed to run");
+        }
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * @return the queue every archive sent in the JVM goes through
+     */
+    static UploadQueue shared() {
+        return SHARED;
+    }
+
+    /**
+     * Start an upload once fewer than the maximum are running
+     *
+     * @param upload starts the upload, its future holds the upload's slot until it completes
+     * @return the upload's future
+     */
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> upload) {
+        return submit(0, upload);
+    }
+
+    /**
+     * Start an upload once fewer than the lowest limit of the waiting and running uploads are running
+     *
+     * @param limit the most uploads this upload allows to run at the same time, or 0 for no limit
+     * @param upload starts the upload, its future holds the upload's slot until it completes
+     * @return the upload's future
+     */
+    <T> CompletableFuture<T> submit(int limit, Supplier<CompletableFuture<T>> upload) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Concurrent upload limit must not be negative: " + limit);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable start = () -> {
+            CompletableFuture<T> started;
+            try {
+                started = upload.get();
+            } catch (Throwable e) {
+                started = new CompletableFuture<>();
+                started.completeExceptionally(e);
+            }
+            started.whenComplete((value, error) -> {
+                release(limit);
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+        };
+        synchronized (this) {
+            if (limit > 0) {
+                limits.merge(limit, 1, Integer::sum);
+            }
+            if (running >= currentLimit()) {
+                waiting.add(start);
+                return result;
+            }
+            running++;
+        }
+        start.run();
+        return result;
+    }
+
+    /**
+     * @return the number of uploads waiting for a slot
+     */
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    /**
+     * @return the most uploads allowed to run right now
+     */
+    synchronized int getLimit() {
+        return currentLimit();
+    }
+
+    private int currentLimit() {
+        return limits.isEmpty() ? maxConcurrent : Math.min(maxConcurrent, limits.firstKey());
+    }
+
+    /**
+     * Free a finished upload's slot and start as many waiting uploads as the limit now allows. An upload which
+     * finishes as it starts releases its slot on the same stack, so those releases are left to the loop already
+     * starting uploads instead of recursing once per upload.
+     */
+    private void release(int limit) {
+        synchronized (this) {
+            running--;
+            if (limit > 0) {
+                limits.computeIfPresent(limit, (value, uploads) -> uploads > 1 ? uploads - 1 : null);
+            }
+        }
+        if (starting.get() != null) {
+            return;
+        }
+        starting.set(Boolean.TRUE);
+        try {
+            Runnable next;
+            while ((next = nextToStart()) != null) {
+                next.run();
+            }
+        } finally {
+            starting.remove();
+        }
+    }
+
+    private synchronized Runnable nextToStart() {
+        if (waiting.isEmpty() || running >= currentLimit()) {
+            return null;
+        }
+        running++;
+        return waiting.poll();
+    }
+}
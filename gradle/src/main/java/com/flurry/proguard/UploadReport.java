@@ -0,0 +1,139 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Collects the timings, sizes, retries and status checks of one upload into a JSON report, so upload costs can be
+ * compared across builds
+ */
+public class UploadReport implements UploadListener {
+    private final AndroidUploadType uploadType;
+    private final long startedAt = System.nanoTime();
+    private final Map<UploadPhase, Long> phaseNanos = new EnumMap<>(UploadPhase.class);
+    private long finishedAt;
+    private int fileCount;
+    private long rawBytes;
+    private long archiveBytes;
+    private long sentBytes;
+    private long sendNanos;
+    private long throttledNanos;
+    private int retries;
+    private int polls;
+    private UploadResult result;
+    private Throwable failure;
+
+    /**
+     * @param uploadType the type of upload being reported
+     */
+    public UploadReport(AndroidUploadType uploadType) {
+        this.uploadType = uploadType;
+    }
+
+    @Override
+    public synchronized void phaseCompleted(UploadPhase phase, long durationNanos, Throwable failure) {
+        phaseNanos.merge(phase, durationNanos, Long::sum);
+    }
+
+    @Override
+    public synchronized void archivePrepared(int fileCount, long rawBytes, long archiveBytes) {
+        this.fileCount = fileCount;
+        this.rawBytes = rawBytes;
+        this.archiveBytes = archiveBytes;
+    }
+
+    @Override
+    public synchronized void archiveSent(long bytes, long durationNanos) {
+        sentBytes += bytes;
+        sendNanos += durationNanos;
+    }
+
+    @Override
+    public synchronized void transferProgress(long sentBytes, long totalBytes, long bytesPerSecond,
+                                              long throttledNanos) {
+        this.throttledNanos = Math.max(this.throttledNanos, throttledNanos);
+    }
+
+    @Override
+    public synchronized void retried(String operation, int attempt, Throwable failure) {
+        retries++;
+    }
+
+    @Override
+    public synchronized void statusPolled(String uploadId, int attempt, String status) {
+        polls++;
+    }
+
+    @Override
+    public synchronized void uploadFinished(UploadResult result, Throwable failure) {
+        this.finishedAt = System.nanoTime();
+        this.result = result;
+        this.failure = failure;
+    }
+
+    /**
+     * @return the report, durations are in milliseconds and throughput in bytes per second
+     */
+    public synchronized JSONObject toJson() {
+        JSONObject phases = new JSONObject();
+        phaseNanos.forEach((phase, nanos) -> phases.put(phase.getReportName(), toMillis(nanos)));
+        JSONObject json = new JSONObject()
+                .put("uploadType", uploadType.name())
+                .put("status", status())
+                .put("totalMs", toMillis((finishedAt != 0 ? finishedAt : System.nanoTime()) - startedAt))
+                .put("phases", phases)
+                .put("fileCount", fileCount)
+                .put("rawBytes", rawBytes)
+                .put("archiveBytes", archiveBytes)
+                .put("compressionRatio", archiveBytes > 0 ? (double) rawBytes / archiveBytes : 0)
+                .put("sentBytes", sentBytes)
+                .put("sendThroughputBytesPerSecond", sendNanos > 0 ? sentBytes * 1_000_000_000L / sendNanos : 0)
+                .put("throttledMs", toMillis(throttledNanos))
+                .put("retries", retries)
+                .put("polls", polls);
+        if (result != null && !result.isSkipped()) {
+            json.put("projectId", result.getProjectId()).put("uploadId", result.getUploadId());
+        }
+        if (failure != null) {
+            json.put("error", String.valueOf(failure.getMessage()));
+        }
+        return json;
+    }
+
+    /**
+     * Write the report, replacing any earlier report in the file
+     *
+     * @param file the file to write
+     */
+    public void write(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        Files.write(file.toPath(), (toJson().toString(2) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String status() {
+        if (failure != null) {
+            return "failed";
+        } else if (result == null) {
+            return "running";
+        } else if (result.isSkipped()) {
+            return "skipped";
+        }
+        return result.isProcessed() ? "processed" : "sent";
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+}
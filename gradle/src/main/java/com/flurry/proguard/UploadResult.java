@@ -0,0 +1,100 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+/**
+ * The outcome of a finished upload
+ */
+public class UploadResult {
+    private final AndroidUploadType uploadType;
+    private final String projectId;
+    private final String uploadId;
+    private final long archiveSize;
+    private final int fileCount;
+    private final boolean processed;
+
+    UploadResult(AndroidUploadType uploadType, String projectId, String uploadId, long archiveSize, int fileCount,
+                 boolean processed) {
+        this.uploadType = uploadType;
+        this.projectId = projectId;
+        this.uploadId = uploadId;
+        this.archiveSize = archiveSize;
+        this.fileCount = fileCount;
+        this.processed = processed;
+    }
+
+    /**
+     * @param uploadType the type of upload
+     * @return the result of an upload which had nothing to send because every file was uploaded before
+     */
+    static UploadResult skipped(AndroidUploadType uploadType) {
+        return new UploadResult(uploadType, null, null, 0, 0, false);
+    }
+
+    /**
+     * @return this upload once the crash service has processed it
+     */
+    UploadResult asProcessed() {
+        return new UploadResult(uploadType, projectId, uploadId, archiveSize, fileCount, true);
+    }
+
+    public AndroidUploadType getUploadType() {
+        return uploadType;
+    }
+
+    /**
+     * @return the project's id, or null if the upload was skipped
+     */
+    public String getProjectId() {
+        return projectId;
+    }
+
+    /**
+     * @return the upload's id, or null if the upload was skipped
+     */
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    /**
+     * @return the size of the uploaded archive in bytes
+     */
+    public long getArchiveSize() {
+        return archiveSize;
+    }
+
+    /**
+     * @return the number of files in the archive
+     */
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * @return true if every file had already been uploaded so nothing was sent
+     */
+    public boolean isSkipped() {
+        return uploadId == null;
+    }
+
+    /**
+     * @return true if the crash service finished processing the upload, false if it was skipped or still
+     *         needs to be verified
+     */
+    public boolean isProcessed() {
+        return processed;
+    }
+
+    @Override
+    public String toString() {
+        return "UploadResult{" +
+                "uploadType=" + uploadType +
+                ", projectId='" + projectId + '\'' +
+                ", uploadId='" + uploadId + '\'' +
+                ", archiveSize=" + archiveSize +
+                ", fileCount=" + fileCount +
+                ", processed=" + processed +
+                '}';
+    }
+}
@@ -0,0 +1,813 @@
+/*
+ * Copyright Yahoo Inc. 2016, see https://github.com/flurry/upload-clients/blob/master/LICENSE.txt for full details
+ */
+package com.flurry.proguard;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+import static com.flurry.proguard.UploadMapping.FIVE_SECONDS_IN_MS;
+import static com.flurry.proguard.UploadMapping.LOGGER;
+import static com.flurry.proguard.UploadMapping.ONE_MINUTE_IN_MS;
+import static com.flurry.proguard.UploadMapping.failWithError;
+
+/**
+ * Uploads mapping files to Flurry's crash service over a pool of keep-alive connections.
+ * A session is safe to share between threads; concurrent uploads reuse each other's warm connections.
+ */
+public class UploadSession implements Closeable {
+    public static final String DEFAULT_METADATA_BASE = "https://crash-metadata.flurry.com/pulse/v1";
+    public static final String DEFAULT_UPLOAD_BASE = "https://upload.flurry.com/upload/v1";
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 8;
+    public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 32;
+    public static final long DEFAULT_KEEP_ALIVE_MS = ONE_MINUTE_IN_MS;
+    static final int ARCHIVE_BUFFER_SIZE = 8192;
+
+    private static final RequestConfig REQUEST_CONFIG = RequestConfig.custom()
+                .setConnectTimeout(FIVE_SECONDS_IN_MS) // 5 Seconds
+                .setSocketTimeout(FIVE_SECONDS_IN_MS)
+                .setConnectionRequestTimeout(ONE_MINUTE_IN_MS).build();
+
+    private final String metadataBase;
+    private final String uploadBase;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final UploadPoller poller;
+    /** Project lookups in flight, so uploads for the same API key starting together share one lookup */
+    private final Map<String, CompletableFuture<String>> lookups = new ConcurrentHashMap<>();
+
+    public UploadSession() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS_TOTAL, DEFAULT_KEEP_ALIVE_MS);
+    }
+
+    /**
+     * @param maxConnectionsPerRoute the most connections to open to each of the metadata and upload services,
+     *                               parallel chunks of a chunked upload each need their own connection
+     * @param maxConnectionsTotal the most connections to open overall
+     * @param keepAliveMs how long an idle connection is kept for reuse (in ms)
+     */
+    public UploadSession(int maxConnectionsPerRoute, int maxConnectionsTotal, long keepAliveMs) {
+        this(maxConnectionsPerRoute, maxConnectionsTotal, keepAliveMs, null);
+    }
+
+    /**
+     * @param maxConnectionsPerRoute the most connections to open to each of the metadata and upload services,
+     *                               parallel chunks of a chunked upload each need their own connection
+     * @param maxConnectionsTotal the most connections to open overall
+     * @param keepAliveMs how long an idle connection is kept for reuse (in ms)
+     * @param executor runs the phases of asynchronous uploads, or null to use virtual threads where the JVM
+     *                 has them. The caller stays responsible for shutting down an executor it passes in.
+     */
+    public UploadSession(int maxConnectionsPerRoute, int maxConnectionsTotal, long keepAliveMs,
+                         Executor executor) {
+        this(DEFAULT_METADATA_BASE, DEFAULT_UPLOAD_BASE, maxConnectionsPerRoute, maxConnectionsTotal, keepAliveMs,
+                executor);
+    }
+
+    /**
+     * @param metadataBase the base URL of the metadata service, eg. a local stand-in for testing
+     * @param uploadBase the base URL of the upload service
+     * @param maxConnectionsPerRoute the most connections to open to each of the metadata and upload services,
+     *                               parallel chunks of a chunked upload each need their own connection
+     * @param maxConnectionsTotal the most connections to open overall
+     * @param keepAliveMs how long an idle connection is kept for reuse (in ms)
+     * @param executor runs the phases of asynchronous uploads, or null to use virtual threads where the JVM
+     *                 has them. The caller stays responsible for shutting down an executor it passes in.
+     */
+    public UploadSession(String metadataBase, String uploadBase, int maxConnectionsPerRoute,
+                         int maxConnectionsTotal, long keepAliveMs, Executor executor) {
+        this.metadataBase = baseUrl(metadataBase);
+        this.uploadBase = baseUrl(uploadBase);
+        this.ownedExecutor = executor == null ? newDefaultExecutor() : null;
+        this.executor = executor == null ? ownedExecutor : executor;
+        this.poller = new UploadPoller(this.executor, this::fetchUpload);
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        connectionManager.setMaxTotal(maxConnectionsTotal);
+        httpClient = HttpClientBuilder.create()
+                .setDefaultRequestConfig(REQUEST_CONFIG)
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy((response, context) -> {
+                    long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE
+                            .getKeepAliveDuration(response, context);
+                    return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAliveMs) : keepAliveMs;
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAliveMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    private static String baseUrl(String url) {
+        if (url == null || !(url.startsWith("http://") || url.startsWith("https://"))) {
+            throw new IllegalArgumentException("Service URLs must be http or https URLs: " + url);
+        }
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    /**
+     * @return the base URL of the metadata service
+     */
+    public String getMetadataBase() {
+        return metadataBase;
+    }
+
+    /**
+     * @return the base URL of the upload service
+     */
+    public String getUploadBase() {
+        return uploadBase;
+    }
+
+    /**
+     * Upload phases mostly wait on the network, so they run on virtual threads on JDK 21 and later.
+     * Older JVMs get a cached pool of daemon threads.
+     */
+    private static ExecutorService newDefaultExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threads = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "flurry-upload-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Tar a ProGuard/Native mapping file and send it to Flurry's crash service, waiting for it to be processed
+     *
+     * @param apiKey the API key for the project being built
+     * @param uuid the uuid for this build
+     * @param paths the paths to the ProGuard/Native mapping.txt files
+     * @param token the auth token for API calls
+     * @param timeout the amount of time to wait for the upload to be processed (in ms)
+     * @param androidUploadType type of upload
+     * @param options optional upload settings
+     * @return the finished upload
+     */
+    public UploadResult uploadFiles(String apiKey, String uuid, List<String> paths, String token, int timeout,
+                                    AndroidUploadType androidUploadType, UploadOptions options) throws IOException {
+        return await(uploadFilesAsync(apiKey, uuid, paths, token, timeout, androidUploadType, options));
+    }
+
+    /**
+     * Wait for an asynchronous operation, rethrowing its failure as is
+     */
+    private static <T> T await(CompletableFuture<T> operation) throws IOException {
+        try {
+            return operation.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Tar a ProGuard/Native mapping file and send it to Flurry's crash service without blocking the caller.
+     * The archive is built while the project is looked up. Cancelling the returned future stops the upload
+     * before its next phase.
+     *
+     * @param apiKey the API key for the project being built
+     * @param uuid the uuid for this build
+     * @param paths the paths to the ProGuard/Native mapping.txt files
+     * @param token the auth token for API calls
+     * @param timeout the amount of time to wait for the upload to be processed (in ms)
+     * @param androidUploadType type of upload
+     * @param options optional upload settings
+     * @return a future completed once the upload is processed
+     */
+    public CompletableFuture<UploadResult> uploadFilesAsync(String apiKey, String uuid, List<String> paths,
+                                                            String token, int timeout,
+                                                            AndroidUploadType androidUploadType,
+                                                            UploadOptions options) {
+        return uploadFilesAsync(apiKey, uuid, paths, token, timeout, androidUploadType, options, null);
+    }
+
+    /**
+     * Tar a ProGuard/Native mapping file and send it to Flurry's crash service without blocking the caller, with
+     * a callback once the archive is sent and before waiting for it to be processed
+     *
+     * @param apiKey the API key for the project being built
+     * @param uuid the uuid for this build
+     * @param paths the paths to the ProGuard/Native mapping.txt files
+     * @param token the auth token for API calls
+     * @param timeout the amount of time to wait for the upload to be processed (in ms)
+     * @param androidUploadType type of upload
+     * @param options optional upload settings
+     * @param onSent called with the sent upload, not called if the upload was skipped or failed. May be null.
+     * @return a future completed once the upload is processed
+     */
+    public CompletableFuture<UploadResult> uploadFilesAsync(String apiKey, String uuid, List<String> paths,
+                                                            String token, int timeout,
+                                                            AndroidUploadType androidUploadType,
+                                                            UploadOptions options, Consumer<UploadResult> onSent) {
+        List<BatchEntry> entries = new ArrayList<>();
+        paths.forEach(path -> entries.add(new BatchEntry(uuid, path, androidUploadType)));
+        return new UploadPipeline(this, apiKey, uuid, entries, false, token, timeout, androidUploadType, options,
+                onSent, options.getReportFile()).start();
+    }
+
+    /**
+     * Send the mappings of several builds, eg. every flavor of a release, in one archive and wait for them to be
+     * processed
+     *
+     * @param apiKey the API key for the project being built
+     * @param entries the uuid, path and type of each mapping file
+     * @param token the auth token for API calls
+     * @param timeout the amount of time to wait for the uploads to be processed (in ms)
+     * @param options optional upload settings
+     * @return the finished uploads, one per upload type in the batch
+     */
+    public List<UploadResult> uploadBatch(String apiKey, List<BatchEntry> entries, String token, int timeout,
+                                          UploadOptions options) throws IOException {
+        return await(uploadBatchAsync(apiKey, entries, token, timeout, options));
+    }
+
+    /**
+     * Send the mappings of several builds in one archive without blocking the caller. The archive's entries are
+     * named after each build's uuid and a manifest lists where each came from, so the whole batch takes a single
+     * create, send and poll cycle. The crash service takes one upload type per upload, so ProGuard and Native
+     * mappings in the same batch are sent as two uploads at the same time. Cancelling the returned future stops
+     * every upload of the batch.
+     *
+     * @param apiKey the API key for the project being built
+     * @param entries the uuid, path and type of each mapping file
+     * @param token the auth token for API calls
+     * @param timeout the amount of time to wait for the uploads to be processed (in ms)
+     * @param options optional upload settings. Delta uploads are per build variant, so batches are always sent in
+     *                full.
+     * @return a future completed once every upload is processed
+     */
+    public CompletableFuture<List<UploadResult>> uploadBatchAsync(String apiKey, List<BatchEntry> entries,
+                                                                  String token, int timeout, UploadOptions options) {
+        Map<AndroidUploadType, List<BatchEntry>> byType = new EnumMap<>(AndroidUploadType.class);
+        entries.forEach(entry -> byType.computeIfAbsent(entry.getUploadType(), type -> new ArrayList<>()).add(entry));
+        List<CompletableFuture<UploadResult>> uploads = new ArrayList<>();
+        byType.forEach((type, typeEntries) -> uploads.add(new UploadPipeline(this, apiKey, null, typeEntries, true,
+                token, timeout, type, options, null, reportFile(options.getReportFile(), type, byType.size() > 1))
+                .start()));
+
+        CompletableFuture<List<UploadResult>> batch = CompletableFuture
+                .allOf(uploads.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    List<UploadResult> results = new ArrayList<>();
+                    uploads.forEach(upload -> results.add(upload.join()));
+                    return results;
+                });
+        batch.whenComplete((results, error) -> {
+            if (batch.isCancelled()) {
+                uploads.forEach(upload -> upload.cancel(false));
+            }
+        });
+        return batch;
+    }
+
+    /**
+     * @return where to write the report of one type of upload in a batch, each type gets its own report when the
+     *         batch holds several
+     */
+    private static File reportFile(File reportFile, AndroidUploadType type, boolean severalTypes) {
+        if (reportFile == null || !severalTypes) {
+            return reportFile;
+        }
+        String name = reportFile.getName();
+        int dot = name.lastIndexOf('.');
+        String suffix = "-" + type.getDisplayName().toLowerCase();
+        return new File(reportFile.getParentFile(),
+                dot > 0 ? name.substring(0, dot) + suffix + name.substring(dot) : name + suffix);
+    }
+
+    /**
+     * Check the uploads which were sent with {@link UploadOptions#setVerifyLater(boolean)} until each is processed,
+     * failing if any of them wasn't
+     *
+     * @param apiKey the API key of the project the uploads were sent to
+     * @param token the auth token for API calls
+     * @param timeout the amount of time to wait for the uploads to be processed (in ms)
+     * @param options the pending uploads directory, upload cache and poll settings
+     * @return the verified uploads
+     */
+    public List<UploadResult> verifyPendingUploads(String apiKey, String token, int timeout, UploadOptions options)
+            throws IOException {
+        return await(verifyPendingUploadsAsync(apiKey, token, timeout, options));
+    }
+
+    /**
+     * Check the uploads which were sent with {@link UploadOptions#setVerifyLater(boolean)} until each is processed.
+     * Processed uploads are recorded in the upload cache and forgotten, as are uploads which failed processing.
+     *
+     * @param apiKey the API key of the project the uploads were sent to
+     * @param token the auth token for API calls
+     * @param timeout the amount of time to wait for the uploads to be processed (in ms)
+     * @param options the pending uploads directory, upload cache and poll settings
+     * @return a future completed with every pending upload once they are all processed
+     */
+    public CompletableFuture<List<UploadResult>> verifyPendingUploadsAsync(String apiKey, String token, int timeout,
+                                                                         UploadOptions options) {
+        return new PendingUploadVerifier(this).verify(apiKey, token, timeout, options);
+    }
+
+    /**
+     * @return the poller shared by this session's uploads
+     */
+    UploadPoller getPoller() {
+        return poller;
+    }
+
+    /**
+     * Run a task which may throw an IOException on the session's executor
+     */
+    <T> CompletableFuture<T> async(IOSupplier<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.get();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    interface IOSupplier<T> {
+        T get() throws IOException;
+    }
+
+    /**
+     * Open the upload cache if one was configured
+     *
+     * @param options the upload options
+     * @param apiKey the project's API key
+     * @return the cache or null if the cache is disabled or can't be opened
+     */
+    static UploadCache openCache(UploadOptions options, String apiKey) {
+        if (options.getCacheDir() == null) {
+            return null;
+        }
+        try {
+            return new UploadCache(options.getCacheDir(), apiKey, options.getCacheTtlMillis());
+        } catch (IOException e) {
+            LOGGER.warn("Cannot read the upload cache, uploading all files", e);
+            return null;
+        }
+    }
+
+    /**
+     * Record processed uploads in the cache, if there is one
+     *
+     * @param cache the upload cache or null
+     * @param cacheKeys the keys of the uploaded files
+     */
+    static void recordUploads(UploadCache cache, List<String> cacheKeys) {
+        if (cache == null) {
+            return;
+        }
+        try {
+            cache.markUploaded(cacheKeys);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot update the upload cache", e);
+        }
+    }
+
+    /**
+     * Create a gzipped tar archive containing the ProGuard/Native mapping files
+     *
+     * @param archive the mapping files to archive
+     * @param tarZippedFile the file to write to, or null to use a temp file
+     * @return the tar-gzipped archive
+     */
+    static File createArchive(MappingArchive archive, File tarZippedFile) {
+        return createArchive(archive, tarZippedFile, ARCHIVE_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a gzipped tar archive containing the ProGuard/Native mapping files
+     *
+     * @param archive the mapping files to archive
+     * @param tarZippedFile the file to write to, or null to use a temp file
+     * @param bufferSize the size of the buffer in front of the file
+     * @return the tar-gzipped archive
+     */
+    static File createArchive(MappingArchive archive, File tarZippedFile, int bufferSize) {
+        try {
+            if (tarZippedFile == null) {
+                tarZippedFile = File.createTempFile("tar-zipped-file", ".tgz");
+            }
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tarZippedFile), bufferSize)) {
+                archive.writeTo(out);
+            }
+            return tarZippedFile;
+        } catch (IOException e) {
+            failWithError("IO Exception while trying to tar and zip the file.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Get the project's ID from the cache, or the metadata service if it isn't cached. An upload which needs a
+     * project another upload is already looking up waits for that lookup instead of making its own.
+     *
+     * @param apiKey the API key for the project
+     * @param token the Flurry auth token
+     * @param projectIds the project id cache
+     * @param options the retry and hedging settings
+     * @param listener told about retried lookups
+     * @return the project's ID
+     */
+    String findProjectId(String apiKey, String token, ProjectIdCache projectIds, UploadOptions options,
+                         UploadListener listener) throws IOException {
+        String projectId = projectIds.get(projectCacheKey(apiKey));
+        if (projectId != null) {
+            LOGGER.debug("Using cached project {} for api key {}", projectId, apiKey);
+            return projectId;
+        }
+        CompletableFuture<String> lookup = new CompletableFuture<>();
+        CompletableFuture<String> running = lookups.putIfAbsent(projectCacheKey(apiKey), lookup);
+        if (running != null) {
+            LOGGER.debug("Waiting for the lookup of api key {} already in flight", apiKey);
+            return await(running);
+        }
+        try {
+            projectId = lookUpProjectId(apiKey, token, options, listener);
+            projectIds.put(projectCacheKey(apiKey), projectId);
+            lookup.complete(projectId);
+            return projectId;
+        } catch (RuntimeException | Error e) {
+            lookup.completeExceptionally(e);
+            throw e;
+        } finally {
+            lookups.remove(projectCacheKey(apiKey), lookup);
+        }
+    }
+
+    /**
+     * Project ids are only cached per API key for Flurry's own metadata service, another service may give the same
+     * key a different id
+     */
+    private String projectCacheKey(String apiKey) {
+        return metadataBase.equals(DEFAULT_METADATA_BASE) ? apiKey : metadataBase + "\n" + apiKey;
+    }
+
+    /**
+     * Call the metadata service to get the project's ID
+     *
+     * @param apiKey the API key for the project
+     * @param token the Flurry auth token
+     * @param options the retry and hedging settings
+     * @param listener told about retried lookups
+     * @return the project's ID
+     */
+    private String lookUpProjectId(String apiKey, String token, UploadOptions options, UploadListener listener) {
+        String queryUrl = String.format("%s/project?fields[project]=apiKey&filter[project.apiKey]=%s",
+                    metadataBase, apiKey);
+        JSONObject jsonObject = getMetadata("project lookup", queryUrl, token, options, listener);
+        JSONArray jsonArray = jsonObject.getJSONArray("data");
+        if (jsonArray.length() == 0) {
+            failWithError("No projects found for the API Key: " + apiKey);
+        }
+        return jsonArray.getJSONObject(0).get("id").toString();
+    }
+
+    /**
+     * Get the payload for creating the Upload in the metadata service
+     *
+     * @param archiveSize the size of the archive to upload
+     * @param projectId the project's ID
+     * @return a JSON string to be sent to the metadata service
+     */
+    static String getUploadJson(long archiveSize, String projectId, String uploadType) {
+        return getUploadTemplate()
+                    .replace("UPLOAD_TYPE", uploadType)
+                    .replace("UPLOAD_SIZE", Long.toString(archiveSize))
+                    .replace("PROJECT_ID", projectId);
+    }
+
+    /**
+     * Convert a HTTP response to JSON
+     *
+     * @param httpEntity the response body
+     * @return a JSON object
+     */
+    private static JSONObject getJsonFromEntity(HttpEntity httpEntity) throws IOException {
+        try {
+            return new JSONObject(EntityUtils.toString(httpEntity));
+        } finally {
+            EntityUtils.consumeQuietly(httpEntity);
+        }
+    }
+
+    /**
+     * Read the template Upload from resources
+     *
+     * @return a mostly complete JSON string
+     */
+    private static String getUploadTemplate() {
+        return "{\"data\": {" +
+                    "\"type\": \"upload\"," +
+                    "\"attributes\":" +
+                        "{\"uploadType\": \"UPLOAD_TYPE\", \"contentLength\": UPLOAD_SIZE}," +
+                    "\"relationships\":" +
+                        "{\"project\":{\"data\":{\"id\":PROJECT_ID,\"type\":\"project\"}}}" +
+                    "}" +
+                "}";
+    }
+
+    /**
+     * Register this upload with the metadata service
+     *
+     * @param apiKey the API key for the project
+     * @param projectId the id of the project
+     * @param payload the JSON body to send
+     * @param token the Flurry auth token
+     * @param projectIds the project id cache, invalidated if the project is rejected
+     * @param options the retry settings
+     * @param listener told about retried registrations
+     * @return the id of the created upload
+     */
+    String createUpload(String apiKey, String projectId, String payload, String token, ProjectIdCache projectIds,
+                        UploadOptions options, UploadListener listener) {
+        String postUrl = String.format("%s/project/%s/uploads", metadataBase, projectId);
+        List<Header> requestHeaders = getMetadataHeaders(token);
+        // Only retried when the upload cannot have been created, so a retry never registers it twice
+        return withRetries(RetryPolicy.of("upload registration", false, options), listener, () -> {
+            HttpPost postRequest = new HttpPost(postUrl);
+            postRequest.setEntity(new StringEntity(payload, Charset.forName("UTF-8")));
+            try (CloseableHttpResponse response = executeHttpRequest(postRequest, requestHeaders)) {
+                forgetRejectedProject(response.getStatusLine().getStatusCode(), apiKey, projectIds);
+                expectStatus(response, HttpURLConnection.HTTP_CREATED);
+                JSONObject jsonObject = getJsonFromEntity(response.getEntity());
+                return jsonObject.getJSONObject("data").get("id").toString();
+            } finally {
+                postRequest.releaseConnection();
+            }
+        });
+    }
+
+    /**
+     * Upload the archive to Flurry
+     *
+     * @param entity the archive to send
+     * @param size the size of the archive
+     * @param apiKey the API key for the project
+     * @param projectId the project's id
+     * @param uploadId the the upload's id
+     * @param token the Flurry auth token
+     * @param projectIds the project id cache, invalidated if the project is rejected
+     * @param options the retry settings
+     * @param listener told about retried sends
+     */
+    void sendToUploadService(HttpEntity entity, long size, String apiKey, String projectId, String uploadId,
+                             String token, ProjectIdCache projectIds, UploadOptions options, UploadListener listener) {
+        String uploadServiceUrl = String.format("%s/upload/%s/%s", uploadBase, projectId, uploadId);
+        List<Header> requestHeaders = getUploadServiceHeaders(size, token);
+        // The upload service replaces a range sent twice, so the archive already built is simply sent again
+        withRetries(RetryPolicy.of("upload", entity.isRepeatable(), options), listener, () -> {
+            HttpPost postRequest = new HttpPost(uploadServiceUrl);
+            postRequest.setEntity(entity);
+            try (CloseableHttpResponse response = executeHttpRequest(postRequest, requestHeaders)) {
+                forgetRejectedProject(response.getStatusLine().getStatusCode(), apiKey, projectIds);
+                expectStatus(response, HttpURLConnection.HTTP_CREATED, HttpURLConnection.HTTP_ACCEPTED);
+                return null;
+            } finally {
+                postRequest.releaseConnection();
+            }
+        });
+    }
+
+    /**
+     * Upload the archive to Flurry in byte ranges, skipping ranges which were sent before
+     *
+     * @param journal the journal holding the archive
+     * @param options the upload options
+     * @param listener told about retried chunks
+     * @param entityFilter wraps the body of each chunk, to limit its bandwidth and track progress
+     * @param apiKey the API key for the project
+     * @param projectId the project's id
+     * @param uploadId the the upload's id
+     * @param token the Flurry auth token
+     * @param projectIds the project id cache, invalidated if the project is rejected
+     */
+    void sendChunksToUploadService(UploadJournal journal, UploadOptions options, UploadListener listener,
+                                   UnaryOperator<HttpEntity> entityFilter, String apiKey, String projectId,
+                                   String uploadId, String token, ProjectIdCache projectIds) {
+        String uploadServiceUrl = String.format("%s/upload/%s/%s", uploadBase, projectId, uploadId);
+        ChunkedUpload upload = new ChunkedUpload(httpClient, journal, options.getChunkSize(),
+                options.getParallelChunks(), LOGGER, listener, entityFilter, RetryPolicy.of("chunk", true, options));
+        LOGGER.info("Uploading {} bytes in {} chunks", journal.getArchiveFile().length(), upload.getChunkCount());
+        try {
+            upload.send(uploadServiceUrl, (start, end) -> getUploadServiceHeaders(start, end, token));
+        } catch (HttpStatusException e) {
+            forgetRejectedProject(e.getStatusCode(), apiKey, projectIds);
+            if (e.getStatusCode() == HttpURLConnection.HTTP_UNAUTHORIZED) {
+                failWithError("The provided token is expired");
+            }
+            failWithError("Chunked upload failed, run the upload again to resume it", e);
+        } catch (IOException e) {
+            failWithError("Chunked upload failed, run the upload again to resume it", e);
+        }
+    }
+
+    /**
+     * Forget the cached project of an API key if a service rejected it, it may have been deleted or moved
+     *
+     * @param statusCode the service's answer
+     * @param apiKey the API key for the project
+     * @param projectIds the project id cache
+     */
+    private void forgetRejectedProject(int statusCode, String apiKey, ProjectIdCache projectIds) {
+        if (statusCode == HttpURLConnection.HTTP_UNAUTHORIZED
+                || statusCode == HttpURLConnection.HTTP_FORBIDDEN
+                || statusCode == HttpURLConnection.HTTP_NOT_FOUND) {
+            projectIds.invalidate(projectCacheKey(apiKey));
+        }
+    }
+
+    /**
+     * Ensure that a response had an expected status
+     *
+     * @param response the API response
+     * @param validStatuses the list of acceptable statuses
+     * @throws HttpStatusException if the status may go away when the request is sent again
+     */
+    private static void expectStatus(CloseableHttpResponse response, Integer... validStatuses)
+            throws HttpStatusException {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode == HttpURLConnection.HTTP_UNAUTHORIZED) {
+            failWithError("The provided token is expired");
+        }
+        if (!Arrays.asList(validStatuses).contains(statusCode)) {
+            String responseString;
+            try {
+                responseString = "Response Body: " + EntityUtils.toString(response.getEntity());
+            } catch (IOException e) {
+                responseString = "IO Exception while reading the response body.";
+            }
+            if (HttpStatusException.isTransient(statusCode)) {
+                throw new HttpStatusException(response, "Request failed: " + statusCode + " " + responseString);
+            }
+            failWithError("Request failed: {} {}", statusCode, responseString);
+        }
+    }
+
+    /**
+     * Fetch the upload from the metadata service
+     *
+     * @param projectId the project's id
+     * @param uploadId the upload's id
+     * @param token the Flurry auth token
+     * @param options the retry and hedging settings
+     * @param listener told about retried checks
+     * @return the upload
+     */
+    private JSONObject fetchUpload(String projectId, String uploadId, String token, UploadOptions options,
+                                   UploadListener listener) {
+        String queryUrl = String.format("%s/project/%s/uploads/%s?fields[upload]=uploadStatus,failureReason",
+                    metadataBase, projectId, uploadId);
+        return getMetadata("status check", queryUrl, token, options, listener);
+    }
+
+    /**
+     * GET a resource from the metadata service, retrying transient failures and hedging slow answers
+     *
+     * @param operation names the request in logs
+     * @param url the resource to get
+     * @param token the Flurry auth token
+     * @param options the retry and hedging settings
+     * @param listener told about retries
+     * @return the resource
+     */
+    private JSONObject getMetadata(String operation, String url, String token, UploadOptions options,
+                                   UploadListener listener) {
+        return withRetries(RetryPolicy.of(operation, true, options), listener,
+                () -> HedgedGet.send(url, options.getHedgeDelayMs(), executor, request -> getJson(request, token)));
+    }
+
+    private JSONObject getJson(HttpGet request, String token) throws IOException {
+        try (CloseableHttpResponse response = executeHttpRequest(request, getMetadataHeaders(token))) {
+            expectStatus(response, HttpURLConnection.HTTP_OK);
+            return getJsonFromEntity(response.getEntity());
+        } finally {
+            request.releaseConnection();
+        }
+    }
+
+    /**
+     * Run a request under a retry policy, failing the upload once the policy gives up
+     */
+    private static <T> T withRetries(RetryPolicy policy, UploadListener listener, RetryPolicy.Attempt<T> attempt) {
+        try {
+            return policy.run(attempt, listener != null ? listener : new UploadListener() { });
+        } catch (HttpStatusException e) {
+            failWithError(e.getMessage());
+        } catch (IOException e) {
+            failWithError("IO Exception during {}: {}", policy.getOperation(), e.getMessage(), e);
+        }
+        return null;
+    }
+
+    private CloseableHttpResponse executeHttpRequest(HttpUriRequest request, List<Header> requestHeaders)
+            throws IOException {
+        for (Header header : requestHeaders) {
+            request.setHeader(header.getName(), header.getValue());
+        }
+        return httpClient.execute(request);
+    }
+
+    /**
+     * Get headers for a JSON API service
+     *
+     * @param token the Flurry auth token to use
+     * @return the headers
+     */
+    private static List<Header> getMetadataHeaders(String token) {
+        List<Header> headers = new ArrayList<>();
+        headers.add(new BasicHeader("Authorization", "Bearer " + token));
+        headers.add(new BasicHeader("Accept", "application/vnd.api+json"));
+        headers.add(new BasicHeader("Content-Type", "application/vnd.api+json"));
+        return headers;
+    }
+
+    /**
+     * Get headers for the upload service
+     *
+     * @param size the size of the payload
+     * @param token the Flurry auth token to use
+     * @return the headers
+     */
+    private static List<Header> getUploadServiceHeaders(long size, String token) {
+        return getUploadServiceHeaders(0, size - 1, token);
+    }
+
+    /**
+     * Get headers for sending part of the payload to the upload service
+     *
+     * @param start the offset of the first byte being sent
+     * @param end the offset of the last byte being sent
+     * @param token the Flurry auth token to use
+     * @return the headers
+     */
+    private static List<Header> getUploadServiceHeaders(long start, long end, String token) {
+        List<Header> headers = new ArrayList<>();
+        headers.add(new BasicHeader("Content-Type", "application/octet-stream"));
+        headers.add(new BasicHeader("Range", "bytes " + start + "-" + end));
+        headers.add(new BasicHeader("Authorization", "Bearer " + token));
+        return headers;
+    }
+
+    @Override
+    public void close() throws IOException {
+        poller.close();
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdownNow();
+        }
+        httpClient.close();
+    }
+}
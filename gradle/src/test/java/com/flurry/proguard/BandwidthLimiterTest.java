@@ -0,0 +1,68 @@
+package com.flurry.proguard;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test limiting the bandwidth of uploads
+ */
+public class BandwidthLimiterTest {
+
+    @Test
+    public void testBurstsPassAndDebtIsWaitedOff() {
+        BandwidthLimiter limiter = new BandwidthLimiter(1024 * 1024);
+        Assert.assertEquals(0, limiter.reserve(100 * 1024));
+
+        long waitNanos = limiter.reserve(1024 * 1024);
+        Assert.assertTrue(waitNanos > TimeUnit.MILLISECONDS.toNanos(900));
+        Assert.assertTrue(waitNanos <= TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void testLowestLimitOfTheSendingUploadsApplies() {
+        BandwidthLimiter limiter = new BandwidthLimiter(8192);
+        limiter.addLimit(4096);
+        Assert.assertEquals(4096, limiter.getBytesPerSecond());
+
+        limiter.removeLimit(4096);
+        Assert.assertEquals(8192, limiter.getBytesPerSecond());
+        limiter.removeLimit(8192);
+        Assert.assertEquals(0, limiter.getBytesPerSecond());
+        Assert.assertEquals(0, limiter.reserve(1024 * 1024));
+    }
+
+    @Test
+    public void testThrottledEntityTracksProgress() throws IOException {
+        byte[] body = new byte[96 * 1024];
+        TransferProgress progress = new TransferProgress(body.length, new UploadListener() { });
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long start = System.nanoTime();
+        new ThrottledEntity(new ByteArrayEntity(body), new BandwidthLimiter(256 * 1024), progress).writeTo(out);
+        long elapsed = System.nanoTime() - start;
+
+        Assert.assertEquals(body.length, out.size());
+        Assert.assertEquals(body.length, progress.getSentBytes());
+        // A tenth of a second of bandwidth goes through at once, the other 70KB take about 270ms
+        Assert.assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(200));
+        Assert.assertTrue(progress.getThrottledNanos() > 0);
+    }
+
+    @Test
+    public void testResentBytesAreCountedApart() throws IOException {
+        byte[] body = new byte[40 * 1024];
+        TransferProgress progress = new TransferProgress(body.length, new UploadListener() { });
+        ThrottledEntity entity = new ThrottledEntity(new ByteArrayEntity(body), null, progress);
+
+        entity.writeTo(new ByteArrayOutputStream());
+        entity.writeTo(new ByteArrayOutputStream());
+
+        Assert.assertEquals(body.length, progress.getSentBytes());
+        Assert.assertEquals(body.length, progress.getResentBytes());
+    }
+}
@@ -0,0 +1,63 @@
+package com.flurry.proguard;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Test reading truncated and corrupt ELF files
+ */
+public class ElfFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTruncatedHeaderIsMalformed() throws IOException {
+        File library = folder.newFile("libtruncated.so");
+        Files.write(library.toPath(), new byte[] {0x7f, 'E', 'L', 'F', 2, 1, 1, 0});
+
+        assertMalformed(library);
+    }
+
+    @Test
+    public void testTruncatedSectionsAreMalformed() throws IOException {
+        File library = new TestElf()
+                .section(".symtab", TestElf.SHT_SYMTAB, new byte[96])
+                .write(folder.newFile("libfoo.so"));
+        byte[] bytes = Files.readAllBytes(library.toPath());
+        Files.write(library.toPath(), Arrays.copyOf(bytes, bytes.length - 100));
+
+        assertMalformed(library);
+    }
+
+    @Test
+    public void testNegativeSectionHeaderOffsetIsMalformed() throws IOException {
+        File library = new TestElf()
+                .section(".symtab", TestElf.SHT_SYMTAB, new byte[96])
+                .write(folder.newFile("libfoo.so"));
+        try (RandomAccessFile raf = new RandomAccessFile(library, "rw")) {
+            raf.seek(0x28);
+            raf.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(-64).array());
+        }
+
+        assertMalformed(library);
+    }
+
+    private static void assertMalformed(File library) {
+        try {
+            new ElfFile(library);
+            Assert.fail("Read a corrupt ELF file");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed ELF file"));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.flurry.proguard;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Test slimming shared objects down to their symbols and debug info
+ */
+public class ElfSlimmerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testKeepsOnlySymbolsAndDebugInfo() throws IOException {
+        byte[] symbols = filled(96, 1);
+        byte[] debugInfo = filled(200, 2);
+        File library = new TestElf()
+                .buildId(new byte[] {1, 2, 3, 4})
+                .section(".text", TestElf.SHT_PROGBITS, filled(64 * 1024, 3))
+                .section(".rodata", TestElf.SHT_PROGBITS, filled(16 * 1024, 4))
+                .section(".symtab", TestElf.SHT_SYMTAB, symbols)
+                .section(".strtab", TestElf.SHT_STRTAB, "\0work\0".getBytes())
+                .section(".debug_info", TestElf.SHT_PROGBITS, debugInfo)
+                .write(folder.newFile("libfoo.so"));
+        File slim = folder.newFile("slim.so");
+
+        long size = ElfSlimmer.slim(library, slim);
+
+        Assert.assertEquals(slim.length(), size);
+        Assert.assertTrue(slim.length() * 10 < library.length());
+        ElfFile original = new ElfFile(library);
+        ElfFile slimmed = new ElfFile(slim);
+        Assert.assertEquals("01020304", slimmed.getBuildId());
+        Assert.assertEquals(original.getSections().size(), slimmed.getSections().size());
+        Assert.assertEquals(ElfFile.SHT_NOBITS, slimmed.findSection(".text").type);
+        Assert.assertEquals(64 * 1024, slimmed.findSection(".text").size);
+        Assert.assertEquals(ElfFile.SHT_NOBITS, slimmed.findSection(".rodata").type);
+        Assert.assertEquals(ByteBuffer.wrap(symbols), slimmed.getContents(slimmed.findSection(".symtab")));
+        Assert.assertEquals(ByteBuffer.wrap(debugInfo), slimmed.getContents(slimmed.findSection(".debug_info")));
+        Assert.assertEquals(original.getContents(original.findSection(".strtab")),
+                slimmed.getContents(slimmed.findSection(".strtab")));
+    }
+
+    @Test
+    public void testKeepsDynamicSymbolsWithoutSymtab() throws IOException {
+        byte[] dynamicSymbols = filled(48, 5);
+        File library = new TestElf()
+                .section(".text", TestElf.SHT_PROGBITS, filled(4096, 3))
+                .section(".dynsym", 11, dynamicSymbols)
+                .write(folder.newFile("libstripped.so"));
+        File slim = folder.newFile("slim.so");
+
+        ElfSlimmer.slim(library, slim);
+
+        ElfFile slimmed = new ElfFile(slim);
+        Assert.assertEquals(ByteBuffer.wrap(dynamicSymbols), slimmed.getContents(slimmed.findSection(".dynsym")));
+        Assert.assertEquals(ElfFile.SHT_NOBITS, slimmed.findSection(".text").type);
+    }
+
+    private static byte[] filled(int size, int value) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+}
@@ -0,0 +1,113 @@
+package com.flurry.proguard;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Test archive creation
+ */
+public class MappingArchiveTest {
+
+    @Test
+    public void testComputedLengthMatchesWrittenArchive() throws IOException {
+        MappingArchive archive = new MappingArchive(Collections.singletonList(getResourceFile("mapping.txt")), null);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        archive.writeTo(out);
+
+        Assert.assertEquals(out.size(), archive.computeLength());
+    }
+
+    @Test
+    public void testArchiveContainsMappingFile() throws IOException {
+        File mapping = getResourceFile("mapping.txt");
+        String uuid = UUID.randomUUID().toString();
+        MappingArchive archive = new MappingArchive(Collections.singletonList(mapping), uuid);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        archive.writeTo(out);
+
+        try (TarArchiveInputStream tais = new TarArchiveInputStream(
+                new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())))) {
+            TarArchiveEntry entry = tais.getNextTarEntry();
+            Assert.assertEquals(uuid + ".txt", entry.getName());
+            Assert.assertEquals(mapping.length(), entry.getSize());
+            Assert.assertNull(tais.getNextTarEntry());
+        }
+    }
+
+    @Test
+    public void testParallelArchiveContainsMappingFile() throws IOException {
+        File mapping = getResourceFile("mapping.txt");
+        MappingArchive archive = new MappingArchive(Collections.singletonList(mapping), null, 9, 4);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        archive.writeTo(out);
+
+        Assert.assertEquals(out.size(), archive.computeLength());
+        try (TarArchiveInputStream tais = new TarArchiveInputStream(
+                new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())))) {
+            Assert.assertEquals(mapping.length(), tais.getNextTarEntry().getSize());
+        }
+    }
+
+    @Test
+    public void testBatchArchiveHasDistinctNamesAndManifest() throws IOException {
+        File mapping = getResourceFile("mapping.txt");
+        List<File> files = Arrays.asList(mapping, mapping, mapping, mapping);
+        List<BatchEntry> entries = Arrays.asList(
+                new BatchEntry("free", mapping.getPath(), AndroidUploadType.ANDROID_JAVA),
+                new BatchEntry("paid", mapping.getPath(), AndroidUploadType.ANDROID_JAVA),
+                new BatchEntry("paid", mapping.getPath(), AndroidUploadType.ANDROID_JAVA),
+                new BatchEntry(null, mapping.getPath(), AndroidUploadType.ANDROID_JAVA));
+        MappingArchive archive = MappingArchive.forBatch(files, entries, 9, 1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        archive.writeTo(out);
+        ByteArrayOutputStream again = new ByteArrayOutputStream();
+        MappingArchive.forBatch(files, entries, 9, 1).writeTo(again);
+        Assert.assertArrayEquals(out.toByteArray(), again.toByteArray());
+        Assert.assertEquals(out.size(), archive.computeLength());
+
+        String unnamed = UUID.nameUUIDFromBytes("3/mapping.txt".getBytes(StandardCharsets.UTF_8)) + ".txt";
+        Assert.assertEquals(Arrays.asList("free.txt", "paid.txt", "paid-2.txt", unnamed), archive.getEntryNames());
+        try (TarArchiveInputStream tais = new TarArchiveInputStream(
+                new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())))) {
+            Assert.assertEquals(MappingArchive.MANIFEST, tais.getNextTarEntry().getName());
+            JSONArray manifest = new JSONObject(new String(IOUtils.toByteArray(tais), StandardCharsets.UTF_8))
+                    .getJSONArray("entries");
+            Assert.assertEquals(4, manifest.length());
+            Assert.assertEquals("paid-2.txt", manifest.getJSONObject(2).getString("name"));
+            Assert.assertEquals("paid", manifest.getJSONObject(2).getString("uuid"));
+            Assert.assertEquals("ANDROID", manifest.getJSONObject(2).getString("type"));
+            Assert.assertEquals("mapping.txt", manifest.getJSONObject(2).getString("file"));
+            Assert.assertTrue(manifest.getJSONObject(3).isNull("uuid"));
+            for (String name : archive.getEntryNames()) {
+                TarArchiveEntry entry = tais.getNextTarEntry();
+                Assert.assertEquals(name, entry.getName());
+                Assert.assertEquals(mapping.length(), entry.getSize());
+            }
+            Assert.assertNull(tais.getNextTarEntry());
+        }
+    }
+
+    private File getResourceFile(String resource) {
+        return new File(MappingArchiveTest.class.getClassLoader().getResource(resource).getPath());
+    }
+}
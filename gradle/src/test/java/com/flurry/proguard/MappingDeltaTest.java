@@ -0,0 +1,134 @@
+package com.flurry.proguard;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Test delta mapping uploads
+ */
+public class MappingDeltaTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDeltaReconstructsTheNewMapping() throws IOException {
+        File base = new File(getClass().getResource("/mapping.txt").getFile());
+        List<String> lines = Files.readAllLines(base.toPath(), StandardCharsets.UTF_8);
+        List<String> changedLines = new ArrayList<>(lines);
+        changedLines.set(3, changedLines.get(3).replace(" -> b", " -> z"));
+        changedLines.remove(0);
+        changedLines.add(0, "# compiler: R8");
+        changedLines.add("com.example.NewClass -> com.example.a:");
+        changedLines.add("    void run() -> a");
+        File changed = write("changed.txt", changedLines);
+
+        MappingDelta.Index index = MappingDelta.fingerprint(base).forUpload("upload-1", "uuid-1");
+        File indexFile = new File(folder.getRoot(), "mapping.idx");
+        index.store(indexFile);
+        MappingDelta.Index loaded = MappingDelta.Index.load(indexFile);
+        Assert.assertEquals("upload-1", loaded.uploadId);
+        Assert.assertEquals("uuid-1", loaded.uuid);
+        Assert.assertEquals(index.blocks, loaded.blocks);
+
+        File delta = folder.newFile("delta.txt");
+        MappingDelta.Result result = MappingDelta.write(changed, loaded, delta);
+        // the preamble, the renamed field's class and the new class changed, the identity Keep class was removed
+        Assert.assertEquals(3, result.changed);
+        Assert.assertEquals(1, result.removed);
+        Assert.assertTrue(result.isWorthwhile());
+        Assert.assertTrue(delta.length() * 50 < changed.length());
+        Assert.assertEquals(MappingDelta.fingerprint(changed).blocks, result.index.blocks);
+
+        StringWriter reconstructed = new StringWriter();
+        MappingDelta.reconstruct(new StringReader(String.join("\n", lines)),
+                new StringReader(new String(Files.readAllBytes(delta.toPath()), StandardCharsets.UTF_8)),
+                reconstructed);
+        File rebuilt = write("rebuilt.txt", reconstructed.toString().split("\n"));
+        Assert.assertEquals(blocks(changed), blocks(rebuilt));
+        Assert.assertEquals(MappingDelta.fingerprint(changed).blocks, MappingDelta.fingerprint(rebuilt).blocks);
+    }
+
+    @Test
+    public void testUnchangedMappingHasAnEmptyDelta() throws IOException {
+        File base = new File(getClass().getResource("/mapping.txt").getFile());
+        File delta = folder.newFile("delta.txt");
+        MappingDelta.Result result = MappingDelta.write(base,
+                MappingDelta.fingerprint(base).forUpload("upload-1", "uuid-1"), delta);
+
+        Assert.assertEquals(0, result.changed);
+        Assert.assertEquals(0, result.removed);
+        Assert.assertEquals(MappingDelta.BASE + "upload-1 uuid-1\n",
+                new String(Files.readAllBytes(delta.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testConcurrentStoresLeaveACompleteIndex() throws Exception {
+        File base = new File(getClass().getResource("/mapping.txt").getFile());
+        File dir = folder.newFolder("delta");
+        File indexFile = new File(dir, "delta.idx");
+        MappingDelta.Index index = MappingDelta.fingerprint(base);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> stores = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                String uploadId = "upload-" + i;
+                stores.add(executor.submit(() -> {
+                    index.forUpload(uploadId, "uuid").store(indexFile);
+                    return null;
+                }));
+            }
+            for (Future<?> store : stores) {
+                store.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(index.blocks, MappingDelta.Index.load(indexFile).blocks);
+        Assert.assertArrayEquals(new String[]{"delta.idx"}, dir.list());
+    }
+
+    private File write(String name, List<String> lines) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private File write(String name, String[] lines) throws IOException {
+        return write(name, Arrays.asList(lines));
+    }
+
+    /**
+     * @return the class blocks of a mapping, which may come in any order
+     */
+    private static Set<String> blocks(File mapping) throws IOException {
+        Set<String> blocks = new HashSet<>();
+        StringBuilder block = new StringBuilder();
+        for (String line : Files.readAllLines(mapping.toPath(), StandardCharsets.UTF_8)) {
+            if (!line.startsWith(" ") && !line.startsWith("#") && block.length() > 0) {
+                blocks.add(block.toString());
+                block.setLength(0);
+            }
+            block.append(line).append('\n');
+        }
+        blocks.add(block.toString());
+        return blocks;
+    }
+}
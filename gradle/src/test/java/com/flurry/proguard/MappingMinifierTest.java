@@ -0,0 +1,161 @@
+package com.flurry.proguard;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Test the ProGuard mapping minifier
+ */
+public class MappingMinifierTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMinifiedMappingRetracesTheSame() throws IOException {
+        File mapping = new File(getClass().getResource("/mapping.txt").getFile());
+        File minified = folder.newFile("minified.txt");
+        MappingMinifier minifier = new MappingMinifier();
+        minifier.minify(mapping, minified);
+
+        Assert.assertTrue(minified.length() < mapping.length());
+        Assert.assertTrue(minifier.getLinesWritten() < minifier.getLinesRead());
+        List<String> lines = Files.readAllLines(minified.toPath(), StandardCharsets.UTF_8);
+        Assert.assertFalse(lines.contains("android.support.annotation.Keep -> android.support.annotation.Keep:"));
+        Assert.assertFalse(lines.contains("    void <init>() -> <init>"));
+
+        Map<String, Map<String, Set<String>>> original = parse(Files.readAllLines(mapping.toPath()));
+        Map<String, Map<String, Set<String>>> retraced = parse(lines);
+        for (Map.Entry<String, Map<String, Set<String>>> cls : original.entrySet()) {
+            for (String member : cls.getValue().keySet()) {
+                Assert.assertEquals(cls.getKey() + "." + member,
+                        retrace(original, cls.getKey(), member), retrace(retraced, cls.getKey(), member));
+            }
+        }
+    }
+
+    @Test
+    public void testKeepsLineNumbersCommentsAndAmbiguousNames() throws IOException {
+        String mapping = "# compiler: R8\n"
+                + "a.b.Kept -> a.b.Kept:\n"
+                + "# {\"id\":\"sourceFile\",\"fileName\":\"Kept.kt\"}\n"
+                + "    # {\"id\":\"com.android.tools.r8.synthesized\"}\n"
+                + "a.b.Same -> a.b.Same:\n"
+                + "    int count -> count\n"
+                + "    void run() -> run\n"
+                + "a.b.Lines -> a.b.Lines:\n"
+                + "    1:3:void run():10:12 -> run\n"
+                + "a.b.Clash -> a.b.c:\n"
+                + "    void run() -> run\n"
+                + "    void stop() -> run\n"
+                + "    void start() -> start\n";
+        StringWriter out = new StringWriter();
+        new MappingMinifier().minify(new StringReader(mapping), out);
+
+        Assert.assertEquals("# compiler: R8\n"
+                + "a.b.Kept -> a.b.Kept:\n"
+                + "# {\"id\":\"sourceFile\",\"fileName\":\"Kept.kt\"}\n"
+                + "    # {\"id\":\"com.android.tools.r8.synthesized\"}\n"
+                + "a.b.Lines -> a.b.Lines:\n"
+                + "    1:3:void run():10:12 -> run\n"
+                + "a.b.Clash -> a.b.c:\n"
+                + "    void stop() -> run\n"
+                + "    void run() -> run\n", out.toString());
+    }
+
+    @Test
+    public void testClassCommentsStayWithTheirClass() throws IOException {
+        String mapping = "a.Foo -> a.a:\n"
+                + "# {\"id\":\"sourceFile\",\"fileName\":\"Foo.java\"}\n"
+                + "    int x -> a\n"
+                + "a.Same -> a.Same:\n"
+                + "# {\"id\":\"sourceFile\",\"fileName\":\"Same.java\"}\n"
+                + "    int y -> y\n"
+                + "b.Keep -> b.Keep:\n"
+                + "# {\"id\":\"sourceFile\",\"fileName\":\"Keep.java\"}\n"
+                + "    void foo() -> b\n";
+        StringWriter out = new StringWriter();
+        new MappingMinifier().minify(new StringReader(mapping), out);
+
+        Assert.assertEquals("a.Foo -> a.a:\n"
+                + "# {\"id\":\"sourceFile\",\"fileName\":\"Foo.java\"}\n"
+                + "    int x -> a\n"
+                + "a.Same -> a.Same:\n"
+                + "# {\"id\":\"sourceFile\",\"fileName\":\"Same.java\"}\n"
+                + "b.Keep -> b.Keep:\n"
+                + "# {\"id\":\"sourceFile\",\"fileName\":\"Keep.java\"}\n"
+                + "    void foo() -> b\n", out.toString());
+    }
+
+    @Test
+    public void testKeepsMetadataOfUnchangedClassesAndMembers() throws IOException {
+        String mapping = "a.Synthetic -> a.Synthetic:\n"
+                + "# {\"id\":\"com.android.tools.r8.synthesized\"}\n"
+                + "    void run() -> run\n"
+                + "a.Same -> a.Same:\n"
+                + "    void run() -> run\n"
+                + "    void lambda$run$0() -> lambda$run$0\n"
+                + "    # {\"id\":\"com.android.tools.r8.synthesized\"}\n"
+                + "    void stop() -> stop\n"
+                + "a.Plain -> a.Plain:\n"
+                + "    void run() -> run\n";
+        StringWriter out = new StringWriter();
+        new MappingMinifier().minify(new StringReader(mapping), out);
+
+        Assert.assertEquals("a.Synthetic -> a.Synthetic:\n"
+                + "# {\"id\":\"com.android.tools.r8.synthesized\"}\n"
+                + "a.Same -> a.Same:\n"
+                + "    void lambda$run$0() -> lambda$run$0\n"
+                + "    # {\"id\":\"com.android.tools.r8.synthesized\"}\n", out.toString());
+    }
+
+    /**
+     * @return obfuscated class name to obfuscated member name to original member names
+     */
+    private static Map<String, Map<String, Set<String>>> parse(List<String> lines) {
+        Map<String, Map<String, Set<String>>> classes = new HashMap<>();
+        Map<String, Set<String>> members = null;
+        for (String line : lines) {
+            if (line.startsWith("#") || !line.contains(" -> ")) {
+                continue;
+            }
+            String[] parts = line.trim().split(" -> ");
+            if (!line.startsWith(" ")) {
+                members = new HashMap<>();
+                classes.put(parts[1].substring(0, parts[1].length() - 1), members);
+                members.put("", Collections.singleton(parts[0]));
+            } else {
+                members.computeIfAbsent(parts[1], name -> new HashSet<>()).add(parts[0]);
+            }
+        }
+        return classes;
+    }
+
+    private static Set<String> retrace(Map<String, Map<String, Set<String>>> classes, String cls, String member) {
+        Map<String, Set<String>> members = classes.getOrDefault(cls, Collections.emptyMap());
+        Set<String> originals = new HashSet<>();
+        for (String original : members.getOrDefault(member, Collections.emptySet())) {
+            int paren = original.indexOf('(');
+            String name = original.substring(0, paren < 0 ? original.length() : paren);
+            originals.add(name.substring(name.lastIndexOf(' ') + 1));
+        }
+        if (originals.isEmpty()) {
+            originals.add(member.isEmpty() ? cls : member);
+        }
+        return originals;
+    }
+}
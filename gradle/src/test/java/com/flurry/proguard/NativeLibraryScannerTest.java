@@ -0,0 +1,81 @@
+package com.flurry.proguard;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test finding the native libraries to upload
+ */
+public class NativeLibraryScannerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSkipsDuplicatesStrippedLibrariesAndOtherFiles() throws IOException {
+        File free = folder.newFolder("free");
+        File paid = folder.newFolder("paid");
+        library(free, "arm64-v8a/libfoo.so", new byte[] {1});
+        library(paid, "arm64-v8a/libfoo.so", new byte[] {1});
+        library(free, "x86/libfoo.so", new byte[] {2});
+        new TestElf().section(".text", TestElf.SHT_PROGBITS, new byte[16])
+                .write(new File(folder.newFolder("free", "x86_64"), "libstripped.so"));
+        Files.write(new File(free, "x86/notes.so").toPath(), "not a library".getBytes());
+        Files.write(new File(free, "x86/libtruncated.so").toPath(), new byte[] {0x7f, 'E', 'L', 'F', 2, 1, 1});
+
+        NativeLibraryScanner scanner = new NativeLibraryScanner(Collections.emptyList());
+        List<File> files = scanner.scan(Arrays.asList(free, paid, new File(folder.getRoot(), "missing")));
+
+        Assert.assertEquals(Arrays.asList(new File(free, "arm64-v8a/libfoo.so"), new File(free, "x86/libfoo.so")),
+                files);
+        Assert.assertEquals(1, scanner.getDuplicates());
+        Assert.assertEquals(1, scanner.getStripped());
+        Assert.assertEquals(1, scanner.getMalformed());
+    }
+
+    @Test
+    public void testLibrariesWithoutBuildIdAreMatchedByContents() throws IOException {
+        File root = folder.newFolder("obj");
+        byte[] symbols = new byte[32];
+        new TestElf().section(".symtab", TestElf.SHT_SYMTAB, symbols)
+                .write(new File(folder.newFolder("obj", "armeabi-v7a"), "libbar.so"));
+        new TestElf().section(".symtab", TestElf.SHT_SYMTAB, symbols)
+                .write(new File(folder.newFolder("obj", "x86"), "libbar.so"));
+        symbols[0] = 1;
+        new TestElf().section(".symtab", TestElf.SHT_SYMTAB, symbols)
+                .write(new File(folder.newFolder("obj", "x86_64"), "libbar.so"));
+
+        List<File> files = new NativeLibraryScanner(Collections.emptyList()).scan(Collections.singletonList(root));
+
+        Assert.assertEquals(Arrays.asList(new File(root, "armeabi-v7a/libbar.so"), new File(root, "x86_64/libbar.so")),
+                files);
+    }
+
+    @Test
+    public void testFiltersByAbi() throws IOException {
+        File root = folder.newFolder("obj");
+        library(root, "arm64-v8a/libfoo.so", new byte[] {1});
+        library(root, "x86/libfoo.so", new byte[] {2});
+
+        List<File> files = new NativeLibraryScanner(Collections.singletonList("x86"))
+                .scan(Collections.singletonList(root));
+
+        Assert.assertEquals(Collections.singletonList(new File(root, "x86/libfoo.so")), files);
+    }
+
+    private static void library(File root, String path, byte[] buildId) throws IOException {
+        File file = new File(root, path);
+        Assert.assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        new TestElf().buildId(buildId)
+                .section(".symtab", TestElf.SHT_SYMTAB, new byte[24])
+                .write(file);
+    }
+}
@@ -0,0 +1,113 @@
+package com.flurry.proguard;
+
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Test parallel gzip compression
+ */
+public class ParallelGzipOutputStreamTest {
+    private static final int BLOCK_SIZE = 4096;
+
+    @Test
+    public void testRoundTripAcrossBlocks() throws IOException {
+        byte[] input = randomText(BLOCK_SIZE * 5 + 123);
+
+        byte[] compressed = compress(input, 4);
+
+        Assert.assertArrayEquals(input, decompress(compressed));
+    }
+
+    @Test
+    public void testOutputDoesNotDependOnThreadCount() throws IOException {
+        byte[] input = randomText(BLOCK_SIZE * 7);
+
+        Assert.assertArrayEquals(compress(input, 2), compress(input, 8));
+    }
+
+    @Test
+    public void testEmptyInputIsValidGzip() throws IOException {
+        Assert.assertEquals(0, decompress(compress(new byte[0], 2)).length);
+    }
+
+    @Test
+    public void testFailedFinishShutsDownThePool() throws IOException {
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        ParallelGzipOutputStream gzip =
+                new ParallelGzipOutputStream(broken, Deflater.DEFAULT_COMPRESSION, 2, BLOCK_SIZE);
+        gzip.write(randomText(BLOCK_SIZE / 2));
+
+        try {
+            gzip.finish();
+            Assert.fail("finish should fail");
+        } catch (IOException e) {
+            Assert.assertTrue(gzip.isShutdown());
+        }
+        try {
+            gzip.close();
+            Assert.fail("close should not pretend the output is complete");
+        } catch (IOException e) {
+            Assert.assertEquals("Compression already failed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testFailedCloseShutsDownThePool() {
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        ParallelGzipOutputStream gzip =
+                new ParallelGzipOutputStream(broken, Deflater.DEFAULT_COMPRESSION, 2, BLOCK_SIZE);
+
+        try {
+            gzip.close();
+            Assert.fail("close should fail");
+        } catch (IOException e) {
+            Assert.assertTrue(gzip.isShutdown());
+        }
+    }
+
+    private byte[] compress(byte[] input, int threads) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream gzip =
+                     new ParallelGzipOutputStream(out, Deflater.DEFAULT_COMPRESSION, threads, BLOCK_SIZE)) {
+            // Uneven writes make sure blocks are split independently of the caller's buffer sizes
+            for (int off = 0; off < input.length; off += 1000) {
+                gzip.write(input, off, Math.min(1000, input.length - off));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] decompress(byte[] compressed) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    private byte[] randomText(int size) {
+        Random random = new Random(42);
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,49 @@
+package com.flurry.proguard;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test the record of uploads waiting to be verified
+ */
+public class PendingUploadsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPendingUploadsArePersisted() throws IOException {
+        File directory = folder.newFolder("pending");
+        PendingUploads pending = new PendingUploads(directory, "FOO_API_KEY");
+        pending.add(new UploadResult(AndroidUploadType.ANDROID_NATIVE, "12", "34", 1000, 2, false),
+                Arrays.asList("ANDROID_NATIVE/build-id:ab", "ANDROID_NATIVE/build-id:cd"));
+        pending.add(new UploadResult(AndroidUploadType.ANDROID_JAVA, "12", "56", 10, 1, false),
+                Collections.emptyList());
+
+        List<PendingUploads.Entry> entries = new PendingUploads(directory, "FOO_API_KEY").list();
+        Assert.assertEquals(2, entries.size());
+        PendingUploads.Entry entry = entries.stream()
+                .filter(e -> e.upload.getUploadId().equals("34")).findFirst().get();
+        Assert.assertEquals("12", entry.upload.getProjectId());
+        Assert.assertEquals(AndroidUploadType.ANDROID_NATIVE, entry.upload.getUploadType());
+        Assert.assertEquals(1000, entry.upload.getArchiveSize());
+        Assert.assertEquals(2, entry.upload.getFileCount());
+        Assert.assertFalse(entry.upload.isProcessed());
+        Assert.assertEquals(Arrays.asList("ANDROID_NATIVE/build-id:ab", "ANDROID_NATIVE/build-id:cd"),
+                entry.cacheKeys);
+        Assert.assertTrue(new PendingUploads(directory, "OTHER_API_KEY").list().isEmpty());
+
+        pending.remove("34");
+        entries = pending.list();
+        Assert.assertEquals(1, entries.size());
+        Assert.assertEquals("56", entries.get(0).upload.getUploadId());
+        Assert.assertTrue(entries.get(0).cacheKeys.isEmpty());
+    }
+}
@@ -0,0 +1,55 @@
+package com.flurry.proguard;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test the project id lookup cache
+ */
+public class ProjectIdCacheTest {
+    private static final String API_KEY = "FOO_API_KEY";
+    private static final long ONE_HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void clearMemory() {
+        ProjectIdCache.clearMemory();
+    }
+
+    @Test
+    public void testLookupsAreSharedThroughTheFile() {
+        File file = new File(folder.getRoot(), "projects.properties");
+        new ProjectIdCache(file, ONE_HOUR).put(API_KEY, "1234");
+        ProjectIdCache.clearMemory();
+
+        Assert.assertEquals("1234", new ProjectIdCache(file, ONE_HOUR).get(API_KEY));
+        Assert.assertNull(new ProjectIdCache(file, ONE_HOUR).get("OTHER_API_KEY"));
+    }
+
+    @Test
+    public void testInvalidateRemovesEntry() {
+        File file = new File(folder.getRoot(), "projects.properties");
+        ProjectIdCache cache = new ProjectIdCache(file, ONE_HOUR);
+        cache.put(API_KEY, "1234");
+        cache.invalidate(API_KEY);
+
+        Assert.assertNull(cache.get(API_KEY));
+        Assert.assertNull(new ProjectIdCache(file, ONE_HOUR).get(API_KEY));
+    }
+
+    @Test
+    public void testZeroTtlDisablesCache() {
+        ProjectIdCache cache = new ProjectIdCache(null, 0);
+        cache.put(API_KEY, "1234");
+
+        Assert.assertNull(cache.get(API_KEY));
+    }
+}
@@ -0,0 +1,91 @@
+package com.flurry.proguard;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test retrying requests which fail in ways that may go away
+ */
+public class RetryPolicyTest {
+
+    @Test
+    public void testBackoffDoublesWithJitterUpToTheMaximum() {
+        RetryPolicy policy = new RetryPolicy("lookup", true, 5, 100, 1000);
+        for (int i = 0; i < 100; i++) {
+            long first = policy.delayMs(1, -1);
+            Assert.assertTrue(first >= 50 && first <= 100);
+            long second = policy.delayMs(2, -1);
+            Assert.assertTrue(second >= 100 && second <= 200);
+            long capped = policy.delayMs(10, -1);
+            Assert.assertTrue(capped >= 500 && capped <= 1000);
+        }
+    }
+
+    @Test
+    public void testRetryAfterIsWaitedUpToTheMaximum() {
+        RetryPolicy policy = new RetryPolicy("lookup", true, 5, 100, 1000);
+        Assert.assertEquals(700, policy.delayMs(1, 700));
+        Assert.assertEquals(1000, policy.delayMs(1, 60_000));
+    }
+
+    @Test
+    public void testRetryAfterIsReadAsSecondsOrADate() {
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 503, "Service Unavailable");
+        Assert.assertEquals(-1, HttpStatusException.retryAfterMs(response));
+
+        response.setHeader("Retry-After", "2");
+        Assert.assertEquals(2000, HttpStatusException.retryAfterMs(response));
+
+        response.setHeader("Retry-After", DateUtils.formatDate(new Date(System.currentTimeMillis() + 60_000)));
+        long retryAfterMs = HttpStatusException.retryAfterMs(response);
+        Assert.assertTrue(retryAfterMs > 55_000 && retryAfterMs <= 60_000);
+    }
+
+    @Test
+    public void testOnlyUnsentOrRefusedRequestsAreRetriedWhenNotIdempotent() {
+        RetryPolicy idempotent = new RetryPolicy("lookup", true, 3, 1, 1);
+        RetryPolicy registration = new RetryPolicy("registration", false, 3, 1, 1);
+
+        for (RetryPolicy policy : new RetryPolicy[]{idempotent, registration}) {
+            Assert.assertTrue(policy.isRetryable(new ConnectException("refused")));
+            Assert.assertTrue(policy.isRetryable(new HttpStatusException(503, -1, "unavailable")));
+            Assert.assertTrue(policy.isRetryable(new HttpStatusException(429, -1, "too many requests")));
+            Assert.assertFalse(policy.isRetryable(new HttpStatusException(400, -1, "bad request")));
+        }
+        Assert.assertTrue(idempotent.isRetryable(new SocketTimeoutException("read timed out")));
+        Assert.assertTrue(idempotent.isRetryable(new HttpStatusException(502, -1, "bad gateway")));
+        Assert.assertFalse(registration.isRetryable(new SocketTimeoutException("read timed out")));
+        Assert.assertFalse(registration.isRetryable(new HttpStatusException(502, -1, "bad gateway")));
+    }
+
+    @Test
+    public void testGivesUpAfterTheLastRetry() {
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger retries = new AtomicInteger();
+        UploadListener listener = new UploadListener() {
+            @Override
+            public void retried(String operation, int attempt, Throwable failure) {
+                Assert.assertEquals("lookup", operation);
+                Assert.assertEquals(retries.incrementAndGet(), attempt);
+            }
+        };
+        try {
+            new RetryPolicy("lookup", true, 2, 1, 1).run(() -> {
+                throw new HttpStatusException(500, -1, "attempt " + attempts.incrementAndGet());
+            }, listener);
+            Assert.fail("The last failure should be thrown");
+        } catch (IOException e) {
+            Assert.assertEquals("attempt 3", e.getMessage());
+        }
+        Assert.assertEquals(2, retries.get());
+    }
+}
@@ -0,0 +1,425 @@
+package com.flurry.proguard;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-process stand-in for Flurry's metadata and upload services, so uploads can be tested and measured without
+ * credentials or network. It answers project lookups, creates uploads, takes their bytes in one or more ranges and
+ * reports them processed once every byte arrived and the processing delay passed.
+ *
+ * <p>Every response can be delayed by a fixed latency, request bodies are read no faster than a bandwidth shared by
+ * all requests, like a single network link, and a share of requests, or the next few sent to either service,
+ * can be answered with a 503 instead, optionally with a Retry-After header. A share of requests, or the next few
+ * sent to the metadata service, can also be held back for longer, to measure how slow answers are hedged. The next
+ * few requests to the upload service can be rejected with any status, eg. a 401 or 403.
+ */
+class StubFlurryServer implements Closeable {
+    private static final Pattern PROJECT_UPLOADS = Pattern.compile("/pulse/v1/project/([^/]+)/uploads");
+    private static final Pattern PROJECT_UPLOAD = Pattern.compile("/pulse/v1/project/([^/]+)/uploads/([^/]+)");
+    private static final Pattern UPLOAD = Pattern.compile("/upload/v1/upload/([^/]+)/([^/]+)");
+    private static final Pattern RANGE = Pattern.compile("bytes (\\d+)-(\\d+)");
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "stub-flurry-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, String> projects = new ConcurrentHashMap<>();
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger injectedErrors = new AtomicInteger();
+    private final AtomicInteger projectLookups = new AtomicInteger();
+    private final AtomicInteger failingUploadRequests = new AtomicInteger();
+    private final AtomicInteger failingMetadataRequests = new AtomicInteger();
+    private final AtomicInteger rejectedUploadRequests = new AtomicInteger();
+    private final AtomicInteger slowMetadataRequests = new AtomicInteger();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    private volatile long latencyMs;
+    private volatile long bandwidthBytesPerSecond;
+    private volatile double errorRate;
+    private volatile long retryAfterSeconds = -1;
+    private volatile int rejectionStatus;
+    private volatile double slowRequestRate;
+    private volatile long slowRequestMs;
+    private volatile long processingDelayMs;
+    private volatile String processingFailure;
+    private long linkFreeAt;
+
+    StubFlurryServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * @param latencyMs how long to wait before answering each request
+     */
+    StubFlurryServer setLatencyMs(long latencyMs) {
+        this.latencyMs = latencyMs;
+        return this;
+    }
+
+    /**
+     * @param bandwidthBytesPerSecond how fast request bodies are read across all requests, 0 for no limit
+     */
+    StubFlurryServer setBandwidthBytesPerSecond(long bandwidthBytesPerSecond) {
+        this.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+        return this;
+    }
+
+    /**
+     * @param errorRate the share of requests answered with a 503, from 0 to 1
+     */
+    StubFlurryServer setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * @param requests the number of upcoming requests to the upload service to answer with a 503
+     */
+    StubFlurryServer failNextUploadRequests(int requests) {
+        failingUploadRequests.set(requests);
+        return this;
+    }
+
+    /**
+     * @param requests the number of upcoming requests to the metadata service to answer with a 503
+     */
+    StubFlurryServer failNextMetadataRequests(int requests) {
+        failingMetadataRequests.set(requests);
+        return this;
+    }
+
+    /**
+     * @param requests the number of upcoming requests to the upload service to reject
+     * @param status the status to reject them with
+     */
+    StubFlurryServer rejectNextUploadRequests(int requests, int status) {
+        rejectionStatus = status;
+        rejectedUploadRequests.set(requests);
+        return this;
+    }
+
+    /**
+     * @param retryAfterSeconds the Retry-After header sent with every injected 503, or -1 to send none
+     */
+    StubFlurryServer setRetryAfterSeconds(long retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    /**
+     * @param rate the share of requests held back, from 0 to 1
+     * @param delayMs how much longer those requests are held back than the latency
+     */
+    StubFlurryServer setSlowRequests(double rate, long delayMs) {
+        this.slowRequestRate = rate;
+        this.slowRequestMs = delayMs;
+        return this;
+    }
+
+    /**
+     * @param requests the number of upcoming requests to the metadata service to hold back
+     * @param delayMs how much longer those requests are held back than the latency
+     */
+    StubFlurryServer slowNextMetadataRequests(int requests, long delayMs) {
+        slowMetadataRequests.set(requests);
+        this.slowRequestMs = delayMs;
+        return this;
+    }
+
+    /**
+     * @param processingDelayMs how long an upload stays processing once all its bytes arrived
+     */
+    StubFlurryServer setProcessingDelayMs(long processingDelayMs) {
+        this.processingDelayMs = processingDelayMs;
+        return this;
+    }
+
+    /**
+     * @param reason fail the processing of every upload with this reason, or null to complete them
+     */
+    StubFlurryServer setProcessingFailure(String reason) {
+        this.processingFailure = reason;
+        return this;
+    }
+
+    String getMetadataBase() {
+        return baseUrl() + "/pulse/v1";
+    }
+
+    String getUploadBase() {
+        return baseUrl() + "/upload/v1";
+    }
+
+    /**
+     * @return a session talking to this server
+     */
+    UploadSession newSession() {
+        return new UploadSession(getMetadataBase(), getUploadBase(), UploadSession.DEFAULT_MAX_CONNECTIONS_PER_ROUTE,
+                UploadSession.DEFAULT_MAX_CONNECTIONS_TOTAL, UploadSession.DEFAULT_KEEP_ALIVE_MS, null);
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+
+    int getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    int getProjectLookups() {
+        return projectLookups.get();
+    }
+
+    long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * @return the number of uploads which received all their bytes
+     */
+    int getCompletedUploads() {
+        return (int) uploads.values().stream().filter(upload -> upload.completedAt > 0).count();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            byte[] body = readBody(exchange.getRequestBody());
+            boolean metadata = exchange.getRequestURI().getPath().startsWith("/pulse/");
+            sleep(latencyMs);
+            if ((slowRequestRate > 0 && ThreadLocalRandom.current().nextDouble() < slowRequestRate)
+                    || (metadata && takeOne(slowMetadataRequests))) {
+                sleep(slowRequestMs);
+            }
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization == null || !authorization.startsWith("Bearer ")) {
+                respond(exchange, 401, new JSONObject().put("errors", "Missing token"));
+            } else if ((errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate)
+                    || takeOne(metadata ? failingMetadataRequests : failingUploadRequests)) {
+                injectedErrors.incrementAndGet();
+                if (retryAfterSeconds >= 0) {
+                    exchange.getResponseHeaders().set("Retry-After", Long.toString(retryAfterSeconds));
+                }
+                respond(exchange, 503, new JSONObject().put("errors", "Injected failure"));
+            } else if (!metadata && takeOne(rejectedUploadRequests)) {
+                respond(exchange, rejectionStatus, new JSONObject().put("errors", "Injected rejection"));
+            } else {
+                route(exchange, body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange, byte[] body) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        Matcher matcher;
+        if (method.equals("GET") && path.equals("/pulse/v1/project")) {
+            lookUpProject(exchange);
+        } else if (method.equals("POST") && (matcher = PROJECT_UPLOADS.matcher(path)).matches()) {
+            createUpload(exchange, matcher.group(1), body);
+        } else if (method.equals("GET") && (matcher = PROJECT_UPLOAD.matcher(path)).matches()) {
+            uploadStatus(exchange, matcher.group(1), matcher.group(2));
+        } else if (method.equals("POST") && (matcher = UPLOAD.matcher(path)).matches()) {
+            receive(exchange, matcher.group(1), matcher.group(2), body);
+        } else {
+            respond(exchange, 404, new JSONObject().put("errors", "No route for " + method + " " + path));
+        }
+    }
+
+    private void lookUpProject(HttpExchange exchange) throws IOException {
+        projectLookups.incrementAndGet();
+        String apiKey = null;
+        String query = exchange.getRequestURI().getRawQuery();
+        for (String parameter : query != null ? query.split("&") : new String[0]) {
+            String[] nameAndValue = parameter.split("=", 2);
+            if (nameAndValue.length == 2
+                    && URLDecoder.decode(nameAndValue[0], "UTF-8").equals("filter[project.apiKey]")) {
+                apiKey = URLDecoder.decode(nameAndValue[1], "UTF-8");
+            }
+        }
+        JSONArray data = new JSONArray();
+        if (apiKey != null) {
+            String projectId = projects.computeIfAbsent(apiKey, key -> String.valueOf(ids.incrementAndGet()));
+            data.put(new JSONObject().put("type", "project").put("id", projectId));
+        }
+        respond(exchange, 200, new JSONObject().put("data", data));
+    }
+
+    private void createUpload(HttpExchange exchange, String projectId, byte[] body) throws IOException {
+        if (!projects.containsValue(projectId)) {
+            respond(exchange, 404, new JSONObject().put("errors", "No project " + projectId));
+            return;
+        }
+        JSONObject attributes = new JSONObject(new String(body, StandardCharsets.UTF_8))
+                .getJSONObject("data").getJSONObject("attributes");
+        String uploadId = String.valueOf(ids.incrementAndGet());
+        uploads.put(uploadId, new Upload(projectId, attributes.getLong("contentLength")));
+        respond(exchange, 201, new JSONObject().put("data", new JSONObject()
+                .put("type", "upload")
+                .put("id", uploadId)));
+    }
+
+    private void uploadStatus(HttpExchange exchange, String projectId, String uploadId) throws IOException {
+        Upload upload = uploads.get(uploadId);
+        if (upload == null || !upload.projectId.equals(projectId)) {
+            respond(exchange, 404, new JSONObject().put("errors", "No upload " + uploadId));
+            return;
+        }
+        JSONObject attributes = new JSONObject();
+        long completedAt = upload.completedAt;
+        if (completedAt == 0) {
+            attributes.put("uploadStatus", "PENDING");
+        } else if (System.nanoTime() - completedAt < TimeUnit.MILLISECONDS.toNanos(processingDelayMs)) {
+            attributes.put("uploadStatus", "PROCESSING");
+        } else if (processingFailure != null) {
+            attributes.put("uploadStatus", "FAILED").put("failureReason", processingFailure);
+        } else {
+            attributes.put("uploadStatus", "COMPLETED");
+        }
+        respond(exchange, 200, new JSONObject().put("data", new JSONObject()
+                .put("type", "upload")
+                .put("id", uploadId)
+                .put("attributes", attributes)));
+    }
+
+    private void receive(HttpExchange exchange, String projectId, String uploadId, byte[] body) throws IOException {
+        Upload upload = uploads.get(uploadId);
+        if (upload == null || !upload.projectId.equals(projectId)) {
+            respond(exchange, 404, new JSONObject().put("errors", "No upload " + uploadId));
+            return;
+        }
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        Matcher matcher = range != null ? RANGE.matcher(range) : null;
+        if (matcher == null || !matcher.matches()
+                || Long.parseLong(matcher.group(2)) - Long.parseLong(matcher.group(1)) + 1 != body.length) {
+            respond(exchange, 400, new JSONObject().put("errors", "Bad range " + range));
+            return;
+        }
+        boolean complete = upload.receive(Long.parseLong(matcher.group(1)), body.length);
+        respond(exchange, complete ? 201 : 202, new JSONObject());
+    }
+
+    /**
+     * Read a request body no faster than the shared bandwidth allows
+     */
+    private byte[] readBody(InputStream in) throws IOException, InterruptedException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+            bytesReceived.addAndGet(read);
+            throttle(read);
+        }
+        return body.toByteArray();
+    }
+
+    private void throttle(int bytes) throws InterruptedException {
+        long bandwidth = bandwidthBytesPerSecond;
+        if (bandwidth <= 0) {
+            return;
+        }
+        long sentAt;
+        synchronized (this) {
+            linkFreeAt = Math.max(linkFreeAt, System.nanoTime()) + TimeUnit.SECONDS.toNanos(bytes) / bandwidth;
+            sentAt = linkFreeAt;
+        }
+        long wait = sentAt - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * @return true if the counter was above 0, counting it down
+     */
+    private static boolean takeOne(AtomicInteger counter) {
+        return counter.getAndUpdate(count -> Math.max(0, count - 1)) > 0;
+    }
+
+    private static void sleep(long ms) throws InterruptedException {
+        if (ms > 0) {
+            Thread.sleep(ms);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, JSONObject json) throws IOException {
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/vnd.api+json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static class Upload {
+        final String projectId;
+        final long contentLength;
+        final Map<Long, Integer> ranges = new HashMap<>();
+        volatile long completedAt;
+
+        Upload(String projectId, long contentLength) {
+            this.projectId = projectId;
+            this.contentLength = contentLength;
+        }
+
+        /**
+         * Record a range of the archive, a range sent again replaces the earlier copy
+         *
+         * @return true once every byte of the archive arrived
+         */
+        synchronized boolean receive(long start, int length) {
+            ranges.put(start, length);
+            long received = ranges.values().stream().mapToLong(Integer::longValue).sum();
+            if (received >= contentLength && completedAt == 0) {
+                completedAt = System.nanoTime();
+            }
+            return completedAt != 0;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.flurry.proguard;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds small little endian ELF64 shared objects for tests
+ */
+class TestElf {
+    static final int SHT_PROGBITS = 1;
+    static final int SHT_SYMTAB = 2;
+    static final int SHT_STRTAB = 3;
+
+    private final List<String> names = new ArrayList<>();
+    private final List<Integer> types = new ArrayList<>();
+    private final List<byte[]> contents = new ArrayList<>();
+
+    TestElf section(String name, int type, byte[] data) {
+        names.add(name);
+        types.add(type);
+        contents.add(data);
+        return this;
+    }
+
+    TestElf buildId(byte[] id) {
+        ByteBuffer note = ByteBuffer.allocate(16 + id.length).order(ByteOrder.LITTLE_ENDIAN);
+        note.putInt(4).putInt(id.length).putInt(3).put("GNU\0".getBytes(StandardCharsets.US_ASCII)).put(id);
+        return section(".note.gnu.build-id", ElfFile.SHT_NOTE, note.array());
+    }
+
+    File write(File file) throws IOException {
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        names.write(0);
+        List<Integer> nameOffsets = new ArrayList<>();
+        for (String name : this.names) {
+            nameOffsets.add(names.size());
+            names.write(name.getBytes(StandardCharsets.US_ASCII));
+            names.write(0);
+        }
+        int shstrtabName = names.size();
+        names.write(".shstrtab\0".getBytes(StandardCharsets.US_ASCII));
+        byte[] shstrtab = names.toByteArray();
+
+        List<Integer> offsets = new ArrayList<>();
+        int position = 64;
+        for (byte[] data : contents) {
+            offsets.add(position);
+            position += (data.length + 7) & ~7;
+        }
+        int shstrtabOffset = position;
+        position += (shstrtab.length + 7) & ~7;
+        int sectionCount = contents.size() + 2;
+
+        ByteBuffer elf = ByteBuffer.allocate(position + sectionCount * 64).order(ByteOrder.LITTLE_ENDIAN);
+        elf.put(new byte[] {0x7f, 'E', 'L', 'F', 2, 1, 1});
+        elf.putShort(16, (short) 3);
+        elf.putShort(18, (short) 183);
+        elf.putLong(0x28, position);
+        elf.putShort(0x34, (short) 64);
+        elf.putShort(0x3a, (short) 64);
+        elf.putShort(0x3c, (short) sectionCount);
+        elf.putShort(0x3e, (short) (sectionCount - 1));
+        for (int i = 0; i < contents.size(); i++) {
+            elf.position(offsets.get(i));
+            elf.put(contents.get(i));
+            sectionHeader(elf, position + (i + 1) * 64, nameOffsets.get(i), types.get(i), offsets.get(i),
+                    contents.get(i).length);
+        }
+        elf.position(shstrtabOffset);
+        elf.put(shstrtab);
+        sectionHeader(elf, position + (sectionCount - 1) * 64, shstrtabName, SHT_STRTAB, shstrtabOffset,
+                shstrtab.length);
+        Files.write(file.toPath(), elf.array());
+        return file;
+    }
+
+    private static void sectionHeader(ByteBuffer elf, int at, int name, int type, long offset, long size) {
+        elf.putInt(at, name);
+        elf.putInt(at + 4, type);
+        elf.putLong(at + 24, offset);
+        elf.putLong(at + 32, size);
+        elf.putLong(at + 48, 1);
+    }
+}
@@ -0,0 +1,87 @@
+package com.flurry.proguard;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Properties;
+
+/**
+ * Test the upload dedup cache
+ */
+public class UploadCacheTest {
+    private static final String API_KEY = "FOO_API_KEY";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testUploadsArePersisted() throws IOException {
+        File cacheDir = folder.newFolder("cache");
+        File mapping = writeFile("mapping.txt", "a.b.C -> a.a:");
+
+        UploadCache cache = new UploadCache(cacheDir, API_KEY, 60_000);
+        String key = cache.cacheKey(mapping, "uuid-1", AndroidUploadType.ANDROID_JAVA);
+        Assert.assertFalse(cache.isUploaded(key));
+        cache.markUploaded(Collections.singletonList(key));
+
+        UploadCache reopened = new UploadCache(cacheDir, API_KEY, 60_000);
+        Assert.assertTrue(reopened.isUploaded(key));
+        Assert.assertFalse(new UploadCache(cacheDir, "OTHER_API_KEY", 60_000).isUploaded(key));
+    }
+
+    @Test
+    public void testMappingKeysIncludeTheUuid() throws IOException {
+        File mapping = writeFile("mapping.txt", "a.b.C -> a.a:");
+        UploadCache cache = new UploadCache(folder.newFolder("cache"), API_KEY, 60_000);
+
+        Assert.assertNotEquals(cache.cacheKey(mapping, "uuid-1", AndroidUploadType.ANDROID_JAVA),
+                cache.cacheKey(mapping, "uuid-2", AndroidUploadType.ANDROID_JAVA));
+        Assert.assertEquals(cache.cacheKey(mapping, null, AndroidUploadType.ANDROID_NATIVE),
+                cache.cacheKey(writeFile("copy.so", "a.b.C -> a.a:"), null, AndroidUploadType.ANDROID_NATIVE));
+    }
+
+    @Test
+    public void testEntriesExpire() throws IOException {
+        File mapping = writeFile("mapping.txt", "a.b.C -> a.a:");
+        UploadCache cache = new UploadCache(folder.newFolder("cache"), API_KEY, -1);
+        String key = cache.cacheKey(mapping, "uuid-1", AndroidUploadType.ANDROID_JAVA);
+        cache.markUploaded(Collections.singletonList(key));
+
+        Assert.assertFalse(cache.isUploaded(key));
+    }
+
+    @Test
+    public void testCorruptEntriesAreMisses() throws IOException {
+        File cacheDir = folder.newFolder("cache");
+        File mapping = writeFile("mapping.txt", "a.b.C -> a.a:");
+        String key = new UploadCache(cacheDir, API_KEY, 60_000)
+                .cacheKey(mapping, "uuid-1", AndroidUploadType.ANDROID_JAVA);
+        Properties corrupt = new Properties();
+        corrupt.setProperty(key, "yesterday");
+        PropertiesFile.store(corrupt, new File(cacheDir, UploadCache.sha256(API_KEY) + ".properties"), null);
+
+        UploadCache cache = new UploadCache(cacheDir, API_KEY, 60_000);
+        Assert.assertFalse(cache.isUploaded(key));
+        cache.markUploaded(Collections.singletonList(key));
+        Assert.assertTrue(new UploadCache(cacheDir, API_KEY, 60_000).isUploaded(key));
+    }
+
+    @Test
+    public void testContentHash() throws IOException {
+        Assert.assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                UploadCache.contentHash(writeFile("abc.txt", "abc")));
+    }
+
+    private File writeFile(String name, String contents) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
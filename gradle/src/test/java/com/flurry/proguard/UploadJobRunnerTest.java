@@ -0,0 +1,120 @@
+package com.flurry.proguard;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test running many upload jobs in one JVM, from a manifest and over the daemon socket
+ */
+public class UploadJobRunnerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testJobsShareLookupsAndFailIndependently() throws IOException {
+        try (StubFlurryServer server = new StubFlurryServer().setLatencyMs(5).setProcessingDelayMs(50);
+             UploadSession session = server.newSession()) {
+            UploadJobRunner runner = new UploadJobRunner(session, "token", 5000,
+                    new UploadOptions().setPollIntervalMs(20), 4);
+            List<UploadJobResult> results = runner.runAll(Arrays.asList(
+                    new UploadJob("KEY_A", "uuid-1", mapping(), AndroidUploadType.ANDROID_JAVA),
+                    new UploadJob("KEY_A", "uuid-2", mapping(), AndroidUploadType.ANDROID_JAVA),
+                    new UploadJob("KEY_A", "uuid-3", folder.getRoot().getPath(), AndroidUploadType.ANDROID_JAVA),
+                    new UploadJob("KEY_B", "uuid-4", mapping(), AndroidUploadType.ANDROID_JAVA)));
+
+            Assert.assertEquals(4, results.size());
+            Assert.assertTrue(results.get(0).getResult().isProcessed());
+            Assert.assertTrue(results.get(1).getResult().isProcessed());
+            Assert.assertFalse(results.get(2).isSucceeded());
+            Assert.assertTrue(results.get(3).getResult().isProcessed());
+            Assert.assertEquals(2, server.getProjectLookups());
+
+            JSONObject summary = UploadJobRunner.summary(results);
+            Assert.assertEquals(3, summary.getInt("succeeded"));
+            Assert.assertEquals(1, summary.getInt("failed"));
+            JSONObject failed = summary.getJSONArray("jobs").getJSONObject(2);
+            Assert.assertEquals("failed", failed.getString("status"));
+            Assert.assertEquals("uuid-3", failed.getString("uuid"));
+            Assert.assertTrue(failed.getString("error").contains("is a directory"));
+            Assert.assertEquals("processed", summary.getJSONArray("jobs").getJSONObject(3).getString("status"));
+        }
+    }
+
+    @Test
+    public void testDaemonRunsJobsFromTheSocket() throws Exception {
+        Path socket = new File(folder.getRoot(), "uploads.sock").toPath();
+        Thread serving;
+        try (StubFlurryServer server = new StubFlurryServer().setProcessingDelayMs(50);
+             UploadSession session = server.newSession();
+             UploadDaemon daemon = new UploadDaemon(socket, new UploadJobRunner(session, "token", 5000,
+                     new UploadOptions().setPollIntervalMs(20), 2))) {
+            Assert.assertEquals("rw-------",
+                    PosixFilePermissions.toString(Files.getPosixFilePermissions(socket)));
+            Assert.assertArrayEquals(new String[] {"uploads.sock"}, folder.getRoot().list());
+            serving = new Thread(() -> {
+                try {
+                    daemon.serve();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            serving.start();
+
+            Map<Object, JSONObject> replies = new HashMap<>();
+            try (SocketChannel client = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+                String jobs = new JSONObject().put("id", 1).put("apiKey", "KEY_A").put("uuid", "uuid-1")
+                        .put("path", mapping()).put("type", "java") + "\n"
+                        + new JSONObject().put("id", "second").put("apiKey", "KEY_A").put("type", "java") + "\n";
+                client.write(ByteBuffer.wrap(jobs.getBytes(StandardCharsets.UTF_8)));
+                client.shutdownOutput();
+
+                BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(client),
+                        StandardCharsets.UTF_8));
+                List<String> lines = new ArrayList<>();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+                for (String reply : lines) {
+                    JSONObject json = new JSONObject(reply);
+                    replies.put(json.get("id"), json);
+                }
+            }
+
+            Assert.assertEquals(2, replies.size());
+            Assert.assertEquals("processed", replies.get(1).getString("status"));
+            Assert.assertEquals("failed", replies.get("second").getString("status"));
+            Assert.assertTrue(replies.get("second").getString("error").startsWith("Bad job"));
+            Assert.assertEquals(1, server.getCompletedUploads());
+        }
+
+        serving.join(5000);
+        Assert.assertFalse(serving.isAlive());
+        Assert.assertFalse(socket.toFile().exists());
+    }
+
+    private String mapping() {
+        return new File(getClass().getClassLoader().getResource("mapping.txt").getFile()).getAbsolutePath();
+    }
+}
@@ -0,0 +1,75 @@
+package com.flurry.proguard;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test chunked upload journals
+ */
+public class UploadJournalTest {
+    private static final String API_KEY = "FOO_API_KEY";
+    private static final String UUID = "uuid-1";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testProgressSurvivesReopening() throws IOException {
+        File journalDir = folder.newFolder("journal");
+        List<File> files = Collections.singletonList(folder.newFile("mapping.txt"));
+
+        UploadJournal journal = open(journalDir, files, 1024);
+        Assert.assertFalse(journal.canResume());
+        Files.write(journal.getArchiveFile().toPath(), new byte[4000]);
+        journal.start("1", "42", 1024);
+        journal.acknowledge(0);
+        journal.acknowledge(2);
+
+        UploadJournal resumed = open(journalDir, files, 1024);
+        Assert.assertTrue(resumed.canResume());
+        Assert.assertEquals("1", resumed.getProjectId());
+        Assert.assertEquals("42", resumed.getUploadId());
+        Assert.assertTrue(resumed.isAcknowledged(0));
+        Assert.assertFalse(resumed.isAcknowledged(1));
+        Assert.assertTrue(resumed.isAcknowledged(2));
+    }
+
+    @Test
+    public void testChangedChunkSizeStartsOver() throws IOException {
+        File journalDir = folder.newFolder("journal");
+        List<File> files = Collections.singletonList(folder.newFile("mapping.txt"));
+
+        UploadJournal journal = open(journalDir, files, 1024);
+        Files.write(journal.getArchiveFile().toPath(), new byte[4000]);
+        journal.start("1", "42", 1024);
+
+        Assert.assertFalse(open(journalDir, files, 2048).canResume());
+        Assert.assertFalse(journal.getArchiveFile().exists());
+    }
+
+    @Test
+    public void testDeleteRemovesArchive() throws IOException {
+        File journalDir = folder.newFolder("journal");
+        List<File> files = Collections.singletonList(folder.newFile("mapping.txt"));
+
+        UploadJournal journal = open(journalDir, files, 1024);
+        Files.write(journal.getArchiveFile().toPath(), new byte[10]);
+        journal.start("1", "42", 1024);
+        journal.delete();
+
+        Assert.assertFalse(journal.getArchiveFile().exists());
+        Assert.assertFalse(open(journalDir, files, 1024).canResume());
+    }
+
+    private UploadJournal open(File journalDir, List<File> files, long chunkSize) throws IOException {
+        return UploadJournal.open(journalDir, API_KEY, UUID, AndroidUploadType.ANDROID_JAVA, files, chunkSize);
+    }
+}
@@ -0,0 +1,218 @@
+package com.flurry.proguard;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives concurrent uploads through an {@link UploadSession} against a {@link StubFlurryServer} and reports their
+ * throughput and tail latency, so changes to concurrency and transfer can be measured without the real services.
+ * Run it with {@code ./gradlew loadTest -PloadArgs="--uploads 200 --concurrency 16 --latency 50"}.
+ */
+public class UploadLoadHarness {
+
+    public static void main(String[] args) throws Exception {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser("com.flurry.proguard.UploadLoadHarness", true)
+                .description("Measures concurrent uploads against a local stand-in for Flurry's services");
+        parser.addArgument("--uploads").type(Integer.class).setDefault(100)
+                    .help("The number of uploads to send");
+        parser.addArgument("--concurrency").type(Integer.class).setDefault(8)
+                    .help("The most uploads to send at the same time");
+        parser.addArgument("--size-kb").type(Integer.class).setDefault(0)
+                    .help("The size of each mapping, 0 for the bundled mapping.txt");
+        parser.addArgument("--latency").type(Long.class).setDefault(20L)
+                    .help("The server's latency per request (in ms)");
+        parser.addArgument("--bandwidth").type(Long.class).setDefault(0L)
+                    .help("The server's bandwidth shared by all uploads (in bytes per second), 0 for no limit");
+        parser.addArgument("--error-rate").type(Double.class).setDefault(0.0)
+                    .help("The share of requests the server fails with a 503");
+        parser.addArgument("--retry-after").type(Long.class).setDefault(-1L)
+                    .help("The Retry-After (in seconds) the server sends with each 503, -1 to send none");
+        parser.addArgument("--slow-rate").type(Double.class).setDefault(0.0)
+                    .help("The share of requests the server holds back for --slow-delay");
+        parser.addArgument("--slow-delay").type(Long.class).setDefault(2000L)
+                    .help("How much longer slow requests take (in ms)");
+        parser.addArgument("--processing-delay").type(Long.class).setDefault(500L)
+                    .help("How long the server takes to process an upload (in ms)");
+        parser.addArgument("--poll-interval").type(Long.class).setDefault(100L)
+                    .help("How long to wait between upload status checks (in ms)");
+        parser.addArgument("--chunk-size").type(Long.class).setDefault(0L)
+                    .help("Send archives in chunks of this many bytes, 0 to send them whole");
+        parser.addArgument("--parallel-chunks").type(Integer.class).setDefault(1)
+                    .help("The number of chunks of an upload to send at the same time");
+        parser.addArgument("--compression-level").type(Integer.class).setDefault(-1)
+                    .help("The deflate level, 0-9 or -1 for the default");
+        parser.addArgument("--max-upload-rate").type(Long.class).setDefault(0L)
+                    .help("The client's bandwidth limit shared by all uploads (in bytes per second), 0 for no limit");
+        parser.addArgument("--max-concurrent-uploads").type(Integer.class).setDefault(0)
+                    .help("The most archives the client sends at the same time, 0 for no limit");
+        parser.addArgument("--max-retries").type(Integer.class).setDefault(3)
+                    .help("How many times the client sends a failed request again");
+        parser.addArgument("--retry-delay").type(Long.class).setDefault(500L)
+                    .help("How long the client waits before its first retry (in ms)");
+        parser.addArgument("--hedge-delay").type(Long.class).setDefault(0L)
+                    .help("Send metadata requests again if they aren't answered in this long (in ms), 0 to never");
+        parser.addArgument("--stream").type(Boolean.class).setDefault(false)
+                    .help("Stream archives instead of writing them to a temp file first");
+
+        Namespace res;
+        try {
+            res = parser.parseArgs(args);
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            System.exit(1);
+            return;
+        }
+
+        File mapping = mapping(res.getInt("size_kb") * 1024L);
+        try (StubFlurryServer server = new StubFlurryServer()
+                .setLatencyMs(res.getLong("latency"))
+                .setBandwidthBytesPerSecond(res.getLong("bandwidth"))
+                .setErrorRate(res.getDouble("error_rate"))
+                .setRetryAfterSeconds(res.getLong("retry_after"))
+                .setSlowRequests(res.getDouble("slow_rate"), res.getLong("slow_delay"))
+                .setProcessingDelayMs(res.getLong("processing_delay"));
+             UploadSession session = server.newSession()) {
+            run(res, server, session, mapping);
+        } finally {
+            mapping.delete();
+        }
+        System.exit(0);
+    }
+
+    private static void run(Namespace res, StubFlurryServer server, UploadSession session, File mapping)
+            throws IOException {
+        Map<String, AtomicInteger> retries = new ConcurrentSkipListMap<>();
+        AtomicInteger polls = new AtomicInteger();
+        AtomicLong throttledNanos = new AtomicLong();
+        UploadOptions options = new UploadOptions()
+                .setCompressionLevel(res.getInt("compression_level"))
+                .setStreaming(res.getBoolean("stream"))
+                .setChunkSize(res.getLong("chunk_size"))
+                .setParallelChunks(res.getInt("parallel_chunks"))
+                .setJournalDir(Files.createTempDirectory("load-journal").toFile())
+                .setPollIntervalMs(res.getLong("poll_interval"))
+                .setMaxPollIntervalMs(res.getLong("poll_interval"))
+                .setPollJitter(0)
+                .setMaxUploadBytesPerSecond(res.getLong("max_upload_rate"))
+                .setMaxConcurrentUploads(res.getInt("max_concurrent_uploads"))
+                .setMaxRetries(res.getInt("max_retries"))
+                .setRetryDelayMs(res.getLong("retry_delay"))
+                .setHedgeDelayMs(res.getLong("hedge_delay"))
+                .setListener(new UploadListener() {
+                    @Override
+                    public void retried(String operation, int attempt, Throwable failure) {
+                        // Count the retries of every chunk together
+                        retries.computeIfAbsent(operation.replaceAll(" \\d+$", ""), key -> new AtomicInteger())
+                                .incrementAndGet();
+                    }
+
+                    @Override
+                    public void transferProgress(long sentBytes, long totalBytes, long bytesPerSecond,
+                                                 long throttled) {
+                        if (sentBytes == totalBytes) {
+                            throttledNanos.addAndGet(throttled);
+                        }
+                    }
+
+                    @Override
+                    public void statusPolled(String uploadId, int attempt, String status) {
+                        polls.incrementAndGet();
+                    }
+                });
+
+        int uploads = res.getInt("uploads");
+        UploadQueue queue = new UploadQueue(res.getInt("concurrency"));
+        long[] latencies = new long[uploads];
+        AtomicInteger failures = new AtomicInteger();
+        AtomicLong archiveBytes = new AtomicLong();
+        List<CompletableFuture<UploadResult>> results = new ArrayList<>();
+        long started = System.nanoTime();
+        for (int i = 0; i < uploads; i++) {
+            int upload = i;
+            results.add(queue.submit(() -> {
+                long start = System.nanoTime();
+                return session.uploadFilesAsync("LOAD_API_KEY", UUID.randomUUID().toString(),
+                        Collections.singletonList(mapping.getAbsolutePath()), "token", 600_000,
+                        AndroidUploadType.ANDROID_JAVA, options)
+                        .whenComplete((result, error) -> {
+                            latencies[upload] = System.nanoTime() - start;
+                            if (error != null) {
+                                failures.incrementAndGet();
+                            } else {
+                                archiveBytes.addAndGet(result.getArchiveSize());
+                            }
+                        });
+            }));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).handle((ignored, error) -> null).join();
+        long elapsed = System.nanoTime() - started;
+
+        double seconds = elapsed / 1e9;
+        List<Long> sorted = new ArrayList<>();
+        for (long latency : latencies) {
+            sorted.add(latency);
+        }
+        Collections.sort(sorted);
+        System.out.printf("Uploads:      %d sent, %d failed, %d at a time%n", uploads, failures.get(),
+                res.getInt("concurrency"));
+        System.out.printf("Mapping:      %d bytes, archives %d bytes in total%n", mapping.length(),
+                archiveBytes.get());
+        System.out.printf("Elapsed:      %.2fs%n", seconds);
+        System.out.printf("Throughput:   %.1f uploads/s, %.2f MB/s of archives%n", uploads / seconds,
+                archiveBytes.get() / seconds / (1024 * 1024));
+        System.out.printf("Latency (ms): p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n", percentile(sorted, 0.5),
+                percentile(sorted, 0.9), percentile(sorted, 0.99), percentile(sorted, 1));
+        System.out.printf("Server:       %d requests, %d injected errors, %d bytes received%n",
+                server.getRequests(), server.getInjectedErrors(), server.getBytesReceived());
+        System.out.printf("Client:       %d status checks, %.1fs waiting for the bandwidth limit%n", polls.get(),
+                throttledNanos.get() / 1e9);
+        System.out.printf("Retries:      %s%n", retries.isEmpty() ? "none" : retries);
+    }
+
+    private static double percentile(List<Long> sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return TimeUnit.NANOSECONDS.toMicros(sorted.get(Math.max(0, index))) / 1000.0;
+    }
+
+    /**
+     * @param size the size of the mapping, 0 for the bundled mapping as is
+     * @return a temp file holding the bundled mapping, repeated until it is the given size
+     */
+    private static File mapping(long size) throws IOException {
+        byte[] bundled;
+        try (InputStream in = UploadLoadHarness.class.getClassLoader().getResourceAsStream("mapping.txt")) {
+            if (in == null) {
+                throw new IOException("mapping.txt is missing from the classpath");
+            }
+            bundled = in.readAllBytes();
+        }
+        File mapping = File.createTempFile("load-mapping", ".txt");
+        try (OutputStream out = Files.newOutputStream(mapping.toPath())) {
+            long written = 0;
+            do {
+                int length = (int) Math.min(bundled.length, size > 0 ? size - written : bundled.length);
+                out.write(bundled, 0, length);
+                written += length;
+            } while (written < size);
+        }
+        return mapping;
+    }
+}
@@ -0,0 +1,91 @@
+package com.flurry.proguard;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Test reading upload jobs from JSON and CSV manifests
+ */
+public class UploadManifestTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadsJsonManifest() throws IOException {
+        File manifest = write("release.json", "[" +
+                "{\"apiKey\": \"KEY_A\", \"uuid\": \"uuid-a\", \"path\": \"a/mapping.txt\", \"type\": \"java\"}," +
+                "{\"apiKey\": \"KEY_B\", \"path\": \"/libs/b\", \"type\": \"NATIVE\"}" +
+                "]");
+
+        List<UploadJob> jobs = UploadManifest.read(manifest);
+
+        Assert.assertEquals(2, jobs.size());
+        Assert.assertEquals("KEY_A", jobs.get(0).getApiKey());
+        Assert.assertEquals("uuid-a", jobs.get(0).getUuid());
+        Assert.assertEquals(new File(folder.getRoot(), "a/mapping.txt").getPath(), jobs.get(0).getPath());
+        Assert.assertEquals(AndroidUploadType.ANDROID_JAVA, jobs.get(0).getUploadType());
+        Assert.assertNull(jobs.get(1).getUuid());
+        Assert.assertEquals("/libs/b", jobs.get(1).getPath());
+        Assert.assertEquals(AndroidUploadType.ANDROID_NATIVE, jobs.get(1).getUploadType());
+    }
+
+    @Test
+    public void testReadsJsonManifestWithJobsField() throws IOException {
+        File manifest = write("release.json", "{\"jobs\": [" +
+                "{\"apiKey\": \"KEY_A\", \"uuid\": \"uuid-a\", \"path\": \"/a/mapping.txt\", \"type\": \"java\"}" +
+                "]}");
+
+        Assert.assertEquals(1, UploadManifest.read(manifest).size());
+    }
+
+    @Test
+    public void testReadsCsvColumnsInAnyOrder() throws IOException {
+        File manifest = write("release.csv", "# Every app of the release\n" +
+                "type,path,apiKey,uuid\n" +
+                "java,/a/mapping.txt,KEY_A,uuid-a\n" +
+                "\n" +
+                "native,libs/b,KEY_B,\n");
+
+        List<UploadJob> jobs = UploadManifest.read(manifest);
+
+        Assert.assertEquals(2, jobs.size());
+        Assert.assertEquals("KEY_A", jobs.get(0).getApiKey());
+        Assert.assertEquals("/a/mapping.txt", jobs.get(0).getPath());
+        Assert.assertEquals(AndroidUploadType.ANDROID_NATIVE, jobs.get(1).getUploadType());
+        Assert.assertNull(jobs.get(1).getUuid());
+        Assert.assertEquals(new File(folder.getRoot(), "libs/b").getPath(), jobs.get(1).getPath());
+    }
+
+    @Test
+    public void testRejectsIncompleteJobs() throws IOException {
+        File missingUuid = write("release.csv", "apiKey,uuid,path,type\nKEY_A,,/a/mapping.txt,java\n");
+        try {
+            UploadManifest.read(missingUuid);
+            Assert.fail("A ProGuard job needs a uuid");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Line 2 of"));
+        }
+
+        File badType = write("release.json", "[{\"apiKey\": \"KEY_A\", \"path\": \"/a\", \"type\": \"ios\"}]");
+        try {
+            UploadManifest.read(badType);
+            Assert.fail("Only java and native jobs can be run");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Job 1 of"));
+        }
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
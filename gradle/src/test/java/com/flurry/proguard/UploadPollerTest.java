@@ -0,0 +1,110 @@
+package com.flurry.proguard;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Test the shared upload status poller
+ */
+public class UploadPollerTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final UploadOptions options = new UploadOptions().setPollIntervalMs(1).setMaxPollIntervalMs(5);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPollsUntilProcessed() throws Exception {
+        Iterator<String> statuses = Arrays.asList("PENDING", "PROCESSING", "COMPLETED").iterator();
+        StringBuilder polled = new StringBuilder();
+        UploadListener listener = new UploadListener() {
+            @Override
+            public void statusPolled(String uploadId, int attempt, String status) {
+                polled.append(attempt).append(status).append(' ');
+            }
+        };
+        try (UploadPoller poller = newPoller(() -> upload(statuses.next()))) {
+            poller.watch("1", "2", "token", 10_000, options, listener).get(10, TimeUnit.SECONDS);
+        }
+        Assert.assertFalse(statuses.hasNext());
+        Assert.assertEquals("1PENDING 2PROCESSING 3COMPLETED ", polled.toString());
+    }
+
+    @Test
+    public void testProcessingFailure() throws Exception {
+        try (UploadPoller poller = newPoller(() -> upload("FAILED"))) {
+            poller.watch("1", "2", "token", 10_000, options, null).get(10, TimeUnit.SECONDS);
+            Assert.fail("The upload should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof UploadPoller.ProcessingFailedException);
+            Assert.assertEquals("Upload processing failed: bad mapping", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        try (UploadPoller poller = newPoller(() -> upload("PENDING"))) {
+            poller.watch("1", "2", "token", 50, options, null).get(10, TimeUnit.SECONDS);
+            Assert.fail("The upload should have timed out");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testCancellationStopsPolling() throws Exception {
+        AtomicInteger checks = new AtomicInteger();
+        try (UploadPoller poller = newPoller(() -> {
+            checks.incrementAndGet();
+            return upload("PENDING");
+        })) {
+            CompletableFuture<Void> processed = poller.watch("1", "2", "token", 10_000,
+                    new UploadOptions().setPollIntervalMs(20).setPollBackoff(1), null);
+            Thread.sleep(50);
+            Assert.assertTrue(processed.cancel(false));
+            int checksWhenCancelled = checks.get();
+            Thread.sleep(100);
+            Assert.assertTrue(checks.get() <= checksWhenCancelled + 1);
+        }
+    }
+
+    @Test
+    public void testBackoffAndJitter() {
+        UploadOptions backoff = new UploadOptions().setPollIntervalMs(1000).setMaxPollIntervalMs(4000)
+                .setPollBackoff(2).setPollJitter(0);
+        Assert.assertEquals(1000, UploadPoller.nextDelay(backoff, 1));
+        Assert.assertEquals(2000, UploadPoller.nextDelay(backoff, 2));
+        Assert.assertEquals(4000, UploadPoller.nextDelay(backoff, 3));
+        Assert.assertEquals(4000, UploadPoller.nextDelay(backoff, 10));
+
+        backoff.setPollJitter(0.5);
+        for (int i = 0; i < 100; i++) {
+            long delay = UploadPoller.nextDelay(backoff, 1);
+            Assert.assertTrue(delay >= 500 && delay <= 1500);
+        }
+    }
+
+    private UploadPoller newPoller(Supplier<JSONObject> statuses) {
+        return new UploadPoller(executor, (projectId, uploadId, token, pollOptions, listener) -> statuses.get());
+    }
+
+    private static JSONObject upload(String status) {
+        return new JSONObject().put("data", new JSONObject().put("attributes",
+                new JSONObject().put("uploadStatus", status).put("failureReason", "bad mapping")));
+    }
+}
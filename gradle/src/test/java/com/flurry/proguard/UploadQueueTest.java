@@ -0,0 +1,97 @@
+package com.flurry.proguard;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Test the upload concurrency limit
+ */
+public class UploadQueueTest {
+
+    @Test
+    public void testUploadsBeyondTheLimitWait() throws Exception {
+        UploadQueue queue = new UploadQueue(2);
+        List<CompletableFuture<Integer>> started = new ArrayList<>();
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            results.add(queue.submit(() -> {
+                CompletableFuture<Integer> upload = new CompletableFuture<>();
+                started.add(upload);
+                return upload;
+            }));
+        }
+        Assert.assertEquals(2, started.size());
+        Assert.assertEquals(2, queue.getWaiting());
+
+        started.get(1).complete(1);
+        Assert.assertEquals(3, started.size());
+        Assert.assertEquals(Integer.valueOf(1), results.get(1).get());
+
+        started.get(0).completeExceptionally(new IllegalStateException("failed"));
+        Assert.assertEquals(4, started.size());
+        Assert.assertEquals(0, queue.getWaiting());
+        try {
+            results.get(0).get();
+            Assert.fail("The failure should reach the upload's future");
+        } catch (ExecutionException e) {
+            Assert.assertEquals("failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testFailureToStartReleasesTheSlot() throws Exception {
+        UploadQueue queue = new UploadQueue(1);
+        CompletableFuture<String> failed = queue.submit(() -> {
+            throw new IllegalStateException("cannot start");
+        });
+        Assert.assertTrue(failed.isCompletedExceptionally());
+        Assert.assertEquals("sent", queue.submit(() -> CompletableFuture.completedFuture("sent")).get());
+    }
+
+    @Test
+    public void testManyUploadsFailingAsTheyStartDontOverflowTheStack() throws Exception {
+        UploadQueue queue = new UploadQueue(1);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        queue.submit(() -> first);
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            results.add(queue.submit(() -> {
+                throw new IllegalStateException("bad path");
+            }));
+        }
+
+        first.complete("sent");
+
+        Assert.assertEquals(0, queue.getWaiting());
+        Assert.assertTrue(results.stream().allMatch(CompletableFuture::isCompletedExceptionally));
+        Assert.assertEquals("sent", queue.submit(() -> CompletableFuture.completedFuture("sent")).get());
+    }
+
+    @Test
+    public void testUploadsWithDifferentLimitsShareTheLowest() {
+        UploadQueue queue = new UploadQueue(10);
+        List<CompletableFuture<Integer>> started = new ArrayList<>();
+        for (int limit : new int[] {3, 3, 1}) {
+            queue.submit(limit, () -> {
+                CompletableFuture<Integer> upload = new CompletableFuture<>();
+                started.add(upload);
+                return upload;
+            });
+        }
+        Assert.assertEquals(2, started.size());
+        Assert.assertEquals(1, queue.getLimit());
+
+        started.get(0).complete(0);
+        started.get(1).complete(1);
+        Assert.assertEquals(3, started.size());
+        Assert.assertEquals(0, queue.getWaiting());
+
+        started.get(2).complete(2);
+        Assert.assertEquals(10, queue.getLimit());
+    }
+}
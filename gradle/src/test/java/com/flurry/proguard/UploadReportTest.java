@@ -0,0 +1,68 @@
+package com.flurry.proguard;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test the per upload report
+ */
+public class UploadReportTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReportsPhasesSizesRetriesAndPolls() throws IOException {
+        UploadReport report = new UploadReport(AndroidUploadType.ANDROID_JAVA);
+        report.phaseCompleted(UploadPhase.PREPARE_ARCHIVE, TimeUnit.MILLISECONDS.toNanos(20), null);
+        report.phaseCompleted(UploadPhase.SEND, TimeUnit.MILLISECONDS.toNanos(500), null);
+        report.archivePrepared(2, 4000, 1000);
+        report.archiveSent(1000, TimeUnit.MILLISECONDS.toNanos(500));
+        report.retried("chunk 0", 1, new IOException("reset"));
+        report.statusPolled("2", 1, "PENDING");
+        report.statusPolled("2", 2, "COMPLETED");
+        report.uploadFinished(new UploadResult(AndroidUploadType.ANDROID_JAVA, "1", "2", 1000, 2, true), null);
+
+        File file = new File(folder.getRoot(), "reports/free-proguard.json");
+        report.write(file);
+        JSONObject json = new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+
+        Assert.assertEquals("ANDROID_JAVA", json.getString("uploadType"));
+        Assert.assertEquals("processed", json.getString("status"));
+        Assert.assertEquals(20.0, json.getJSONObject("phases").getDouble("prepareArchive"), 0);
+        Assert.assertEquals(500.0, json.getJSONObject("phases").getDouble("send"), 0);
+        Assert.assertEquals(2, json.getInt("fileCount"));
+        Assert.assertEquals(4000, json.getLong("rawBytes"));
+        Assert.assertEquals(1000, json.getLong("archiveBytes"));
+        Assert.assertEquals(4.0, json.getDouble("compressionRatio"), 0);
+        Assert.assertEquals(2000, json.getLong("sendThroughputBytesPerSecond"));
+        Assert.assertEquals(1, json.getInt("retries"));
+        Assert.assertEquals(2, json.getInt("polls"));
+        Assert.assertEquals("2", json.getString("uploadId"));
+        Assert.assertFalse(json.has("error"));
+    }
+
+    @Test
+    public void testFailingListenerDoesNotStopOthers() {
+        UploadReport report = new UploadReport(AndroidUploadType.ANDROID_NATIVE);
+        UploadListener failing = new UploadListener() {
+            @Override
+            public void uploadFinished(UploadResult result, Throwable failure) {
+                throw new IllegalStateException("listener failed");
+            }
+        };
+        new UploadListeners(failing, null, report).uploadFinished(null, new IOException("Upload failed"));
+
+        JSONObject json = report.toJson();
+        Assert.assertEquals("failed", json.getString("status"));
+        Assert.assertEquals("Upload failed", json.getString("error"));
+    }
+}
@@ -0,0 +1,269 @@
+package com.flurry.proguard;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test the asynchronous upload pipeline
+ */
+public class UploadSessionTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAsyncFailuresCompleteTheFuture() throws Exception {
+        AtomicInteger tasks = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (UploadSession session = new UploadSession(1, 1, 1000, runnable -> {
+            tasks.incrementAndGet();
+            executor.execute(runnable);
+        })) {
+            CompletableFuture<UploadResult> upload = session.uploadFilesAsync(null, "uuid",
+                    Collections.singletonList("mapping.txt"), "token", 1000, AndroidUploadType.ANDROID_JAVA,
+                    new UploadOptions());
+            try {
+                upload.get();
+                Assert.fail("The upload should fail without an API key");
+            } catch (ExecutionException e) {
+                Assert.assertEquals("No API key provided", e.getCause().getMessage());
+            }
+            Assert.assertTrue(tasks.get() > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSyncUploadRethrowsFailures() throws IOException {
+        try (UploadSession session = new UploadSession()) {
+            session.uploadFiles("API_KEY", null, Collections.singletonList("mapping.txt"), "token", 1000,
+                    AndroidUploadType.ANDROID_JAVA, new UploadOptions());
+            Assert.fail("The upload should fail without a UUID");
+        } catch (RuntimeException e) {
+            Assert.assertEquals("No UUID provided", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testBatchNeedsAUuidForEachMapping() throws IOException {
+        try (UploadSession session = new UploadSession()) {
+            session.uploadBatch("API_KEY", Arrays.asList(
+                    new BatchEntry("free", "free/mapping.txt", AndroidUploadType.ANDROID_JAVA),
+                    new BatchEntry(null, "paid/mapping.txt", AndroidUploadType.ANDROID_JAVA)),
+                    "token", 1000, new UploadOptions());
+            Assert.fail("The batch should fail without a UUID for each mapping");
+        } catch (RuntimeException e) {
+            Assert.assertEquals("No UUID provided", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testUploadAgainstStubServer() throws IOException {
+        try (StubFlurryServer server = new StubFlurryServer().setLatencyMs(5).setProcessingDelayMs(100);
+             UploadSession session = server.newSession()) {
+            UploadResult upload = session.uploadFiles("API_KEY", "uuid", Collections.singletonList(mapping()),
+                    "token", 1000, AndroidUploadType.ANDROID_JAVA, new UploadOptions().setPollIntervalMs(20));
+
+            Assert.assertTrue(upload.isProcessed());
+            Assert.assertEquals(1, server.getCompletedUploads());
+            Assert.assertTrue(server.getBytesReceived() > upload.getArchiveSize());
+        }
+    }
+
+    @Test
+    public void testStreamedUploadResendsTheSameArchive() throws IOException {
+        AtomicInteger retries = new AtomicInteger();
+        UploadListener listener = new UploadListener() {
+            @Override
+            public void retried(String operation, int attempt, Throwable failure) {
+                retries.incrementAndGet();
+            }
+        };
+        try (StubFlurryServer server = new StubFlurryServer().failNextUploadRequests(1);
+             UploadSession session = server.newSession()) {
+            UploadResult upload = session.uploadFiles("API_KEY", "uuid", Collections.singletonList(mapping()),
+                    "token", 1000, AndroidUploadType.ANDROID_JAVA, new UploadOptions()
+                            .setStreaming(true)
+                            .setPollIntervalMs(20)
+                            .setListener(listener));
+
+            Assert.assertTrue(upload.isProcessed());
+            Assert.assertEquals(1, server.getInjectedErrors());
+            Assert.assertEquals(1, retries.get());
+            Assert.assertTrue(server.getBytesReceived() > upload.getArchiveSize());
+        }
+    }
+
+    @Test
+    public void testChunkedUploadRetriesFailedChunks() throws IOException {
+        AtomicInteger retries = new AtomicInteger();
+        UploadListener listener = new UploadListener() {
+            @Override
+            public void retried(String operation, int attempt, Throwable failure) {
+                retries.incrementAndGet();
+            }
+        };
+        try (StubFlurryServer server = new StubFlurryServer().failNextUploadRequests(1);
+             UploadSession session = server.newSession()) {
+            UploadResult upload = session.uploadFiles("API_KEY", "uuid", Collections.singletonList(mapping()),
+                    "token", 1000, AndroidUploadType.ANDROID_JAVA, new UploadOptions()
+                            .setChunkSize(64 * 1024)
+                            .setJournalDir(folder.newFolder("journal"))
+                            .setPollIntervalMs(20)
+                            .setListener(listener));
+
+            Assert.assertTrue(upload.isProcessed());
+            Assert.assertEquals(1, server.getInjectedErrors());
+            Assert.assertEquals(1, retries.get());
+        }
+    }
+
+    @Test
+    public void testRejectedChunksAreNotRetried() throws IOException {
+        AtomicInteger retries = new AtomicInteger();
+        UploadListener listener = new UploadListener() {
+            @Override
+            public void retried(String operation, int attempt, Throwable failure) {
+                retries.incrementAndGet();
+            }
+        };
+        try (StubFlurryServer server = new StubFlurryServer().rejectNextUploadRequests(1, 401);
+             UploadSession session = server.newSession()) {
+            session.uploadFiles("API_KEY", "uuid", Collections.singletonList(mapping()), "token", 1000,
+                    AndroidUploadType.ANDROID_JAVA, new UploadOptions()
+                            .setChunkSize(64 * 1024)
+                            .setParallelChunks(1)
+                            .setJournalDir(folder.newFolder("journal"))
+                            .setRetryDelayMs(10)
+                            .setListener(listener));
+            Assert.fail("A chunk rejected with a 401 should fail the upload");
+        } catch (RuntimeException e) {
+            Assert.assertEquals("The provided token is expired", e.getMessage());
+            Assert.assertEquals(0, retries.get());
+        }
+    }
+
+    @Test
+    public void testProjectRejectedByTheUploadServiceIsLookedUpAgain() throws IOException {
+        try (StubFlurryServer server = new StubFlurryServer().rejectNextUploadRequests(1, 404);
+             UploadSession session = server.newSession()) {
+            UploadOptions options = new UploadOptions().setPollIntervalMs(20);
+            try {
+                session.uploadFiles("API_KEY", "uuid", Collections.singletonList(mapping()), "token", 1000,
+                        AndroidUploadType.ANDROID_JAVA, options);
+                Assert.fail("A rejected upload should fail");
+            } catch (RuntimeException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("404"));
+            }
+            UploadResult upload = session.uploadFiles("API_KEY", "uuid", Collections.singletonList(mapping()),
+                    "token", 1000, AndroidUploadType.ANDROID_JAVA, options);
+
+            Assert.assertTrue(upload.isProcessed());
+            Assert.assertEquals(2, server.getProjectLookups());
+        }
+    }
+
+    @Test
+    public void testTransientMetadataFailuresAreRetried() throws IOException {
+        List<String> retried = new CopyOnWriteArrayList<>();
+        UploadListener listener = new UploadListener() {
+            @Override
+            public void retried(String operation, int attempt, Throwable failure) {
+                retried.add(operation + " " + attempt);
+            }
+        };
+        try (StubFlurryServer server = new StubFlurryServer().failNextMetadataRequests(2).setRetryAfterSeconds(0);
+             UploadSession session = server.newSession()) {
+            UploadResult upload = session.uploadFiles("API_KEY", "uuid", Collections.singletonList(mapping()),
+                    "token", 1000, AndroidUploadType.ANDROID_JAVA, new UploadOptions()
+                            .setRetryDelayMs(10)
+                            .setPollIntervalMs(20)
+                            .setListener(listener));
+
+            Assert.assertTrue(upload.isProcessed());
+            Assert.assertEquals(2, server.getInjectedErrors());
+            Assert.assertEquals(Arrays.asList("project lookup 1", "project lookup 2"), retried);
+        }
+    }
+
+    @Test
+    public void testUploadFailsOnceRetriesRunOut() throws IOException {
+        try (StubFlurryServer server = new StubFlurryServer().failNextMetadataRequests(10);
+             UploadSession session = server.newSession()) {
+            session.uploadFiles("API_KEY", "uuid", Collections.singletonList(mapping()), "token", 1000,
+                    AndroidUploadType.ANDROID_JAVA, new UploadOptions().setMaxRetries(1).setRetryDelayMs(10));
+            Assert.fail("The upload should fail once its retries run out");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("503"));
+        }
+    }
+
+    @Test
+    public void testSlowLookupsAreHedged() throws IOException {
+        try (StubFlurryServer server = new StubFlurryServer().slowNextMetadataRequests(1, 10_000);
+             UploadSession session = server.newSession()) {
+            long start = System.nanoTime();
+            UploadResult upload = session.uploadFiles("API_KEY", "uuid", Collections.singletonList(mapping()),
+                    "token", 1000, AndroidUploadType.ANDROID_JAVA, new UploadOptions()
+                            .setHedgeDelayMs(100)
+                            .setPollIntervalMs(20));
+
+            Assert.assertTrue(upload.isProcessed());
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        }
+    }
+
+    @Test
+    public void testProcessingFailureFailsTheUpload() throws IOException {
+        try (StubFlurryServer server = new StubFlurryServer().setProcessingFailure("bad mapping");
+             UploadSession session = server.newSession()) {
+            session.uploadFiles("API_KEY", "uuid", Collections.singletonList(mapping()), "token", 1000,
+                    AndroidUploadType.ANDROID_JAVA, new UploadOptions().setPollIntervalMs(20));
+            Assert.fail("The upload should fail when processing fails");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("bad mapping"));
+        }
+    }
+
+    @Test
+    public void testDeltasNeedAnOptInAndAnotherService() throws IOException {
+        UploadOptions optedIn = new UploadOptions().setExperimentalDeltaUploads(true);
+        Assert.assertFalse(UploadPipeline.sendsDeltas(new UploadOptions(), "http://localhost:8080/pulse/v1"));
+        Assert.assertFalse(UploadPipeline.sendsDeltas(optedIn, UploadSession.DEFAULT_METADATA_BASE));
+        Assert.assertTrue(UploadPipeline.sendsDeltas(optedIn, "http://localhost:8080/pulse/v1"));
+
+        File indexDir = folder.newFolder("delta");
+        try (StubFlurryServer server = new StubFlurryServer();
+             UploadSession session = server.newSession()) {
+            session.uploadFiles("API_KEY", "uuid", Collections.singletonList(mapping()), "token", 1000,
+                    AndroidUploadType.ANDROID_JAVA, new UploadOptions().setDeltaIndexDir(indexDir)
+                            .setPollIntervalMs(20));
+            Assert.assertArrayEquals(new String[0], indexDir.list());
+
+            session.uploadFiles("API_KEY", "uuid", Collections.singletonList(mapping()), "token", 1000,
+                    AndroidUploadType.ANDROID_JAVA, new UploadOptions().setDeltaIndexDir(indexDir)
+                            .setExperimentalDeltaUploads(true)
+                            .setPollIntervalMs(20));
+            Assert.assertEquals(1, indexDir.list().length);
+        }
+    }
+
+    private String mapping() {
+        return new File(getClass().getClassLoader().getResource("mapping.txt").getFile()).getAbsolutePath();
+    }
+}